@@ -0,0 +1,103 @@
+/**
+ * 
+ */
+package searchengine.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files in CSV format, e.g. from two commits:
+ * <pre>
+ * java org.openjdk.jmh.Main -rf csv -rff before.csv
+ * java org.openjdk.jmh.Main -rf csv -rff after.csv
+ * java searchengine.bench.CompareResults before.csv after.csv
+ * </pre>
+ * Prints the score of each benchmark and parameter combination in both files and the change.
+ * A change larger than the two error margins together is marked with *.
+ *
+ */
+public class CompareResults {
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: CompareResults <before.csv> <after.csv>");
+			return;
+		}
+		Map<String, double[]> before = read(args[0]);
+		Map<String, double[]> after = read(args[1]);
+		System.out.println(String.format("%-72s %14s %14s %9s", "Benchmark", "Before", "After", "Change"));
+		for (Map.Entry<String, double[]> entry : after.entrySet()) {
+			double[] old = before.get(entry.getKey());
+			double[] now = entry.getValue();
+			if (old == null) {
+				System.out.println(String.format("%-72s %14s %14.3f %9s", entry.getKey(), "-", now[0], "new"));
+				continue;
+			}
+			double change = (now[0] - old[0]) / old[0] * 100;
+			boolean significant = Math.abs(now[0] - old[0]) > old[1] + now[1];
+			System.out.println(String.format("%-72s %14.3f %14.3f %+8.1f%%%s",
+					entry.getKey(), old[0], now[0], change, significant ? " *" : ""));
+		}
+	}
+	
+	/**
+	 * Read the score and error of each benchmark, the key is the benchmark, its parameters and unit
+	 */
+	private static Map<String, double[]> read(String file) throws IOException {
+		List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+		Map<String, double[]> results = new LinkedHashMap<String, double[]>();
+		if (lines.isEmpty()) {
+			return results;
+		}
+		List<String> header = split(lines.get(0));
+		int score = header.indexOf("Score");
+		int error = score + 1;
+		int unit = header.indexOf("Unit");
+		for (String line : lines.subList(1, lines.size())) {
+			List<String> columns = split(line);
+			if (columns.size() < header.size()) {
+				continue;
+			}
+			StringBuilder key = new StringBuilder(columns.get(0).replaceFirst("^.*\\.bench\\.", ""));
+			for (int i=unit+1; i<columns.size(); ++i) {
+				if (!columns.get(i).isEmpty()) {
+					key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(columns.get(i));
+				}
+			}
+			key.append(" [").append(columns.get(unit)).append(']');
+			double errorMargin = columns.get(error).equals("NaN") ? 0 : Double.parseDouble(columns.get(error));
+			results.put(key.toString(), new double[] {Double.parseDouble(columns.get(score)), errorMargin});
+		}
+		return results;
+	}
+	
+	/**
+	 * Split a CSV line, the fields can be quoted
+	 */
+	private static List<String> split(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i=0; i<line.length(); ++i) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+}
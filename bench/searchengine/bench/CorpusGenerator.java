@@ -0,0 +1,150 @@
+/**
+ * 
+ */
+package searchengine.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a synthetic corpus for benchmarks. The same seed always gives the same corpus.
+ *
+ * The terms follow a Zipf distribution like the words of natural language: the term
+ * of rank k is drawn with a probability proportional to 1/k^exponent, so a few terms
+ * are in almost every document and most terms are rare. Document lengths are uniform
+ * between half and one and a half times the mean length.
+ *
+ * Run it to write a corpus as a db folder for the search engine:
+ * <pre>
+ * java searchengine.bench.CorpusGenerator &lt;folder&gt; &lt;documents&gt; &lt;mean words&gt; [seed]
+ * </pre>
+ *
+ */
+public class CorpusGenerator {
+	
+	public static final int DEFAULT_VOCABULARY = 50000;
+	public static final double DEFAULT_EXPONENT = 1.07;
+	
+	private final Random random;
+	// cumulative[k] = P(rank <= k+1)
+	private final double[] cumulative;
+	
+	public CorpusGenerator(long seed) {
+		this(seed, DEFAULT_VOCABULARY, DEFAULT_EXPONENT);
+	}
+	
+	/**
+	 * @param seed the seed of the random numbers
+	 * @param vocabulary the number of different terms
+	 * @param exponent the exponent of the Zipf distribution, about 1 for natural language
+	 */
+	public CorpusGenerator(long seed, int vocabulary, double exponent) {
+		this.random = new Random(seed);
+		this.cumulative = new double[vocabulary];
+		double sum = 0;
+		for (int k=0; k<vocabulary; ++k) {
+			sum += 1 / Math.pow(k + 1, exponent);
+			cumulative[k] = sum;
+		}
+		for (int k=0; k<vocabulary; ++k) {
+			cumulative[k] /= sum;
+		}
+	}
+	
+	/**
+	 * Get the term of a rank, rank 1 is the most frequent term
+	 */
+	public static String term(int rank) {
+		return "w" + rank;
+	}
+	
+	/**
+	 * Draw the rank of a term
+	 */
+	public int nextRank() {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		return (index < 0 ? -index - 1 : index) + 1;
+	}
+	
+	public String nextTerm() {
+		return term(nextRank());
+	}
+	
+	/**
+	 * Generate the text of a document
+	 * @param words the number of words in the document
+	 */
+	public String nextDocument(int words) {
+		StringBuilder sb = new StringBuilder(words * 6);
+		for (int i=0; i<words; ++i) {
+			if (i > 0)
+				sb.append(' ');
+			sb.append(nextTerm());
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Generate documents
+	 * @param count the number of documents
+	 * @param meanWords the mean number of words in a document
+	 */
+	public List<String> documents(int count, int meanWords) {
+		List<String> documents = new ArrayList<String>(count);
+		for (int i=0; i<count; ++i) {
+			documents.add(nextDocument(meanWords / 2 + random.nextInt(meanWords + 1)));
+		}
+		return documents;
+	}
+	
+	/**
+	 * Generate a query, the terms are drawn from the same distribution as the documents
+	 * @param terms the number of terms in the query
+	 */
+	public List<String> query(int terms) {
+		List<String> query = new ArrayList<String>(terms);
+		for (int i=0; i<terms; ++i) {
+			query.add(nextTerm());
+		}
+		return query;
+	}
+	
+	/**
+	 * Get the file name of a generated document
+	 */
+	public static String fileName(int doc) {
+		return String.format("doc%06d.txt", doc);
+	}
+	
+	/**
+	 * Write documents to a folder, as doc000000.txt, doc000001.txt...
+	 * @param folder the folder, it is created if it doesn't exist
+	 * @param count the number of documents
+	 * @param meanWords the mean number of words in a document
+	 * @throws IOException if a file can't be written
+	 */
+	public void write(Path folder, int count, int meanWords) throws IOException {
+		Files.createDirectories(folder);
+		for (int i=0; i<count; ++i) {
+			String text = nextDocument(meanWords / 2 + random.nextInt(meanWords + 1));
+			Files.write(folder.resolve(fileName(i)), text.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: CorpusGenerator <folder> <documents> <mean words> [seed]");
+			return;
+		}
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+		new CorpusGenerator(seed).write(Paths.get(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+	}
+
+}
@@ -0,0 +1,139 @@
+/**
+ * 
+ */
+package searchengine.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import searchengine.DocumentReader;
+import searchengine.InvertedIndex;
+import searchengine.TfDocumentList;
+
+/**
+ * Indexing of a generated corpus ({@link CorpusGenerator}): the time to index a document,
+ * the memory the index retains, and getting and sorting the postings of a term.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexBenchmark {
+	
+	@Param({"1000", "10000"})
+	public int docs;
+	
+	// mean number of words in a document
+	@Param({"200"})
+	public int words;
+	
+	private List<String> documents;
+	private InvertedIndex index;
+	// the most frequent term, and a term in about one document of 1000
+	private String frequentTerm;
+	private String rareTerm;
+	
+	@Setup
+	public void setup() {
+		documents = new CorpusGenerator(42).documents(docs, words);
+		index = buildIndex(documents);
+		frequentTerm = CorpusGenerator.term(1);
+		rareTerm = CorpusGenerator.term(2000);
+	}
+	
+	private static InvertedIndex buildIndex(List<String> documents) {
+		InvertedIndex index = new InvertedIndex();
+		DocumentReader reader = new DocumentReader();
+		for (int i=0; i<documents.size(); ++i) {
+			int doc = index.addDocument(CorpusGenerator.fileName(i));
+			reader.read(documents.get(i), (type, term) -> index.insert(term, doc));
+		}
+		index.trim();
+		return index;
+	}
+	
+	/**
+	 * Time to tokenize and index one document
+	 */
+	@Benchmark
+	@OperationsPerInvocation(1000)
+	public InvertedIndex indexDocuments() {
+		return buildIndex(documents.subList(0, 1000));
+	}
+	
+	@Benchmark
+	public Object getDocumentsTfidfFrequent() {
+		return index.getDocumentsTfidf(frequentTerm);
+	}
+	
+	@Benchmark
+	public Object getDocumentsTfidfRare() {
+		return index.getDocumentsTfidf(rareTerm);
+	}
+	
+	@Benchmark
+	public Object sortFrequent() {
+		TfDocumentList postings = index.getDocumentsTf(frequentTerm);
+		postings.sort();
+		return postings;
+	}
+	
+	/**
+	 * The heap the index of the whole corpus retains, reported as footprint:retainedBytes
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	public InvertedIndex footprint(Footprint footprint) {
+		long before = usedHeap();
+		InvertedIndex index = buildIndex(documents);
+		footprint.retainedBytes = usedHeap() - before;
+		return index;
+	}
+	
+	private static long usedHeap() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i=0; i<3; ++i) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+	
+	/**
+	 * Secondary result of {@link IndexBenchmark#footprint(Footprint)}
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+		
+		public long retainedBytes;
+		
+		@Setup(Level.Iteration)
+		public void reset() {
+			retainedBytes = 0;
+		}
+	
+	}
+
+}
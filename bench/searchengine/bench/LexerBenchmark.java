@@ -0,0 +1,83 @@
+/**
+ * 
+ */
+package searchengine.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import searchengine.Lexer;
+import searchengine.Lexer.TokenHandler;
+
+/**
+ * Compares the regex lexer with the scanner in {@link Lexer}, 
+ * both when a Token is created per word and when the term buffer is reused.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+	
+	// number of words in the document
+	@Param({"100", "10000"})
+	public int words;
+	
+	private String document;
+	private RegexLexer regexLexer;
+	private Lexer lexer;
+	private TokenHandler handler;
+	
+	@Setup
+	public void setup(Blackhole blackhole) {
+		Random random = new Random(42);
+		String[] vocabulary = {"the", "Brown", "fox", "jumped", "over", "lazy", "dog", 
+				"doc1.txt", ".", "well-known", "sub_word", "A1", "corner"};
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<words; ++i) {
+			if (i > 0)
+				sb.append(' ');
+			sb.append(vocabulary[random.nextInt(vocabulary.length)]);
+		}
+		document = sb.toString();
+		regexLexer = new RegexLexer();
+		lexer = new Lexer();
+		handler = (type, term) -> {
+			blackhole.consume(type);
+			blackhole.consume(term.hashCode());
+		};
+	}
+	
+	@Benchmark
+	public Object regexTokenizeDocument() {
+		return regexLexer.tokenizeDocument(document);
+	}
+	
+	@Benchmark
+	public Object tokenizeDocument() {
+		return lexer.tokenizeDocument(document);
+	}
+	
+	@Benchmark
+	public void scanDocument() {
+		lexer.scan(document, handler);
+		lexer.finish(handler);
+	}
+
+}
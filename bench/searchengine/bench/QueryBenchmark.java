@@ -0,0 +1,128 @@
+/**
+ * 
+ */
+package searchengine.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import searchengine.BooleanQuery;
+import searchengine.DocumentReader;
+import searchengine.IndexFile;
+import searchengine.IndexReader;
+import searchengine.InvertedIndex;
+import searchengine.MaxScoreSearcher;
+import searchengine.Similarity;
+
+/**
+ * Latency of top 10 queries on a generated corpus ({@link CorpusGenerator}),
+ * with one or more terms, on the heap index and on the memory mapped index file.
+ * The queries are drawn from the same Zipf distribution as the documents,
+ * and the benchmark cycles through a fixed set of them. The conjunction benchmark
+ * searches for the documents with all terms of the same queries, an AND of them.
+ * The documents are scored with tf-idf or BM25.
+ * Run it with -t &lt;threads&gt; to measure concurrent searches.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+	
+	private static final int QUERIES = 1024;
+	
+	@Param({"10000"})
+	public int docs;
+	
+	@Param({"1", "2", "4"})
+	public int terms;
+	
+	// heap or mapped
+	@Param({"heap", "mapped"})
+	public String index;
+	
+	@Param({"tfidf", "bm25"})
+	public String similarity;
+	
+	private IndexReader reader;
+	private Similarity scoring;
+	private List<List<String>> queries;
+	private BooleanQuery[] conjunctions;
+	private Path indexFile;
+	
+	@Setup
+	public void setup() throws IOException {
+		CorpusGenerator generator = new CorpusGenerator(42);
+		InvertedIndex invertedIndex = new InvertedIndex();
+		DocumentReader documentReader = new DocumentReader();
+		List<String> documents = generator.documents(docs, 200);
+		for (int i=0; i<documents.size(); ++i) {
+			int doc = invertedIndex.addDocument(CorpusGenerator.fileName(i));
+			documentReader.read(documents.get(i), (type, term) -> invertedIndex.insert(term, doc));
+		}
+		invertedIndex.trim();
+		if (index.equals("mapped")) {
+			indexFile = Files.createTempFile("searchengine", ".index");
+			IndexFile.write(invertedIndex, new long[docs], new long[docs], indexFile);
+			reader = IndexFile.open(indexFile);
+		} else {
+			reader = invertedIndex;
+		}
+		scoring = Similarity.forName(similarity);
+		queries = new ArrayList<List<String>>(QUERIES);
+		conjunctions = new BooleanQuery[QUERIES];
+		for (int i=0; i<QUERIES; ++i) {
+			queries.add(generator.query(terms));
+			List<BooleanQuery> clauses = new ArrayList<BooleanQuery>();
+			for (String term : queries.get(i)) {
+				clauses.add(BooleanQuery.term(term));
+			}
+			conjunctions[i] = BooleanQuery.and(clauses);
+		}
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		if (indexFile != null) {
+			Files.deleteIfExists(indexFile);
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next = 0;
+	}
+	
+	@Benchmark
+	public Object search(Cursor cursor) {
+		List<String> query = queries.get(cursor.next++ & (QUERIES - 1));
+		return new MaxScoreSearcher(reader, scoring).search(query, 0, 10);
+	}
+	
+	@Benchmark
+	public Object conjunction(Cursor cursor) {
+		BooleanQuery query = conjunctions[cursor.next++ & (QUERIES - 1)];
+		return new MaxScoreSearcher(reader, scoring).search(query, 0, 10);
+	}
+
+}
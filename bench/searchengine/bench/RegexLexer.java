@@ -0,0 +1,53 @@
+/**
+ * 
+ */
+package searchengine.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import searchengine.Token;
+import searchengine.TokenType;
+
+/**
+ * The regex based document lexer that {@link searchengine.Lexer} replaced, 
+ * kept as the baseline of {@link LexerBenchmark}.
+ * Every token is matched with String.matches, which compiles the regex on each call.
+ *
+ */
+public class RegexLexer {
+	
+	List<Token> tokens;
+	HashMap<TokenType, String> regexMap = new HashMap<TokenType, String>();
+	
+	public RegexLexer() {
+		regexMap.put(TokenType.FILENAME, "\\w+\\.txt");
+		regexMap.put(TokenType.PERIOD, "\\.");
+	}
+	
+	public List<Token> tokenizeDocument(String sequence) {
+		tokens = new ArrayList<Token>();
+		sequence = sequence.toLowerCase();
+		String[] sequenceList = sequence.split(" ");
+		for (int i=0; i<sequenceList.length; ++i) {
+			addToken(sequenceList[i]);
+		}
+		return tokens;
+	}
+	
+	private void addToken(String subSequence) {
+		Token token;
+		if (subSequence.matches(regexMap.get(TokenType.FILENAME))) {
+			token = new Token(TokenType.FILENAME, subSequence);
+		}
+		else if (subSequence.matches(regexMap.get(TokenType.PERIOD))) {
+			token = new Token(TokenType.PERIOD, subSequence);
+		} 
+		else {
+			token = new Token(TokenType.WORD, subSequence);
+		}
+		tokens.add(token);
+	}
+	
+}
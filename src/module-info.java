@@ -1,2 +1,6 @@
 module searchengine {
+	requires java.management;
+	requires jdk.httpserver;
+	requires jdk.jfr;
+	requires jdk.management;
 }
\ No newline at end of file
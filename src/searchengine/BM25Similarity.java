@@ -0,0 +1,93 @@
+/**
+ * 
+ */
+package searchengine;
+
+/**
+ * Okapi BM25: idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length / average length)), where
+ * idf = ln(1 + (N - df + 0.5) / (df + 0.5)). The term frequency saturates with k1, and b normalizes
+ * by the length of the document, so a long document doesn't win by repeating a term.
+ *
+ * The length part of the denominator only depends on the norm of the document, so a scorer 
+ * calculates it for all 256 norms once, and a posting is scored with a lookup of the norm 
+ * of its document and a lookup in that table.
+ * Set k1 and b with -Dsearchengine.bm25.k1 and -Dsearchengine.bm25.b.
+ *
+ */
+public class BM25Similarity implements Similarity {
+	
+	static final double DEFAULT_K1 = Double.parseDouble(System.getProperty("searchengine.bm25.k1", "1.2"));
+	static final double DEFAULT_B = Double.parseDouble(System.getProperty("searchengine.bm25.b", "0.75"));
+	
+	private final double k1;
+	private final double b;
+	
+	/**
+	 * @param k1 how fast the term frequency saturates, not negative
+	 * @param b how much the length of a document is normalized, from 0 to 1
+	 */
+	public BM25Similarity(double k1, double b) {
+		if (!(k1 >= 0) || !(b >= 0 && b <= 1)) {
+			throw new IllegalArgumentException(String.format("BM25 needs k1 >= 0 and 0 <= b <= 1: k1=%f, b=%f", k1, b));
+		}
+		this.k1 = k1;
+		this.b = b;
+	}
+	
+	@Override
+	public double idf(int docFreq, int numberOfDocuments) {
+		return Math.log(1 + (numberOfDocuments - docFreq + 0.5) / (docFreq + 0.5));
+	}
+	
+	/**
+	 * Get a scorer with the length normalization of every norm, relative to the average length of the index
+	 */
+	@Override
+	public Scorer scorer(double idf, IndexReader index) {
+		int documents = index.numberOfDocuments();
+		double averageLength = documents == 0 ? 1 : Math.max((double) index.totalLength() / documents, 1);
+		double[] lengthNorms = new double[256];
+		for (int norm=0; norm<lengthNorms.length; ++norm) {
+			lengthNorms[norm] = k1 * (1 - b + b * Norms.decode(norm) / averageLength);
+		}
+		return new BM25Scorer(idf * (k1 + 1), index.getDocuments().getNorms(), lengthNorms);
+	}
+	
+	@Override
+	public String toString() {
+		return "bm25(k1=" + k1 + ", b=" + b + ")";
+	}
+	
+	/**
+	 * Scores a posting from the length normalization of its norm
+	 */
+	private static class BM25Scorer implements Scorer {
+		
+		// idf * (k1 + 1)
+		private final double weight;
+		// the norms of the documents, and the length normalization of each norm
+		private final byte[] norms;
+		private final double[] lengthNorms;
+		
+		private BM25Scorer(double weight, byte[] norms, double[] lengthNorms) {
+			this.weight = weight;
+			this.norms = norms;
+			this.lengthNorms = lengthNorms;
+		}
+		
+		@Override
+		public double score(int doc, int freq) {
+			return weight * freq / (freq + lengthNorms[norms[doc] & 0xFF]);
+		}
+		
+		/**
+		 * The score grows with the term frequency and is highest for the shortest document, norm 0
+		 */
+		@Override
+		public double maxScore(int maxFreq) {
+			return weight * maxFreq / (maxFreq + lengthNorms[0]);
+		}
+	
+	}
+
+}
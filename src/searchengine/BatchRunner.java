@@ -0,0 +1,303 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a file of queries through a {@link SearchService} without the interactive console.
+ *
+ * Each line of the file is a query, with or without GET in front of it. Empty lines and lines
+ * that start with # are skipped. The queries run in parallel on a pool of workers: the file is read
+ * while the workers search, and the results are written in the order of the queries as soon as
+ * they are done, one line per query:
+ * <pre>
+ * &lt;query&gt;	&lt;document&gt;:&lt;score&gt; &lt;document&gt;:&lt;score&gt; ...
+ * </pre>
+ * At most a window of queries is in flight, so any number of queries can be replayed.
+ * When all queries are done a summary of the throughput, latency and allocation is printed.
+ *
+ */
+public class BatchRunner {
+	
+	// queries in flight per worker
+	private static final int WINDOW_PER_THREAD = 64;
+	// measures the allocation of the workers, null if the JVM can't
+	private static final com.sun.management.ThreadMXBean ALLOCATION = allocationBean();
+	
+	private final SearchService engine;
+	private final int threads;
+	private final int limit;
+	
+	/**
+	 * @param engine the search engine to query
+	 * @param threads the number of workers
+	 * @param limit the number of documents to return for each query
+	 */
+	public BatchRunner(SearchService engine, int threads, int limit) {
+		if (threads < 1 || limit < 0) {
+			throw new IllegalArgumentException(String.format(
+					"Threads must be positive and limit not negative: threads=%d, limit=%d", threads, limit));
+		}
+		this.engine = engine;
+		this.threads = threads;
+		this.limit = limit;
+	}
+	
+	/**
+	 * Run all queries in a file and write the results to another file
+	 * @param queries the file with one query per line
+	 * @param results the file to write the results to, it is replaced
+	 * @return the summary of the run
+	 * @throws IOException if the queries can't be read or the results can't be written
+	 */
+	public Summary run(Path queries, Path results) throws IOException {
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		ExecutorService writerThread = Executors.newSingleThreadExecutor();
+		// The results in query order, null marks the end
+		BlockingQueue<Future<Result>> window = new ArrayBlockingQueue<Future<Result>>(threads * WINDOW_PER_THREAD);
+		Future<Summary> writer = writerThread.submit(() -> write(window, results));
+		long start = System.nanoTime();
+		try (BufferedReader reader = Files.newBufferedReader(queries, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String query = line.trim();
+				if (query.isEmpty() || query.startsWith("#")) {
+					continue;
+				}
+				if (!put(window, workers.submit(() -> search(query)), writer)) {
+					break;
+				}
+			}
+			put(window, CompletableFuture.completedFuture(null), writer);
+			Summary summary = writer.get();
+			summary.seconds = (System.nanoTime() - start) / 1e9;
+			return summary;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while running the queries.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException("Failed to run the queries.", e.getCause());
+		} finally {
+			workers.shutdownNow();
+			writerThread.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Put a result in the window, waits while the window is full
+	 * @return false if the writer has stopped
+	 */
+	private static boolean put(BlockingQueue<Future<Result>> window, Future<Result> result, 
+			Future<Summary> writer) throws InterruptedException {
+		while (!window.offer(result, 100, TimeUnit.MILLISECONDS)) {
+			if (writer.isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Run one query in a worker, and format its result line. A query that fails gets an ERROR line
+	 * and is counted in the errors of the summary, the other queries still run.
+	 */
+	private Result search(String line) {
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		StringBuilder sb = new StringBuilder(line).append('\t');
+		boolean failed = false;
+		try {
+			DocumentList documents = engine.search(parse(line), 0, limit);
+			for (int i=0; i<documents.size(); ++i) {
+				Document document = documents.get(i);
+				if (i > 0)
+					sb.append(' ');
+				sb.append(documents.getDocuments().getName(document.getDocId()))
+					.append(':').append(document.getScore());
+			}
+		} catch (SyntaxException e) {
+			sb.append("ERROR ").append(e.getMessage());
+			failed = true;
+		} catch (RuntimeException e) {
+			// e.g. a shard that can't be reached, drop the part of the line that was written
+			sb.setLength(line.length() + 1);
+			sb.append("ERROR ").append(e);
+			failed = true;
+		}
+		long nanos = System.nanoTime() - start;
+		return new Result(sb.append('\n').toString(), nanos, allocatedBytes() - allocated, failed);
+	}
+	
+	/**
+	 * Parse a line of the query file to a GET query
+	 * @throws SyntaxException if it is another command, or not a valid query
+	 */
+	private static Query parse(String line) throws SyntaxException {
+		Lexer lexer = new Lexer();
+		List<Token> tokens;
+		try {
+			tokens = lexer.tokenizeQuery(line);
+		} catch (SyntaxException e) {
+			// a query without GET in front of it
+			tokens = lexer.tokenizeQuery("GET " + line);
+		}
+		if (!TokenType.GET.equals(tokens.get(0).getType())) {
+			throw new SyntaxException("Only GET queries can be run in a batch, not " + tokens.get(0).getType());
+		}
+		return new Query(QueryType.GET, tokens.subList(1, tokens.size()));
+	}
+	
+	/**
+	 * Write the results in query order and collect the statistics, in its own thread
+	 */
+	private Summary write(BlockingQueue<Future<Result>> window, Path results) throws IOException {
+		Summary summary = new Summary();
+		long[] latencies = new long[1024];
+		try (BufferedWriter writer = Files.newBufferedWriter(results, StandardCharsets.UTF_8)) {
+			while (true) {
+				Result result = window.take().get();
+				if (result == null) {
+					break;
+				}
+				writer.write(result.line);
+				if (summary.queries == latencies.length) {
+					latencies = Arrays.copyOf(latencies, latencies.length * 2);
+				}
+				latencies[summary.queries++] = result.nanos;
+				summary.allocatedBytes += result.allocatedBytes;
+				if (result.failed) {
+					++summary.errors;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while writing the results.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("A query failed.", e.getCause());
+		}
+		summary.latencies = Arrays.copyOf(latencies, summary.queries);
+		Arrays.sort(summary.latencies);
+		if (ALLOCATION == null) {
+			summary.allocatedBytes = -1;
+		}
+		return summary;
+	}
+	
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+				return threads;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the number of bytes the current thread has allocated, 0 if the JVM can't measure it
+	 */
+	private static long allocatedBytes() {
+		return ALLOCATION == null ? 0 : ALLOCATION.getCurrentThreadAllocatedBytes();
+	}
+	
+	/**
+	 * The result line of a query and what it cost
+	 */
+	private static class Result {
+		
+		private final String line;
+		private final long nanos;
+		private final long allocatedBytes;
+		private final boolean failed;
+		
+		private Result(String line, long nanos, long allocatedBytes, boolean failed) {
+			this.line = line;
+			this.nanos = nanos;
+			this.allocatedBytes = allocatedBytes;
+			this.failed = failed;
+		}
+	
+	}
+	
+	/**
+	 * Throughput, latency and allocation of a run
+	 */
+	public static class Summary {
+		
+		private int queries = 0;
+		private int errors = 0;
+		private double seconds;
+		// sorted latencies of the queries in nanoseconds
+		private long[] latencies;
+		private long allocatedBytes = 0;
+		
+		public int getQueries() {
+			return queries;
+		}
+		
+		public int getErrors() {
+			return errors;
+		}
+		
+		/**
+		 * Get the number of queries per second, over the whole run
+		 */
+		public double getQps() {
+			return seconds > 0 ? queries / seconds : 0;
+		}
+		
+		/**
+		 * Get a latency percentile in milliseconds (nearest rank)
+		 * @param percentile from 0 to 100
+		 */
+		public double getLatencyMillis(double percentile) {
+			if (latencies.length == 0) {
+				return 0;
+			}
+			int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+			return latencies[Math.max(rank - 1, 0)] / 1e6;
+		}
+		
+		/**
+		 * Get the bytes the workers allocated to run the queries, negative if the JVM can't measure it
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+		
+		@Override
+		public String toString() {
+			String allocation = allocatedBytes < 0 ? "n/a" : String.format("%.1f MB total, %d bytes/query",
+					allocatedBytes / 1e6, queries == 0 ? 0 : allocatedBytes / queries);
+			return String.format("%d queries (%d errors) in %.3f s, %.1f QPS%n"
+					+ "latency ms: p50 %.3f, p95 %.3f, p99 %.3f, max %.3f%n"
+					+ "allocation: %s",
+					queries, errors, seconds, getQps(),
+					getLatencyMillis(50), getLatencyMillis(95), getLatencyMillis(99), getLatencyMillis(100),
+					allocation);
+		}
+	
+	}
+
+}
@@ -0,0 +1,213 @@
+/**
+ * 
+ */
+package searchengine;
+
+/**
+ * Iterates over postings that are stored in blocks of {@link #BLOCK_SIZE} documents,
+ * on the heap ({@link TfDocumentList}) or in an index file ({@link MappedIndex}).
+ *
+ * A block holds the gaps between its document ordinals, then their term frequencies, as {@link VarInt}s.
+ * The first gap is relative to the last document of the block before. The skip data of a block
+ * is its last document, where it starts and where the positions of its first document start,
+ * so advance(int) skips whole blocks without decoding them. It gallops: it looks 1, 2, 4...
+ * blocks ahead until a block ends at or after the target, then binary searches the last step,
+ * and finds the target in the block the same way. A short skip costs a few comparisons and a long
+ * one is logarithmic in its length, so a rare term can drive the intersection with a common one. A block is decoded at once when
+ * the iterator enters it, and positions are only decoded when they are asked for.
+ *
+ */
+abstract class BlockPostingsIterator implements PostingsIterator {
+	
+	// the number of documents in a block, the last block can have less
+	static final int BLOCK_SIZE = 128;
+	
+	private final int blockCount;
+	private final int cost;
+	// the decoded documents and term frequencies of the current block
+	private final int[] docs;
+	private final int[] freqs;
+	private int block = -1;
+	private int count = 0;
+	private int index = -1;
+	private int doc = -1;
+	// the last document of the current block
+	private int last = -1;
+	// the posting whose positions are being read, and where its positions start in its block
+	private int positionsBlock = -1;
+	private int positionsIndex;
+	private int positionsStart;
+	// where the next position is, and the last position
+	private int positionOffset;
+	private int position;
+	
+	/**
+	 * @param blockCount the number of blocks
+	 * @param cost the number of postings
+	 */
+	BlockPostingsIterator(int blockCount, int cost) {
+		this.blockCount = blockCount;
+		this.cost = cost;
+		this.docs = new int[Math.min(cost, BLOCK_SIZE)];
+		this.freqs = new int[docs.length];
+	}
+	
+	/**
+	 * Get the last document of a block
+	 */
+	protected abstract int lastDoc(int block);
+	
+	/**
+	 * Decode the documents and term frequencies of a block
+	 * @return the number of documents in the block
+	 */
+	protected abstract int decode(int block, int[] docs, int[] freqs);
+	
+	/**
+	 * Get where the positions of the first document of a block start
+	 */
+	protected abstract int positionsStart(int block);
+	
+	/**
+	 * Read the position gap at an offset, it takes {@link VarInt#length(int)} bytes
+	 */
+	protected abstract int readPosition(int offset);
+	
+	/**
+	 * Skip a number of position gaps
+	 * @return the offset after them
+	 */
+	protected abstract int skipPositions(int offset, int count);
+	
+	@Override
+	public int docId() {
+		return doc;
+	}
+	
+	@Override
+	public int nextDoc() {
+		if (++index < count) {
+			return doc = docs[index];
+		}
+		return nextBlock();
+	}
+	
+	// kept out of nextDoc(), so nextDoc() stays small enough to be inlined
+	private int nextBlock() {
+		if (block + 1 < blockCount) {
+			load(block + 1);
+			index = 0;
+			return doc = docs[0];
+		}
+		return exhaust();
+	}
+	
+	@Override
+	public int advance(int target) {
+		if (doc == NO_MORE_DOCS) {
+			return doc;
+		}
+		int i = index + 1;
+		if (i >= count || last < target) {
+			int next = findBlock(block + 1, target);
+			if (next == blockCount) {
+				return exhaust();
+			}
+			load(next);
+			i = 0;
+		}
+		// gallop to a document at or after the target, the last document of the block is one
+		int low = i;
+		int high = i;
+		for (int step = 1; docs[high] < target; step <<= 1) {
+			low = high + 1;
+			high = Math.min(high + step, count - 1);
+		}
+		index = firstAtLeast(low, high, target);
+		return doc = docs[index];
+	}
+	
+	/**
+	 * Find the first block from a block that ends at or after the target
+	 * @return the block, or blockCount if there is none
+	 */
+	private int findBlock(int from, int target) {
+		int low = from;
+		int high = from;
+		for (int step = 1; high < blockCount && lastDoc(high) < target; step <<= 1) {
+			low = high + 1;
+			high += step;
+		}
+		// the blocks before low end before the target
+		high = Math.min(high, blockCount);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (lastDoc(mid) < target) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Binary search the decoded documents from low to high, docs[high] is at least the target
+	 */
+	private int firstAtLeast(int low, int high, int target) {
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (docs[mid] < target) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	private void load(int block) {
+		this.block = block;
+		this.count = decode(block, docs, freqs);
+		this.last = docs[count-1];
+	}
+	
+	private int exhaust() {
+		block = blockCount;
+		count = 0;
+		index = 0;
+		return doc = NO_MORE_DOCS;
+	}
+	
+	@Override
+	public int freq() {
+		return freqs[index];
+	}
+	
+	@Override
+	public int nextPosition() {
+		if (positionsBlock != block || positionsIndex != index) {
+			if (positionsBlock != block || positionsIndex > index) {
+				positionsBlock = block;
+				positionsIndex = 0;
+				positionsStart = positionsStart(block);
+			}
+			// skip the positions of the documents before this one in the block
+			while (positionsIndex < index) {
+				positionsStart = skipPositions(positionsStart, freqs[positionsIndex++]);
+			}
+			positionOffset = positionsStart;
+			position = 0;
+		}
+		int gap = readPosition(positionOffset);
+		positionOffset += VarInt.length(gap);
+		position += gap;
+		return position;
+	}
+	
+	@Override
+	public int cost() {
+		return cost;
+	}
+
+}
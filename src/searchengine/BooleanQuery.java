@@ -0,0 +1,150 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The expression of a Boolean GET query, a tree of AND, OR and NOT over terms, phrases and wildcards.
+ * A wildcard or a fuzzy term matches the documents of any of the terms it expands to.
+ * A NOT clause excludes documents from the AND it is in, so an AND needs at least one
+ * clause that isn't negated. The documents that match are ranked by the tf-idf of the terms
+ * and phrases that aren't negated, see {@link MaxScoreSearcher#search(BooleanQuery, int, int)}.
+ *
+ */
+public class BooleanQuery {
+	
+	public enum Operator {
+		TERM, PHRASE, WILDCARD, FUZZY, AND, OR, NOT
+	}
+	
+	private final Operator operator;
+	private final String term;
+	private final Phrase phrase;
+	private final Wildcard wildcard;
+	private final FuzzyTerm fuzzyTerm;
+	private final List<BooleanQuery> clauses;
+	
+	private BooleanQuery(Operator operator, String term, Phrase phrase, Wildcard wildcard, FuzzyTerm fuzzyTerm, 
+			List<BooleanQuery> clauses) {
+		this.operator = operator;
+		this.term = term;
+		this.phrase = phrase;
+		this.wildcard = wildcard;
+		this.fuzzyTerm = fuzzyTerm;
+		this.clauses = Collections.unmodifiableList(new ArrayList<BooleanQuery>(clauses));
+	}
+	
+	public static BooleanQuery term(String term) {
+		return new BooleanQuery(Operator.TERM, term, null, null, null, Collections.<BooleanQuery>emptyList());
+	}
+	
+	public static BooleanQuery phrase(Phrase phrase) {
+		return new BooleanQuery(Operator.PHRASE, null, phrase, null, null, Collections.<BooleanQuery>emptyList());
+	}
+	
+	public static BooleanQuery wildcard(Wildcard wildcard) {
+		return new BooleanQuery(Operator.WILDCARD, null, null, wildcard, null, Collections.<BooleanQuery>emptyList());
+	}
+	
+	public static BooleanQuery fuzzy(FuzzyTerm fuzzyTerm) {
+		return new BooleanQuery(Operator.FUZZY, null, null, null, fuzzyTerm, Collections.<BooleanQuery>emptyList());
+	}
+	
+	/**
+	 * @throws IllegalArgumentException if all clauses are negated
+	 */
+	public static BooleanQuery and(List<BooleanQuery> clauses) {
+		boolean required = false;
+		for (BooleanQuery clause : clauses) {
+			required |= clause.operator != Operator.NOT;
+		}
+		if (!required) {
+			throw new IllegalArgumentException("An AND needs a clause that isn't negated: " + clauses);
+		}
+		return new BooleanQuery(Operator.AND, null, null, null, null, clauses);
+	}
+	
+	/**
+	 * @throws IllegalArgumentException if a clause is negated
+	 */
+	public static BooleanQuery or(List<BooleanQuery> clauses) {
+		for (BooleanQuery clause : clauses) {
+			if (clause.operator == Operator.NOT) {
+				throw new IllegalArgumentException("A NOT has to be in an AND: " + clause);
+			}
+		}
+		return new BooleanQuery(Operator.OR, null, null, null, null, clauses);
+	}
+	
+	public static BooleanQuery not(BooleanQuery clause) {
+		return new BooleanQuery(Operator.NOT, null, null, null, null, Collections.singletonList(clause));
+	}
+	
+	public Operator getOperator() {
+		return operator;
+	}
+	
+	/**
+	 * Get the term of a TERM, null for other operators
+	 */
+	public String getTerm() {
+		return term;
+	}
+	
+	/**
+	 * Get the phrase of a PHRASE, null for other operators
+	 */
+	public Phrase getPhrase() {
+		return phrase;
+	}
+	
+	/**
+	 * Get the wildcard of a WILDCARD, null for other operators
+	 */
+	public Wildcard getWildcard() {
+		return wildcard;
+	}
+	
+	/**
+	 * Get the fuzzy term of a FUZZY, null for other operators
+	 */
+	public FuzzyTerm getFuzzyTerm() {
+		return fuzzyTerm;
+	}
+	
+	/**
+	 * Get the operands of an AND, OR or NOT
+	 */
+	public List<BooleanQuery> getClauses() {
+		return clauses;
+	}
+	
+	@Override
+	public String toString() {
+		switch (operator) {
+		case TERM:
+			return term;
+		case PHRASE:
+			return phrase.toString();
+		case WILDCARD:
+			return wildcard.toString();
+		case FUZZY:
+			return fuzzyTerm.toString();
+		case NOT:
+			return "NOT " + clauses.get(0);
+		default:
+			StringBuilder sb = new StringBuilder("(");
+			for (int i=0; i<clauses.size(); ++i) {
+				if (i > 0)
+					sb.append(" ").append(operator).append(" ");
+				sb.append(clauses.get(i));
+			}
+			return sb.append(")").toString();
+		}
+	}
+
+}
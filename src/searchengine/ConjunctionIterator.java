@@ -0,0 +1,115 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.Arrays;
+
+/**
+ * Iterates over the documents that are in all required iterators and in none of the excluded ones.
+ *
+ * The required iterator with the lowest cost leads, the others advance to its documents
+ * and the leader advances to theirs when they skip past it. advance(int) skips blocks of
+ * postings with their skip data, so an intersection takes time in the order of the rarest
+ * term, not of the most common one. The excluded iterators are only advanced to the documents
+ * that are in all required iterators.
+ *
+ */
+public class ConjunctionIterator implements PostingsIterator {
+	
+	// ordered by cost, the first one leads
+	private final PostingsIterator[] required;
+	private final PostingsIterator[] excluded;
+	private int doc = -1;
+	
+	/**
+	 * @param required the iterators a document has to be in
+	 * @param excluded the iterators a document must not be in
+	 */
+	public ConjunctionIterator(PostingsIterator[] required, PostingsIterator[] excluded) {
+		if (required.length == 0) {
+			throw new IllegalArgumentException("A conjunction needs at least one required iterator");
+		}
+		this.required = required.clone();
+		Arrays.sort(this.required, (a, b) -> Integer.compare(a.cost(), b.cost()));
+		this.excluded = excluded.clone();
+	}
+	
+	@Override
+	public int docId() {
+		return doc;
+	}
+	
+	@Override
+	public int nextDoc() {
+		return toMatch(required[0].nextDoc());
+	}
+	
+	@Override
+	public int advance(int target) {
+		return toMatch(required[0].advance(target));
+	}
+	
+	/**
+	 * Move to the first document from candidate that matches
+	 */
+	private int toMatch(int candidate) {
+		while (candidate != NO_MORE_DOCS) {
+			int target = candidate;
+			for (int i=1; i<required.length && target == candidate; ++i) {
+				if (required[i].docId() < candidate) {
+					target = required[i].advance(candidate);
+				} else {
+					target = required[i].docId();
+				}
+			}
+			if (target != candidate) {
+				candidate = required[0].advance(target);
+			} else if (!isExcluded(candidate)) {
+				return doc = candidate;
+			} else {
+				candidate = required[0].nextDoc();
+			}
+		}
+		return doc = NO_MORE_DOCS;
+	}
+	
+	private boolean isExcluded(int candidate) {
+		for (PostingsIterator iterator : excluded) {
+			if (iterator.docId() < candidate) {
+				iterator.advance(candidate);
+			}
+			if (iterator.docId() == candidate) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Get the sum of the term frequencies of the required iterators in the current document
+	 */
+	@Override
+	public int freq() {
+		int freq = 0;
+		for (PostingsIterator iterator : required) {
+			freq += iterator.freq();
+		}
+		return freq;
+	}
+	
+	/**
+	 * A conjunction of terms has no positions of its own
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public int nextPosition() {
+		throw new UnsupportedOperationException("A conjunction has no positions");
+	}
+	
+	@Override
+	public int cost() {
+		return required[0].cost();
+	}
+
+}
@@ -0,0 +1,164 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the data base folder for files that are created, modified or deleted outside the search engine,
+ * e.g. copied to the folder or changed in an editor, from a daemon thread.
+ *
+ * A file is usually written with several events, so the events are debounced: the names of the changed
+ * files are collected until no event has come for the delay, and then passed to the listener in one batch.
+ * A batch is passed at the latest after {@link #MAX_WAIT_DELAYS} delays, so files that are written
+ * all the time are still seen. If the events overflow, the names are lost and the listener
+ * has to check the whole folder.
+ *
+ */
+public class DataBaseWatcher implements Closeable {
+	
+	/**
+	 * Is told about the files that changed
+	 */
+	public interface Listener {
+		
+		/**
+		 * Files in the folder were created, modified or deleted
+		 * @param files the names of the files, they may have changed back or not at all
+		 */
+		public void update(Set<String> files);
+		
+		/**
+		 * Events were lost, any file in the folder may have changed
+		 */
+		public void refresh();
+	
+	}
+	
+	// the longest a batch waits, in delays
+	static final int MAX_WAIT_DELAYS = 10;
+	
+	private final Path folder;
+	private final long delay;
+	private final Listener listener;
+	private final WatchService watchService;
+	
+	/**
+	 * Start receiving the events of a folder, they are collected until the watcher is started
+	 * @param folder the folder, its subfolders are not watched
+	 * @param delay the time in ms without events before a batch is passed to the listener
+	 * @param listener gets the batches
+	 * @throws IOException if the folder can't be watched
+	 */
+	public DataBaseWatcher(Path folder, long delay, Listener listener) throws IOException {
+		this.folder = folder;
+		this.delay = Math.max(delay, 1);
+		this.listener = listener;
+		this.watchService = folder.getFileSystem().newWatchService();
+		try {
+			folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException | RuntimeException e) {
+			watchService.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Pass the batches to the listener from a daemon thread, until the watcher is closed
+	 */
+	public void start() {
+		Thread thread = new Thread(this::run, "db-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	private void run() {
+		Set<String> files = new LinkedHashSet<String>();
+		boolean overflow = false;
+		// when the first event of the batch came
+		long first = 0;
+		try {
+			while (true) {
+				boolean pending = overflow || !files.isEmpty();
+				WatchKey key = pending ? watchService.poll(delay, TimeUnit.MILLISECONDS) : watchService.take();
+				if (key != null) {
+					if (!pending) {
+						first = System.nanoTime();
+					}
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							overflow = true;
+						} else {
+							files.add(((Path) event.context()).getFileName().toString());
+						}
+					}
+					if (!key.reset()) {
+						System.err.println("The folder " + folder + " can't be watched anymore, changes to it are not indexed.");
+						return;
+					}
+					if (System.nanoTime() - first < TimeUnit.MILLISECONDS.toNanos(delay * MAX_WAIT_DELAYS)) {
+						continue;
+					}
+				}
+				if (overflow || !files.isEmpty()) {
+					pass(files, overflow);
+					files = new LinkedHashSet<String>();
+					overflow = false;
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+	
+	/**
+	 * Pass a batch to the listener, the watcher keeps running if it fails
+	 */
+	private void pass(Set<String> files, boolean overflow) {
+		if (Debug.INFO) {
+			Debug.log("Changed in %s: %s", folder, overflow ? "events lost" : files);
+		}
+		try {
+			if (overflow) {
+				listener.refresh();
+			} else {
+				listener.update(files);
+			}
+		} catch (RuntimeException e) {
+			System.err.println("Failed to index the changes in " + folder + ". " + e.getMessage());
+			if (Debug.INFO) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Stop watching the folder
+	 */
+	@Override
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			System.err.println("Failed to stop watching " + folder + ". " + e.getMessage());
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "DataBaseWatcher{folder=" + folder + ", delay=" + delay + "}";
+	}
+
+}
@@ -0,0 +1,44 @@
+/**
+ * 
+ */
+package searchengine;
+
+/**
+ * Level-gated diagnostic output.
+ * The level is read once from the system property searchengine.debug (off, info or trace),
+ * e.g. java -Dsearchengine.debug=trace. The flags are constants, so a guarded call
+ * <pre>
+ * if (Debug.TRACE) {
+ * 	Debug.log("...", args);
+ * }
+ * </pre>
+ * is removed by the JIT and costs nothing when the level is off.
+ *
+ */
+public final class Debug {
+	
+	private static final String LEVEL = System.getProperty("searchengine.debug", "off").toLowerCase();
+	
+	/**
+	 * Coarse diagnostics, e.g. what was loaded to the index
+	 */
+	public static final boolean INFO = LEVEL.equals("info") || LEVEL.equals("trace");
+	
+	/**
+	 * Diagnostics on the query path, e.g. the statistics used for scoring
+	 */
+	public static final boolean TRACE = LEVEL.equals("trace");
+	
+	private Debug() {
+	}
+	
+	/**
+	 * Print a formatted diagnostic message, callers check the level first
+	 * @param format a {@link String#format(String, Object...)} format string
+	 * @param args the arguments of the format string
+	 */
+	public static void log(String format, Object... args) {
+		System.out.println(String.format(format, args));
+	}
+
+}
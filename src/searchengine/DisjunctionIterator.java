@@ -0,0 +1,94 @@
+/**
+ * 
+ */
+package searchengine;
+
+/**
+ * Iterates over the documents that are in at least one of the iterators.
+ * The current document is the lowest document of the iterators, a query has few operands
+ * so they are scanned instead of kept in a heap.
+ *
+ */
+public class DisjunctionIterator implements PostingsIterator {
+	
+	private final PostingsIterator[] iterators;
+	private int doc = -1;
+	
+	/**
+	 * @param iterators the iterators a document has to be in one of
+	 */
+	public DisjunctionIterator(PostingsIterator[] iterators) {
+		if (iterators.length == 0) {
+			throw new IllegalArgumentException("A disjunction needs at least one iterator");
+		}
+		this.iterators = iterators.clone();
+	}
+	
+	@Override
+	public int docId() {
+		return doc;
+	}
+	
+	@Override
+	public int nextDoc() {
+		if (doc == NO_MORE_DOCS) {
+			return doc;
+		}
+		int next = NO_MORE_DOCS;
+		for (PostingsIterator iterator : iterators) {
+			if (iterator.docId() == doc) {
+				iterator.nextDoc();
+			}
+			next = Math.min(next, iterator.docId());
+		}
+		return doc = next;
+	}
+	
+	@Override
+	public int advance(int target) {
+		int next = NO_MORE_DOCS;
+		for (PostingsIterator iterator : iterators) {
+			if (iterator.docId() < target) {
+				iterator.advance(target);
+			}
+			next = Math.min(next, iterator.docId());
+		}
+		return doc = next;
+	}
+	
+	/**
+	 * Get the sum of the term frequencies of the iterators that are in the current document
+	 */
+	@Override
+	public int freq() {
+		int freq = 0;
+		for (PostingsIterator iterator : iterators) {
+			if (iterator.docId() == doc) {
+				freq += iterator.freq();
+			}
+		}
+		return freq;
+	}
+	
+	/**
+	 * A disjunction of terms has no positions of its own
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public int nextPosition() {
+		throw new UnsupportedOperationException("A disjunction has no positions");
+	}
+	
+	/**
+	 * Get the sum of the costs, at most Integer.MAX_VALUE
+	 */
+	@Override
+	public int cost() {
+		long cost = 0;
+		for (PostingsIterator iterator : iterators) {
+			cost += iterator.cost();
+		}
+		return (int) Math.min(cost, Integer.MAX_VALUE);
+	}
+
+}
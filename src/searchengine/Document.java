@@ -10,28 +10,28 @@ package searchengine;
  */
 public class Document implements Comparable<Document>{
 	
-	private String docId;
-	private Double score;
+	private int docId;
+	private double score;
 	
 	/**
 	 * 
-	 * @param docId
+	 * @param docId the document ordinal, see {@link DocumentDictionary}
 	 * @param score
 	 */
-	public Document(String docId, Double score) {
+	public Document(int docId, double score) {
 		this.docId = docId;
 		this.score = score;
 	}
 	
-	public String getDocId() {
+	public int getDocId() {
 		return docId;
 	}
 	
-	public Double getScore() {
+	public double getScore() {
 		return score;
 	}
 	
-	public void setScore(Double score) {
+	public void setScore(double score) {
 		this.score = score;
 	}
 	
@@ -49,11 +49,16 @@ public class Document implements Comparable<Document>{
 		}
 		else if (obj instanceof Document) {
 			Document dt = (Document) obj;
-			eq = docId.equals(dt.getDocId());
+			eq = docId == dt.getDocId();
 		}
 		return eq;
 	}
 	
+	@Override
+	public int hashCode() {
+		return Integer.hashCode(docId);
+	}
+	
 	/**
 	 * Compare two DocTerm's scores
 	 * @param other the other DocTerm to be compared
@@ -62,12 +67,20 @@ public class Document implements Comparable<Document>{
 	 */
 	@Override
 	public int compareTo(Document other) {
-		return this.score.compareTo(other.getScore());
+		return Double.compare(this.score, other.getScore());
 	}
 	
 	@Override
 	public String toString() {
 		return "{docId=" + docId + ", score=" + score + "}";
 	}
+	
+	/**
+	 * Get a String representation with the document name instead of the ordinal
+	 * @param documents the dictionary that assigned the ordinal
+	 */
+	public String toString(DocumentDictionary documents) {
+		return "{docId=" + documents.getName(docId) + ", score=" + score + "}";
+	}
 
 }
@@ -0,0 +1,127 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary of the documents in an index.
+ * Assigns a dense int ordinal to each document name, starting from 0 in the order 
+ * the documents are added. Postings and statistics only use the ordinals, 
+ * the names are looked up when results are rendered.
+ * 
+ * Documents are only appended, so the names and norms of the documents in a published
+ * {@link IndexSnapshot} can be read while the writer adds documents.
+ * The ordinals of names are only looked up by the writer. A removed name can be added again,
+ * it then gets a new ordinal and the old one keeps the name.
+ *
+ */
+public class DocumentDictionary {
+	
+	private Map<String, Integer> ordinals = new HashMap<String, Integer>();
+	// the document names, indexed by ordinal. Volatile so a reader that sees a grown array
+	// also sees the names that were copied to it
+	private volatile String[] names = new String[16];
+	// the norms of the documents, see {@link Norms}, indexed by ordinal and grown with the names.
+	// The norm of a document is set before it is published
+	private volatile byte[] norms = new byte[16];
+	private int size = 0;
+	
+	public DocumentDictionary() {
+	}
+	
+	/**
+	 * Create a copy of a dictionary, documents added to the copy get ordinals after 
+	 * the documents of the other dictionary
+	 */
+	public DocumentDictionary(DocumentDictionary other) {
+		this.ordinals.putAll(other.ordinals);
+		this.names = Arrays.copyOf(other.names, Math.max(other.names.length, 16));
+		this.norms = Arrays.copyOf(other.norms, this.names.length);
+		this.size = other.size;
+	}
+	
+	/**
+	 * Add a document to the dictionary
+	 * @param docId the document identifier, e.g. file name
+	 * @return the ordinal of the document, the existing ordinal if it was already added
+	 */
+	public int add(String docId) {
+		Integer doc = ordinals.get(docId);
+		if (doc == null) {
+			doc = size;
+			if (size == names.length) {
+				norms = Arrays.copyOf(norms, size * 2);
+				names = Arrays.copyOf(names, size * 2);
+			}
+			names[size++] = docId;
+			ordinals.put(docId, doc);
+		}
+		return doc;
+	}
+	
+	/**
+	 * Remove the name of a document, so it can be added again with a new ordinal.
+	 * The ordinal keeps its name and norm for the snapshots that still read it.
+	 * @param docId the document identifier
+	 * @return the ordinal the name had, or -1 if the document is not in the dictionary
+	 */
+	public int remove(String docId) {
+		Integer doc = ordinals.remove(docId);
+		return doc == null ? -1 : doc;
+	}
+	
+	/**
+	 * Get the ordinal of a document
+	 * @param docId the document identifier
+	 * @return the ordinal, or -1 if the document is not in the dictionary
+	 */
+	public int getOrdinal(String docId) {
+		Integer doc = ordinals.get(docId);
+		return doc == null ? -1 : doc;
+	}
+	
+	/**
+	 * Get the document identifier of an ordinal
+	 */
+	public String getName(int doc) {
+		if (!contains(doc)) {
+			throw new IndexOutOfBoundsException("Unknown document ordinal " + doc);
+		}
+		return names[doc];
+	}
+	
+	/**
+	 * Set the norm of a document, the quantized number of terms in it
+	 */
+	public void setNorm(int doc, byte norm) {
+		if (!contains(doc)) {
+			throw new IndexOutOfBoundsException("Unknown document ordinal " + doc);
+		}
+		norms[doc] = norm;
+	}
+	
+	/**
+	 * Get the norms of the documents, indexed by ordinal. The array is at least as long as 
+	 * the number of documents and must not be changed, a search reads it once and then 
+	 * looks up the norm of each posting in it.
+	 */
+	public byte[] getNorms() {
+		return norms;
+	}
+	
+	public boolean contains(int doc) {
+		return doc >= 0 && doc < size;
+	}
+	
+	/**
+	 * Get the number of documents in the dictionary
+	 */
+	public int size() {
+		return size;
+	}
+
+}
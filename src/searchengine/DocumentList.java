@@ -20,6 +20,11 @@ public interface DocumentList {
 	 */
 	public Document get(int index);
 	
+	/**
+	 * Get the dictionary that maps the document ordinals to document identifiers
+	 */
+	public DocumentDictionary getDocuments();
+	
 	/**
 	 * Get the number of documents in this list
 	 */
@@ -0,0 +1,96 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import searchengine.Lexer.TokenHandler;
+
+/**
+ * Streams the terms of a document to an indexer.
+ * The document is read and decoded in fixed size chunks that are scanned by a {@link Lexer},
+ * each token is passed on as soon as it is complete in a reused {@link TermBuffer}.
+ * Memory use doesn't depend on the size of the document, only on the longest word.
+ * 
+ * A reader reuses its buffers and is not thread safe, use one reader per thread.
+ *
+ */
+public class DocumentReader {
+	
+	private static final int CHUNK_SIZE = 16 * 1024;
+	
+	private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+	private final CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+	private final CharsetDecoder decoder;
+	private final Lexer lexer = new Lexer();
+	
+	/**
+	 * Create a reader for documents in the platform's default charset
+	 */
+	public DocumentReader() {
+		this(Charset.defaultCharset());
+	}
+	
+	public DocumentReader(Charset charset) {
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+	
+	/**
+	 * Read a document and pass its terms on in the order they appear
+	 * @param channel the document, e.g. a FileChannel, it is read to the end but not closed
+	 * @param terms receives each lowercased term
+	 * @throws IOException if the channel can't be read
+	 */
+	public void read(ReadableByteChannel channel, TokenHandler terms) throws IOException {
+		decoder.reset();
+		bytes.clear();
+		lexer.reset();
+		boolean endOfInput = false;
+		while (!endOfInput) {
+			endOfInput = channel.read(bytes) == -1;
+			bytes.flip();
+			CoderResult result;
+			do {
+				result = decoder.decode(bytes, chars, endOfInput);
+				scan(terms);
+			} while (result.isOverflow());
+			bytes.compact();
+		}
+		while (decoder.flush(chars).isOverflow()) {
+			scan(terms);
+		}
+		scan(terms);
+		lexer.finish(terms);
+	}
+	
+	/**
+	 * Read a document that is already in memory
+	 * @param text the document
+	 * @param terms receives each lowercased term
+	 */
+	public void read(CharSequence text, TokenHandler terms) {
+		lexer.reset();
+		lexer.scan(text, terms);
+		lexer.finish(terms);
+	}
+	
+	/**
+	 * Scan the decoded characters
+	 */
+	private void scan(TokenHandler terms) {
+		chars.flip();
+		lexer.scan(chars, terms);
+		chars.clear();
+	}
+
+}
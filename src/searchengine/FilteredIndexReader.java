@@ -0,0 +1,238 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads a selection of the documents in an index, e.g. the files of a SELECT query.
+ * The documents that are not selected are skipped while the postings are traversed,
+ * so switching selection doesn't load or index anything.
+ *
+ * The idf can be calculated over the selection, as if the index only had the selected
+ * documents, or over the whole corpus. The document frequencies in the selection are
+ * counted the first time a term is searched and cached in the reader.
+ *
+ */
+public class FilteredIndexReader implements IndexReader {
+	
+	private final IndexReader index;
+	// ordinals of the selected documents
+	private final BitSet selection;
+	// true to calculate idf over the selection, false for the whole index
+	private final boolean selectionStatistics;
+	private final int numberOfDocuments;
+	// the number of selected documents that contain a term
+	private final Map<String, Integer> docFreqs = new ConcurrentHashMap<String, Integer>();
+	// the number of terms in the selected documents, -1 until it is counted
+	private volatile long totalLength = -1;
+	
+	/**
+	 * @param index the index with all documents
+	 * @param selection the ordinals of the selected documents, must not be changed while it is read
+	 * @param selectionStatistics true to calculate the idf over the selected documents only
+	 */
+	public FilteredIndexReader(IndexReader index, BitSet selection, boolean selectionStatistics) {
+		this.index = index;
+		this.selection = selection;
+		this.selectionStatistics = selectionStatistics;
+		this.numberOfDocuments = selectionStatistics ? selection.cardinality() : index.numberOfDocuments();
+	}
+	
+	/**
+	 * Check if this reader filters an index with a selection
+	 */
+	public boolean reads(IndexReader index, BitSet selection) {
+		return this.index == index && this.selection == selection;
+	}
+	
+	/**
+	 * Get the number of selected documents, or all documents with corpus statistics
+	 */
+	@Override
+	public int numberOfDocuments() {
+		return numberOfDocuments;
+	}
+	
+	/**
+	 * Get the number of terms in the selected documents, or in all documents with corpus statistics.
+	 * The selected documents are counted from their norms the first time.
+	 */
+	@Override
+	public long totalLength() {
+		if (!selectionStatistics) {
+			return index.totalLength();
+		}
+		long totalLength = this.totalLength;
+		if (totalLength < 0) {
+			byte[] norms = index.getDocuments().getNorms();
+			totalLength = 0;
+			for (int doc = selection.nextSetBit(0); doc >= 0; doc = selection.nextSetBit(doc + 1)) {
+				totalLength += Norms.decode(norms[doc] & 0xFF);
+			}
+			this.totalLength = totalLength;
+		}
+		return totalLength;
+	}
+	
+	@Override
+	public DocumentDictionary getDocuments() {
+		return index.getDocuments();
+	}
+	
+	@Override
+	public Postings getPostings(String term) {
+		Postings postings = index.getPostings(term);
+		if (postings == null) {
+			return null;
+		}
+		int docFreq = postings.size();
+		if (selectionStatistics) {
+			docFreq = docFreqs.computeIfAbsent(term, t -> count(postings));
+			if (docFreq == 0) {
+				return null;
+			}
+		}
+		return new FilteredPostings(postings, docFreq);
+	}
+	
+	/**
+	 * Get the terms of the whole index, a term can be in no selected document
+	 */
+	@Override
+	public Iterator<String> terms(String prefix, String from) {
+		return index.terms(prefix, from);
+	}
+	
+	/**
+	 * Count the selected documents in postings
+	 */
+	private int count(Postings postings) {
+		int count = 0;
+		PostingsIterator iterator = new FilteredIterator(postings.iterator());
+		while (iterator.nextDoc() != PostingsIterator.NO_MORE_DOCS) {
+			++count;
+		}
+		return count;
+	}
+	
+	@Override
+	public String toString() {
+		return "FilteredIndexReader{selection=" + selection + ", index=" + index + "}";
+	}
+	
+	/**
+	 * The postings of the selected documents
+	 */
+	private class FilteredPostings implements Postings {
+		
+		private final Postings postings;
+		private final int docFreq;
+		
+		private FilteredPostings(Postings postings, int docFreq) {
+			this.postings = postings;
+			this.docFreq = docFreq;
+		}
+		
+		@Override
+		public String getTerm() {
+			return postings.getTerm();
+		}
+		
+		/**
+		 * Get the document frequency used for the idf,
+		 * in the selection or in the whole index
+		 */
+		@Override
+		public int size() {
+			return docFreq;
+		}
+		
+		/**
+		 * Get the highest term frequency in the whole index, still an upper bound in the selection
+		 */
+		@Override
+		public int getMaxFreq() {
+			return postings.getMaxFreq();
+		}
+		
+		@Override
+		public double getIdf(int numberOfDocuments) {
+			if (!selectionStatistics) {
+				return postings.getIdf(numberOfDocuments);
+			}
+			return Math.log10((double) numberOfDocuments / Math.max(docFreq, 1));
+		}
+		
+		@Override
+		public PostingsIterator iterator() {
+			return new FilteredIterator(postings.iterator());
+		}
+	
+	}
+	
+	/**
+	 * Skips the documents that are not selected. The postings and the selection
+	 * leapfrog each other: the postings advance to the next selected document,
+	 * and the selection to the next document in the postings.
+	 */
+	private class FilteredIterator implements PostingsIterator {
+		
+		private final PostingsIterator postings;
+		
+		private FilteredIterator(PostingsIterator postings) {
+			this.postings = postings;
+		}
+		
+		@Override
+		public int docId() {
+			return postings.docId();
+		}
+		
+		@Override
+		public int nextDoc() {
+			return toSelected(postings.nextDoc());
+		}
+		
+		@Override
+		public int advance(int target) {
+			int selected = selection.nextSetBit(target);
+			if (selected == -1) {
+				return postings.advance(NO_MORE_DOCS);
+			}
+			return toSelected(postings.advance(selected));
+		}
+		
+		/**
+		 * Move to the first selected document from doc
+		 */
+		private int toSelected(int doc) {
+			while (doc != NO_MORE_DOCS && !selection.get(doc)) {
+				int selected = selection.nextSetBit(doc);
+				doc = postings.advance(selected == -1 ? NO_MORE_DOCS : selected);
+			}
+			return doc;
+		}
+		
+		@Override
+		public int freq() {
+			return postings.freq();
+		}
+		
+		@Override
+		public int nextPosition() {
+			return postings.nextPosition();
+		}
+		
+		@Override
+		public int cost() {
+			return postings.cost();
+		}
+	
+	}
+
+}
@@ -0,0 +1,69 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.Map;
+
+/**
+ * A term of a GET query that also matches the terms within a number of edits of it, e.g. brwn~1.
+ * The terms of the index that match are found with a {@link LevenshteinAutomaton},
+ * and score less the more edits they are away, see {@link #boost(String, int)}.
+ *
+ */
+public class FuzzyTerm {
+	
+	/**
+	 * The maximum number of edits, the terms that can match grow fast with it
+	 */
+	public static final int MAX_EDITS = 2;
+	
+	private final String term;
+	private final int maxEdits;
+	
+	/**
+	 * @param term a lowercased term
+	 * @param maxEdits the maximum edit distance, 0 to MAX_EDITS
+	 * @throws IllegalArgumentException if maxEdits is out of range
+	 */
+	public FuzzyTerm(String term, int maxEdits) {
+		if (maxEdits < 0 || maxEdits > MAX_EDITS) {
+			throw new IllegalArgumentException("The edit distance of a fuzzy term must be 0 to " + MAX_EDITS + ": " + maxEdits);
+		}
+		this.term = term;
+		this.maxEdits = maxEdits;
+	}
+	
+	public String getTerm() {
+		return term;
+	}
+	
+	public int getMaxEdits() {
+		return maxEdits;
+	}
+	
+	/**
+	 * Find the terms of an index that match
+	 * @param index the index with the terms
+	 * @param max the maximum number of terms, the closest ones are kept if more terms match
+	 * @return the terms and their edit distances, closest first
+	 */
+	public Map<String, Integer> expand(IndexReader index, int max) {
+		return new LevenshteinAutomaton(term, maxEdits).intersect(index, max);
+	}
+	
+	/**
+	 * Get the factor of the score of a matching term, 1 for the term itself and less for every edit:
+	 * 1 - distance / the length of the shorter of the two terms
+	 */
+	public double boost(String match, int distance) {
+		int length = Math.min(term.codePointCount(0, term.length()), match.codePointCount(0, match.length()));
+		return 1 - (double) distance / length;
+	}
+	
+	@Override
+	public String toString() {
+		return term + "~" + maxEdits;
+	}
+
+}
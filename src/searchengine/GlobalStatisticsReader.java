@@ -0,0 +1,85 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.Iterator;
+
+/**
+ * Reads a shard of an index with the statistics of the whole index, 
+ * so the idf of a term is the same on every shard and the scores of the shards can be merged.
+ * A term that isn't in the statistics gets the idf of its document frequency in the shard.
+ *
+ */
+public class GlobalStatisticsReader implements IndexReader {
+	
+	private final IndexReader index;
+	private final TermStatistics statistics;
+	
+	/**
+	 * @param index the index of the shard
+	 * @param statistics the statistics of all shards
+	 */
+	public GlobalStatisticsReader(IndexReader index, TermStatistics statistics) {
+		this.index = index;
+		this.statistics = statistics;
+	}
+	
+	/**
+	 * Get the number of documents in all shards
+	 */
+	@Override
+	public int numberOfDocuments() {
+		return statistics.getNumberOfDocuments();
+	}
+	
+	/**
+	 * Get the number of terms in all shards
+	 */
+	@Override
+	public long totalLength() {
+		return statistics.getTotalLength();
+	}
+	
+	@Override
+	public Postings getPostings(String term) {
+		return index.getPostings(term);
+	}
+	
+	@Override
+	public Iterator<String> terms(String prefix, String from) {
+		return index.terms(prefix, from);
+	}
+	
+	@Override
+	public DocumentDictionary getDocuments() {
+		return index.getDocuments();
+	}
+	
+	/**
+	 * Get the document frequency of a term over all shards
+	 */
+	@Override
+	public int docFreq(Postings postings) {
+		int docFreq = statistics.docFreq(postings.getTerm());
+		return docFreq < 0 ? postings.size() : docFreq;
+	}
+	
+	/**
+	 * Get the idf of a term over all shards
+	 */
+	@Override
+	public double calcIdf(Postings postings) {
+		int docFreq = statistics.docFreq(postings.getTerm());
+		if (docFreq < 0) {
+			return postings.getIdf(statistics.getNumberOfDocuments());
+		}
+		return Math.log10((double) statistics.getNumberOfDocuments() / Math.max(docFreq, 1));
+	}
+	
+	@Override
+	public String toString() {
+		return "GlobalStatisticsReader{" + index + ", documents=" + statistics.getNumberOfDocuments() + "}";
+	}
+
+}
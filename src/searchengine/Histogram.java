@@ -0,0 +1,153 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds, for {@link Metrics}.
+ *
+ * The buckets are log-linear like an HDR histogram: every power of two is split in
+ * 16 buckets of equal width, so a recorded value is at most 1/16 (6%) from the value
+ * a percentile reports, from nanoseconds to hours, in 960 counters.
+ * Recording is an increment of one counter, and can be done by any number of threads.
+ *
+ */
+public class Histogram {
+	
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	
+	/**
+	 * Record a value, negative values are recorded as 0
+	 * @param nanos the value in nanoseconds
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+	
+	/**
+	 * Record the time since start, if metrics are enabled
+	 * @param start a time from {@link Metrics#now()}
+	 */
+	public void recordSince(long start) {
+		if (Metrics.ENABLED) {
+			record(System.nanoTime() - start);
+		}
+	}
+	
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		int sub = (int) (value >>> shift) - SUB_BUCKETS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+	}
+	
+	/**
+	 * Get the highest value of a bucket
+	 */
+	private static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+	
+	/**
+	 * Get a copy of the histogram. Values that are recorded while it is copied
+	 * may be in some of the statistics and not in others.
+	 */
+	public Snapshot snapshot() {
+		long[] buckets = new long[BUCKETS];
+		for (int i=0; i<BUCKETS; ++i) {
+			buckets[i] = counts.get(i);
+		}
+		return new Snapshot(buckets, count.sum(), sum.sum(), max.get());
+	}
+	
+	/**
+	 * The statistics of a histogram at one point in time
+	 */
+	public static class Snapshot {
+		
+		private final long[] buckets;
+		private final long count;
+		private final long sum;
+		private final long max;
+		
+		private Snapshot(long[] buckets, long count, long sum, long max) {
+			this.buckets = buckets;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+		
+		public long getCount() {
+			return count;
+		}
+		
+		/**
+		 * Get the mean in nanoseconds
+		 */
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+		
+		/**
+		 * Get the highest recorded value in nanoseconds
+		 */
+		public long getMax() {
+			return max;
+		}
+		
+		/**
+		 * Get a percentile in nanoseconds, the highest value of the bucket it is in
+		 * @param percentile from 0 to 100
+		 */
+		public long getPercentile(double percentile) {
+			long total = 0;
+			for (long n : buckets) {
+				total += n;
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long rank = Math.max((long) Math.ceil(percentile / 100 * total), 1);
+			long seen = 0;
+			for (int i=0; i<buckets.length; ++i) {
+				seen += buckets[i];
+				if (seen >= rank) {
+					return Math.min(highestValue(i), max);
+				}
+			}
+			return max;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("count=%d mean=%.1fus p50=%.1fus p95=%.1fus p99=%.1fus max=%.1fus",
+					count, getMean() / 1e3, getPercentile(50) / 1e3, getPercentile(95) / 1e3,
+					getPercentile(99) / 1e3, max / 1e3);
+		}
+	
+	}
+
+}
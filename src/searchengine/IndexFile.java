@@ -0,0 +1,181 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Immutable, versioned index file that can be served through a memory mapping.
+ * 
+ * Layout, all numbers are big endian ints unless noted:
+ * <pre>
+ * header      MAGIC, VERSION, #documents, #terms, document table offset, term index offset, norms offset,
+ *             the number of terms in all documents (long)
+ * documents   per document: length (long), last modified (long), name offset, name length
+ * names       the UTF-8 encoded document names
+ * norms       per document: the norm of its number of terms (byte), see {@link Norms}
+ * term index  per term, sorted by the UTF-8 bytes of the term: offset of the term entry
+ * terms       per term: term length, UTF-8 term, document frequency, max tf, postings offset
+ * postings    per term: the number of blocks, the size of the blocks in bytes, per block the last document,
+ *             where the block starts and where its positions start (relative to the first block and the
+ *             first position), then the blocks and the positions, encoded as in {@link TfDocumentList}
+ * </pre>
+ * The length and last modified time of the documents are stored so a caller 
+ * can tell if the files that were indexed have changed.
+ * Offsets are ints, an index file can't be larger than 2 GB.
+ *
+ */
+public class IndexFile {
+	
+	static final int MAGIC = 0x53534549; // "SSEI"
+	static final int VERSION = 4;
+	static final int HEADER_SIZE = 7 * Integer.BYTES + Long.BYTES;
+	static final int DOCUMENT_SIZE = 2 * Long.BYTES + 2 * Integer.BYTES;
+	
+	private IndexFile() {
+	}
+	
+	/**
+	 * Write an index to a file. The file is written next to the target and moved
+	 * in place when it is complete, so a crash never leaves a partial index file.
+	 * @param index the index to write
+	 * @param lengths the length of each document, indexed by document ordinal
+	 * @param lastModified the last modified time of each document, indexed by document ordinal
+	 * @param path the index file
+	 * @throws IOException if the file can't be written
+	 */
+	public static void write(InvertedIndex index, long[] lengths, long[] lastModified, Path path) throws IOException {
+		DocumentDictionary documents = index.getDocuments();
+		int docCount = documents.size();
+		byte[][] names = new byte[docCount][];
+		long namesSize = 0;
+		for (int doc=0; doc<docCount; ++doc) {
+			names[doc] = documents.getName(doc).getBytes(StandardCharsets.UTF_8);
+			namesSize += names[doc].length;
+		}
+		// Sort the terms by their bytes, which is the order MappedIndex searches in
+		TermEntry[] terms = new TermEntry[index.getAllPostings().size()];
+		int t = 0;
+		for (TfDocumentList postings : index.getAllPostings()) {
+			terms[t++] = new TermEntry(postings);
+		}
+		Arrays.sort(terms, (a, b) -> Arrays.compareUnsigned(a.bytes, b.bytes));
+		
+		long docTableOffset = HEADER_SIZE;
+		long namesOffset = docTableOffset + (long) docCount * DOCUMENT_SIZE;
+		long normsOffset = namesOffset + namesSize;
+		long termIndexOffset = normsOffset + docCount;
+		long termsOffset = termIndexOffset + (long) terms.length * Integer.BYTES;
+		long termsSize = 0;
+		for (TermEntry term : terms) {
+			termsSize += 4 * Integer.BYTES + term.bytes.length;
+		}
+		long postingsOffset = termsOffset + termsSize;
+		long postingsSize = 0;
+		for (TermEntry term : terms) {
+			postingsSize += term.postings.encodedSize();
+		}
+		if (postingsOffset + postingsSize > Integer.MAX_VALUE) {
+			throw new IOException("The index is too large for an index file: " + (postingsOffset + postingsSize) + " bytes");
+		}
+		
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(docCount);
+			out.writeInt(terms.length);
+			out.writeInt((int) docTableOffset);
+			out.writeInt((int) termIndexOffset);
+			out.writeInt((int) normsOffset);
+			out.writeLong(index.totalLength());
+			int nameOffset = (int) namesOffset;
+			for (int doc=0; doc<docCount; ++doc) {
+				out.writeLong(lengths[doc]);
+				out.writeLong(lastModified[doc]);
+				out.writeInt(nameOffset);
+				out.writeInt(names[doc].length);
+				nameOffset += names[doc].length;
+			}
+			for (byte[] name : names) {
+				out.write(name);
+			}
+			out.write(documents.getNorms(), 0, docCount);
+			int termOffset = (int) termsOffset;
+			for (TermEntry term : terms) {
+				out.writeInt(termOffset);
+				termOffset += 4 * Integer.BYTES + term.bytes.length;
+			}
+			int postingOffset = (int) postingsOffset;
+			for (TermEntry term : terms) {
+				out.writeInt(term.bytes.length);
+				out.write(term.bytes);
+				out.writeInt(term.postings.size());
+				out.writeInt(term.postings.getMaxFreq());
+				out.writeInt(postingOffset);
+				postingOffset += term.postings.encodedSize();
+			}
+			for (TermEntry term : terms) {
+				term.postings.write(out);
+			}
+			out.flush();
+			file.getChannel().force(true);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Open an index file, the postings are read from a memory mapping of the file
+	 * @param path the index file
+	 * @return the index
+	 * @throws IOException if the file can't be read or is not an index file of this version
+	 */
+	public static MappedIndex open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+				throw new IOException("Not an index file: " + path);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException("Not an index file: " + path);
+			}
+			if (buffer.getInt(Integer.BYTES) != VERSION) {
+				throw new IOException(String.format("Index file %s has version %d, expected %d", 
+						path, buffer.getInt(Integer.BYTES), VERSION));
+			}
+			return new MappedIndex(buffer);
+		}
+	}
+	
+	/**
+	 * A term and its postings, sorted by the UTF-8 bytes of the term
+	 */
+	private static class TermEntry {
+		
+		private final byte[] bytes;
+		private final TfDocumentList postings;
+		
+		private TermEntry(TfDocumentList postings) {
+			this.bytes = postings.getTerm().getBytes(StandardCharsets.UTF_8);
+			this.postings = postings;
+		}
+	
+	}
+
+}
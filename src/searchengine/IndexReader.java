@@ -0,0 +1,96 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Read access to an index, what a search needs to score documents.
+ *
+ */
+public interface IndexReader {
+	
+	/**
+	 * Get the number of documents in the index (N)
+	 */
+	public int numberOfDocuments();
+	
+	/**
+	 * Get the number of terms in all documents of the index, for their average length
+	 */
+	public long totalLength();
+	
+	/**
+	 * Get the postings of a term
+	 * @param term the word to search for
+	 * @return the postings, or null if no document contains the term
+	 */
+	public Postings getPostings(String term);
+	
+	/**
+	 * Iterate over the terms of the index that start with a prefix, 
+	 * in the order of their UTF-8 bytes and without duplicates
+	 * @param prefix the start of the terms, empty for all terms
+	 */
+	public default Iterator<String> terms(String prefix) {
+		return terms(prefix, prefix);
+	}
+	
+	/**
+	 * Iterate over the terms of the index that start with a prefix, from the first one
+	 * that is equal to or after a term, in the order of their UTF-8 bytes and without duplicates.
+	 * Seeking with a new iterator skips the terms in between without reading them.
+	 * @param prefix the start of the terms, empty for all terms
+	 * @param from the first term, the iteration starts at the prefix if it comes before it
+	 */
+	public Iterator<String> terms(String prefix, String from);
+	
+	/**
+	 * Get the terms of the index that match a wildcard, in the order of their UTF-8 bytes.
+	 * Only the terms that start with the prefix of the wildcard are read.
+	 * @param wildcard the term with wildcards
+	 * @param max the maximum number of terms, the first ones are returned if more terms match
+	 */
+	public default List<String> expand(Wildcard wildcard, int max) {
+		List<String> matches = new ArrayList<String>();
+		Iterator<String> terms = terms(wildcard.getPrefix());
+		while (terms.hasNext() && matches.size() < max) {
+			String term = terms.next();
+			if (wildcard.matches(term)) {
+				matches.add(term);
+			}
+		}
+		return matches;
+	}
+	
+	/**
+	 * Get the dictionary that maps document ordinals to document identifiers
+	 */
+	public DocumentDictionary getDocuments();
+	
+	/**
+	 * Get the number of documents that contain the term of postings, the df the idf is calculated from
+	 */
+	public default int docFreq(Postings postings) {
+		return postings.size();
+	}
+	
+	/**
+	 * Get the idf of the term of postings in this index
+	 * @param postings the documents that contain the term
+	 * @return the idf score which equals log(#documents in index / #documents containing term)
+	 */
+	public default double calcIdf(Postings postings) {
+		int n = numberOfDocuments();
+		double idf = postings.getIdf(n);
+		if (Debug.TRACE) {
+			Debug.log("calc idf: term = %s, N = %d, n_t = %d --> idf = %f", 
+					postings.getTerm(), n, postings.size(), idf);
+		}
+		return idf;
+	}
+
+}
@@ -0,0 +1,413 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A point-in-time view of a {@link SegmentedIndex}: the segments that were published 
+ * when the snapshot was taken. The segments are never changed after they are published,
+ * so a snapshot can be searched by any number of threads without locking, 
+ * while new documents are added to the index.
+ * 
+ * The segments have consecutive ranges of document ordinals, so the postings of a term
+ * are the postings in the first segment, followed by the postings in the next segment...
+ * The postings of deleted documents are skipped, but still count in the statistics.
+ *
+ */
+public class IndexSnapshot implements IndexReader {
+	
+	private final IndexReader[] segments;
+	private final int numberOfDocuments;
+	private final DocumentDictionary documents;
+	// the ordinals of the deleted documents, never changed
+	private final BitSet deleted;
+	
+	/**
+	 * @param segments the segments in document order
+	 * @param numberOfDocuments the number of documents in the segments
+	 * @param documents the dictionary of the segments, it may get more documents after the snapshot
+	 */
+	public IndexSnapshot(IndexReader[] segments, int numberOfDocuments, DocumentDictionary documents) {
+		this(segments, numberOfDocuments, documents, new BitSet());
+	}
+	
+	/**
+	 * @param segments the segments in document order
+	 * @param numberOfDocuments the number of documents in the segments, the deleted ones included
+	 * @param documents the dictionary of the segments, it may get more documents after the snapshot
+	 * @param deleted the ordinals of the deleted documents, it must not be changed
+	 */
+	public IndexSnapshot(IndexReader[] segments, int numberOfDocuments, DocumentDictionary documents, BitSet deleted) {
+		this.segments = segments;
+		this.numberOfDocuments = numberOfDocuments;
+		this.documents = documents;
+		this.deleted = deleted;
+	}
+	
+	/**
+	 * Get the number of documents when the snapshot was taken, the deleted ones included
+	 * so the document frequencies of the terms are never higher
+	 */
+	@Override
+	public int numberOfDocuments() {
+		return numberOfDocuments;
+	}
+	
+	/**
+	 * Get the number of terms in the documents of the segments
+	 */
+	@Override
+	public long totalLength() {
+		long totalLength = 0;
+		for (IndexReader segment : segments) {
+			totalLength += segment.totalLength();
+		}
+		return totalLength;
+	}
+	
+	@Override
+	public DocumentDictionary getDocuments() {
+		return documents;
+	}
+	
+	/**
+	 * Check if a document was deleted when the snapshot was taken
+	 */
+	public boolean isDeleted(int doc) {
+		return deleted.get(doc);
+	}
+	
+	/**
+	 * Get the number of deleted documents
+	 */
+	public int numberOfDeletedDocuments() {
+		return deleted.cardinality();
+	}
+	
+	/**
+	 * Get the number of segments in the snapshot
+	 */
+	public int numberOfSegments() {
+		return segments.length;
+	}
+	
+	@Override
+	public Postings getPostings(String term) {
+		Postings first = null;
+		List<Postings> all = null;
+		for (IndexReader segment : segments) {
+			Postings postings = segment.getPostings(term);
+			if (postings == null || postings.size() == 0) {
+				continue;
+			}
+			if (first == null) {
+				first = postings;
+			} else {
+				if (all == null) {
+					all = new ArrayList<Postings>();
+					all.add(first);
+				}
+				all.add(postings);
+			}
+		}
+		Postings postings = all == null ? first : new ConcatenatedPostings(all.toArray(new Postings[all.size()]));
+		if (postings == null || deleted.isEmpty()) {
+			return postings;
+		}
+		return new LivePostings(postings, deleted);
+	}
+	
+	/**
+	 * Merge the sorted terms of the segments
+	 */
+	@Override
+	public Iterator<String> terms(String prefix, String from) {
+		if (segments.length == 1) {
+			return segments[0].terms(prefix, from);
+		}
+		List<Iterator<String>> iterators = new ArrayList<Iterator<String>>();
+		for (IndexReader segment : segments) {
+			iterators.add(segment.terms(prefix, from));
+		}
+		return new MergedTerms(iterators);
+	}
+	
+	@Override
+	public String toString() {
+		return "IndexSnapshot{documents=" + numberOfDocuments + ", deleted=" + deleted.cardinality() 
+				+ ", segments=" + segments.length + "}";
+	}
+	
+	/**
+	 * Iterates over the sorted terms of several segments in order, a term that is
+	 * in several segments is returned once. Segments are few, so the next term is
+	 * found by comparing the heads of all iterators.
+	 */
+	private static class MergedTerms implements Iterator<String> {
+		
+		private final List<Iterator<String>> iterators;
+		// the next term of each iterator, null when it is exhausted
+		private final byte[][] heads;
+		private final String[] terms;
+		
+		private MergedTerms(List<Iterator<String>> iterators) {
+			this.iterators = iterators;
+			this.heads = new byte[iterators.size()][];
+			this.terms = new String[iterators.size()];
+			for (int i=0; i<heads.length; ++i) {
+				advance(i);
+			}
+		}
+		
+		private void advance(int i) {
+			Iterator<String> iterator = iterators.get(i);
+			terms[i] = iterator.hasNext() ? iterator.next() : null;
+			heads[i] = terms[i] == null ? null : terms[i].getBytes(StandardCharsets.UTF_8);
+		}
+		
+		@Override
+		public boolean hasNext() {
+			for (String term : terms) {
+				if (term != null) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		@Override
+		public String next() {
+			byte[] min = null;
+			String next = null;
+			for (int i=0; i<heads.length; ++i) {
+				if (heads[i] != null && (min == null || Arrays.compareUnsigned(heads[i], min) < 0)) {
+					min = heads[i];
+					next = terms[i];
+				}
+			}
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			for (int i=0; i<heads.length; ++i) {
+				if (heads[i] != null && Arrays.equals(heads[i], min)) {
+					advance(i);
+				}
+			}
+			return next;
+		}
+	
+	}
+	
+	/**
+	 * The postings of a term in several segments
+	 */
+	private static class ConcatenatedPostings implements Postings {
+		
+		private final Postings[] postings;
+		
+		private ConcatenatedPostings(Postings[] postings) {
+			this.postings = postings;
+		}
+		
+		@Override
+		public String getTerm() {
+			return postings[0].getTerm();
+		}
+		
+		@Override
+		public int size() {
+			int size = 0;
+			for (Postings p : postings) {
+				size += p.size();
+			}
+			return size;
+		}
+		
+		@Override
+		public int getMaxFreq() {
+			int maxFreq = 0;
+			for (Postings p : postings) {
+				maxFreq = Math.max(maxFreq, p.getMaxFreq());
+			}
+			return maxFreq;
+		}
+		
+		@Override
+		public double getIdf(int numberOfDocuments) {
+			return Math.log10((double) numberOfDocuments / Math.max(size(), 1));
+		}
+		
+		@Override
+		public PostingsIterator iterator() {
+			PostingsIterator[] iterators = new PostingsIterator[postings.length];
+			for (int i=0; i<postings.length; ++i) {
+				iterators[i] = postings[i].iterator();
+			}
+			return new ConcatenatedIterator(iterators);
+		}
+	
+	}
+	
+	/**
+	 * Iterates over the postings of the first segment, then over the next segment...
+	 */
+	private static class ConcatenatedIterator implements PostingsIterator {
+		
+		private final PostingsIterator[] iterators;
+		private final int cost;
+		private int current = 0;
+		
+		private ConcatenatedIterator(PostingsIterator[] iterators) {
+			this.iterators = iterators;
+			int cost = 0;
+			for (PostingsIterator iterator : iterators) {
+				cost += iterator.cost();
+			}
+			this.cost = cost;
+		}
+		
+		@Override
+		public int docId() {
+			return iterators[current].docId();
+		}
+		
+		@Override
+		public int nextDoc() {
+			int doc = iterators[current].nextDoc();
+			while (doc == NO_MORE_DOCS && current < iterators.length - 1) {
+				doc = iterators[++current].nextDoc();
+			}
+			return doc;
+		}
+		
+		@Override
+		public int advance(int target) {
+			int doc = iterators[current].advance(target);
+			while (doc == NO_MORE_DOCS && current < iterators.length - 1) {
+				doc = iterators[++current].advance(target);
+			}
+			return doc;
+		}
+		
+		@Override
+		public int freq() {
+			return iterators[current].freq();
+		}
+		
+		@Override
+		public int nextPosition() {
+			return iterators[current].nextPosition();
+		}
+		
+		@Override
+		public int cost() {
+			return cost;
+		}
+	
+	}
+	
+	/**
+	 * The postings of a term without the deleted documents. The size and the highest term frequency
+	 * are the ones of all postings, the statistics include the deleted documents.
+	 */
+	private static class LivePostings implements Postings {
+		
+		private final Postings postings;
+		private final BitSet deleted;
+		
+		private LivePostings(Postings postings, BitSet deleted) {
+			this.postings = postings;
+			this.deleted = deleted;
+		}
+		
+		@Override
+		public String getTerm() {
+			return postings.getTerm();
+		}
+		
+		@Override
+		public int size() {
+			return postings.size();
+		}
+		
+		@Override
+		public int getMaxFreq() {
+			return postings.getMaxFreq();
+		}
+		
+		@Override
+		public double getIdf(int numberOfDocuments) {
+			return postings.getIdf(numberOfDocuments);
+		}
+		
+		@Override
+		public PostingsIterator iterator() {
+			return new LiveIterator(postings.iterator(), deleted);
+		}
+	
+	}
+	
+	/**
+	 * Skips the postings of deleted documents
+	 */
+	private static class LiveIterator implements PostingsIterator {
+		
+		private final PostingsIterator postings;
+		private final BitSet deleted;
+		
+		private LiveIterator(PostingsIterator postings, BitSet deleted) {
+			this.postings = postings;
+			this.deleted = deleted;
+		}
+		
+		@Override
+		public int docId() {
+			return postings.docId();
+		}
+		
+		@Override
+		public int nextDoc() {
+			return toLive(postings.nextDoc());
+		}
+		
+		@Override
+		public int advance(int target) {
+			return toLive(postings.advance(target));
+		}
+		
+		/**
+		 * Move to the first document from doc that is not deleted
+		 */
+		private int toLive(int doc) {
+			while (doc != NO_MORE_DOCS && deleted.get(doc)) {
+				doc = postings.nextDoc();
+			}
+			return doc;
+		}
+		
+		@Override
+		public int freq() {
+			return postings.freq();
+		}
+		
+		@Override
+		public int nextPosition() {
+			return postings.nextPosition();
+		}
+		
+		@Override
+		public int cost() {
+			return postings.cost();
+		}
+	
+	}
+
+}
@@ -1,39 +1,224 @@
 package searchengine;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Inverted index
  * Data structure for searching the documents in the data base
  *
  */
-public class InvertedIndex {
+public class InvertedIndex implements IndexReader {
 	
-	// index that maps words to documents, format: <term>: <document id>
+	// index that maps words to documents, format: <term>: <document id>.
+	// null when the terms have been moved to a sorted dictionary by trim()
 	private Map<String, TfDocumentList> index = new HashMap<String, TfDocumentList>();
-	private Set<String> docIds = new HashSet<String>();
+	// the sorted terms after trim(), and their postings by term ordinal
+	private TermDictionary terms = null;
+	private TfDocumentList[] postings = null;
+	// documents in the index, postings refer to them by ordinal
+	private DocumentDictionary documents;
+	// the document that terms are inserted to, and the position of the next term in it
+	private int insertDoc = -1;
+	private int insertPosition = 0;
+	// the number of terms in the documents of this index
+	private long totalLength = 0;
+	
+	public InvertedIndex() {
+		this(new DocumentDictionary());
+	}
+	
+	/**
+	 * Create an index that continues the document ordinals of a dictionary,
+	 * e.g. to add documents to an index that can't be changed
+	 * @param documents the documents before the first document of this index
+	 */
+	public InvertedIndex(DocumentDictionary documents) {
+		this.documents = documents;
+	}
+	
+	/**
+	 * Add a document to the index, its terms are then inserted with the returned ordinal
+	 * @param docId The document identifier, e.g. document name
+	 * @return the document ordinal
+	 */
+	public int addDocument(String docId) {
+		return documents.add(docId);
+	}
 	
 	/**
-	 * Add a (word, document) pair to the index
+	 * Add a (word, document) pair to the index. 
+	 * The terms of a document are inserted in the order they are in the document,
+	 * the position of a term is the number of terms that were inserted to the document before it.
+	 * A String is only created for the term the first time it is inserted,
+	 * so the term can be a reused {@link TermBuffer}.
+	 * The norm of a document is set when the terms of the next document are inserted, 
+	 * or when the index is trimmed, merged or appended.
 	 * @param term A word in the document
-	 * @param docID The document identifier, e.g. document name
+	 * @param doc The document ordinal from {@link #addDocument(String)}
 	 */
-	public void insert(String term, Document docTerm) {
-		// Add to index
-		if (index.containsKey(term)) {
+	public void insert(CharSequence term, int doc) {
+		if (doc != insertDoc) {
+			finishDocument();
+			insertDoc = doc;
+			insertPosition = 0;
+		}
+		TfDocumentList docs = map().get(term);
+		if (docs == null) {
+			String key = term.toString();
+			docs = new TfDocumentList(key, documents);
+			index.put(key, docs);
+		}
+		docs.add(doc, insertPosition++);
+		++totalLength;
+	}
+	
+	/**
+	 * Set the norm of the document that terms were inserted to last, from the number of terms in it
+	 */
+	private void finishDocument() {
+		if (insertDoc != -1) {
+			documents.setNorm(insertDoc, Norms.encode(insertPosition));
+			insertDoc = -1;
+		}
+	}
+	
+	/**
+	 * Append all documents of another index to this index, e.g. a slice of the data base
+	 * that was indexed by another thread. The documents of the other index get ordinals 
+	 * after the documents in this index, in the same order.
+	 * @param other an index with other documents than this index
+	 * @throws IllegalArgumentException if a document is in both indexes
+	 */
+	public void merge(InvertedIndex other) {
+		finishDocument();
+		other.finishDocument();
+		int docBase = documents.size();
+		DocumentDictionary otherDocuments = other.getDocuments();
+		byte[] otherNorms = otherDocuments.getNorms();
+		for (int doc=0; doc<otherDocuments.size(); ++doc) {
+			String docId = otherDocuments.getName(doc);
+			if (documents.add(docId) != docBase + doc) {
+				throw new IllegalArgumentException("Document " + docId + " is already in the index.");
+			}
+			documents.setNorm(docBase + doc, otherNorms[doc]);
+		}
+		totalLength += other.totalLength;
+		Map<String, TfDocumentList> index = map();
+		for (TfDocumentList otherDocs : other.getAllPostings()) {
+			String term = otherDocs.getTerm();
+			TfDocumentList docs = index.get(term);
+			if (docs == null) {
+				docs = new TfDocumentList(term, documents);
+				index.put(term, docs);
+			}
+			docs.addAll(otherDocs, docBase);
+		}
+	}
+	
+	/**
+	 * Append the postings of an index that shares the document dictionary of this index,
+	 * e.g. to merge two segments. The other index must only have documents after the documents 
+	 * in this index, neither index is changed afterwards.
+	 * @param other an index that was created with the dictionary of this index
+	 * @throws IllegalArgumentException if a document of the other index comes before the last document
+	 */
+	public void append(InvertedIndex other) {
+		finishDocument();
+		other.finishDocument();
+		totalLength += other.totalLength;
+		Map<String, TfDocumentList> index = map();
+		for (TfDocumentList otherDocs : other.getAllPostings()) {
+			String term = otherDocs.getTerm();
 			TfDocumentList docs = index.get(term);
-			docs.add(docTerm);
-			index.put(term, docs);
-		} else {
-			TfDocumentList docs = new TfDocumentList(term);
-			docs.add(docTerm);
-			index.put(term, docs);
+			if (docs == null) {
+				docs = new TfDocumentList(term, documents);
+				index.put(term, docs);
+			}
+			docs.addAll(otherDocs, 0);
+		}
+	}
+	
+	/**
+	 * Release the capacity the postings don't use and move the terms from the hash map 
+	 * to a sorted {@link TermDictionary}, e.g. when the index is published and no more 
+	 * documents are added to it. If documents are added afterwards the terms are moved back.
+	 */
+	public void trim() {
+		finishDocument();
+		if (index != null) {
+			String[] sorted = index.keySet().toArray(new String[index.size()]);
+			TermDictionary.sort(sorted);
+			TfDocumentList[] postings = new TfDocumentList[sorted.length];
+			for (int i=0; i<sorted.length; ++i) {
+				postings[i] = index.get(sorted[i]);
+			}
+			this.terms = new TermDictionary(sorted);
+			this.postings = postings;
+			this.index = null;
+		}
+		for (TfDocumentList docs : postings) {
+			docs.trim();
+		}
+	}
+	
+	/**
+	 * Get the map from terms to postings, the terms are moved back to it if the index was trimmed
+	 */
+	private Map<String, TfDocumentList> map() {
+		if (index == null) {
+			Map<String, TfDocumentList> index = new HashMap<String, TfDocumentList>();
+			for (TfDocumentList docs : postings) {
+				index.put(docs.getTerm(), docs);
+			}
+			this.index = index;
+			this.terms = null;
+			this.postings = null;
 		}
-		// Keep track of the number of documents
-		docIds.add(docTerm.getDocId());
+		return index;
+	}
+	
+	@Override
+	public TfDocumentList getPostings(String term) {
+		if (index != null) {
+			return index.get(term);
+		}
+		int ordinal = terms.ordinal(term);
+		return ordinal < 0 ? null : postings[ordinal];
+	}
+	
+	/**
+	 * Get the terms that start with a prefix, in the order of their UTF-8 bytes.
+	 * They are only sorted when they are asked for until the index is trimmed.
+	 */
+	@Override
+	public Iterator<String> terms(String prefix, String from) {
+		if (index == null) {
+			return terms.terms(prefix, from);
+		}
+		byte[] start = from.getBytes(StandardCharsets.UTF_8);
+		List<String> matches = new ArrayList<String>();
+		for (String term : index.keySet()) {
+			if (term.startsWith(prefix) && Arrays.compareUnsigned(term.getBytes(StandardCharsets.UTF_8), start) >= 0) {
+				matches.add(term);
+			}
+		}
+		String[] sorted = matches.toArray(new String[matches.size()]);
+		TermDictionary.sort(sorted);
+		return Arrays.asList(sorted).iterator();
+	}
+	
+	/**
+	 * Get the postings of all terms, in term order if the index has been trimmed
+	 */
+	public Collection<TfDocumentList> getAllPostings() {
+		return index != null ? index.values() : Arrays.asList(postings);
 	}
 	
 	/**
@@ -42,9 +227,9 @@ public class InvertedIndex {
 	 * @return A list of documents with their tf scores
 	 */
 	public TfDocumentList getDocumentsTf(String term) {
-		TfDocumentList documents = index.get(term);
+		TfDocumentList documents = getPostings(term);
 		if (documents == null) {
-			documents = new TfDocumentList(term);
+			documents = new TfDocumentList(term, this.documents);
 		}
 		return documents;
 	}
@@ -55,20 +240,54 @@ public class InvertedIndex {
 	 * @return A list of documents with their tf-idf scores
 	 */
 	public TfidfDocumentList getDocumentsTfidf(String term) {
-		TfDocumentList documentsTf = index.get(term);
+		TfDocumentList documentsTf = getPostings(term);
 		if (documentsTf == null) {
-			documentsTf = new TfDocumentList(term);
+			documentsTf = new TfDocumentList(term, documents);
 		}
-		Double idf = calcIdf(term);
-		return new TfidfDocumentList(documentsTf, idf);
+		return new TfidfDocumentList(documentsTf, calcIdf(term));
 	}
 	
-	public Integer numberOfDocuments() {
-		return docIds.size();
+	/**
+	 * Get the number of documents in the index (N)
+	 */
+	@Override
+	public int numberOfDocuments() {
+		return documents.size();
 	}
 	
-	public boolean hasDocId(String docId) {
-		return docIds.contains(docId);
+	/**
+	 * Get the number of terms in the documents of this index, without the documents
+	 * of the dictionary before it
+	 */
+	@Override
+	public long totalLength() {
+		return totalLength;
+	}
+	
+	/**
+	 * Get the number of documents that contain the term (document frequency)
+	 */
+	public int docFreq(String term) {
+		TfDocumentList documentsTf = getPostings(term);
+		return documentsTf == null ? 0 : documentsTf.size();
+	}
+	
+	public boolean hasDocId(int doc) {
+		return documents.contains(doc);
+	}
+	
+	/**
+	 * Get the ordinal of a document in the index
+	 * @param docId The document identifier, e.g. document name
+	 * @return the ordinal, or -1 if the document is not in the index
+	 */
+	public int getDocOrdinal(String docId) {
+		return documents.getOrdinal(docId);
+	}
+	
+	@Override
+	public DocumentDictionary getDocuments() {
+		return documents;
 	}
 	
 	/**
@@ -76,22 +295,28 @@ public class InvertedIndex {
 	 * @param term the word/token for which to evaluate the idf
 	 * @return the idf score which equals log(#documents in index / #documents containing term)
 	 */
-	public Double calcIdf(String term) {
-		// idf = log(N/nTerm), 
-		// avoid division by zero by setting nTerm = 1!
-		int nTerm = 1;
-		if (index.containsKey(term)) {
-			nTerm = index.get(term).size();
+	public double calcIdf(String term) {
+		TfDocumentList documentsTf = getPostings(term);
+		if (documentsTf == null) {
+			// avoid division by zero by setting nTerm = 1!
+			return Math.log10(numberOfDocuments());
 		}
-		Double idf = Math.log10((double) numberOfDocuments() / nTerm);
-		System.out.println(String.format("calc idf: term = %s, N = %d, n_t = %d --> idf = %f", 
-				term, numberOfDocuments(), nTerm, idf));
-		return idf;
+		return calcIdf(documentsTf);
 	}
 	
+	
 	@Override
 	public String toString() {
-		return index.toString();
+		if (index != null) {
+			return index.toString();
+		}
+		StringBuilder sb = new StringBuilder("{");
+		for (int i=0; i<postings.length; ++i) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(postings[i].getTerm()).append("=").append(postings[i]);
+		}
+		return sb.append("}").toString();
 	}
 
 }
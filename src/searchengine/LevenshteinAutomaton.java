@@ -0,0 +1,192 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Automaton that accepts the terms within a maximum number of edits (insertions, deletions or
+ * substitutions of a character) of a word.
+ *
+ * A state is the row of the edit distances between the characters read so far and every prefix
+ * of the word, clamped to maxEdits + 1, so a state only depends on the characters read and not on
+ * how the term goes on. When no distance in a state is within maxEdits, no term that starts with
+ * the characters read can match, and {@link #intersect(IndexReader, int)} seeks past all of them
+ * in the sorted term dictionary instead of reading them, to the next prefix the automaton can still
+ * accept: a state with a distance below maxEdits accepts any character, and a state at maxEdits
+ * only the characters of the word that keep the distance. The states of the prefix a term shares
+ * with the term before are reused. Characters are code points, so the terms are in the same order
+ * as their UTF-8 bytes.
+ *
+ */
+public class LevenshteinAutomaton {
+	
+	private final int[] word;
+	private final int maxEdits;
+	
+	/**
+	 * @param word the term to match
+	 * @param maxEdits the maximum edit distance of the terms that match
+	 */
+	public LevenshteinAutomaton(String word, int maxEdits) {
+		this.word = word.codePoints().toArray();
+		this.maxEdits = maxEdits;
+	}
+	
+	/**
+	 * Get the state before any character is read
+	 */
+	public int[] start() {
+		int[] state = new int[word.length + 1];
+		for (int i=0; i<state.length; ++i) {
+			state[i] = Math.min(i, maxEdits + 1);
+		}
+		return state;
+	}
+	
+	/**
+	 * Get the state after reading a character
+	 * @param state the state before the character
+	 * @param c the code point of the character
+	 */
+	public int[] step(int[] state, int c) {
+		int[] next = new int[state.length];
+		next[0] = Math.min(state[0] + 1, maxEdits + 1);
+		for (int i=1; i<state.length; ++i) {
+			int substitution = state[i-1] + (word[i-1] == c ? 0 : 1);
+			next[i] = Math.min(Math.min(state[i] + 1, next[i-1] + 1), Math.min(substitution, maxEdits + 1));
+		}
+		return next;
+	}
+	
+	/**
+	 * Check if a term can still match after the characters of a state
+	 */
+	public boolean canMatch(int[] state) {
+		for (int distance : state) {
+			if (distance <= maxEdits) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Get the edit distance of the characters of a state to the word, maxEdits + 1 if they don't match
+	 */
+	public int distance(int[] state) {
+		return state[word.length];
+	}
+	
+	/**
+	 * Find the terms of an index that match. A term matches if it is within maxEdits of the word
+	 * and fewer edits than the length of the shorter of the two, so a term is never replaced completely.
+	 * @param index the index with the terms
+	 * @param max the maximum number of terms, the closest ones are kept if more terms match
+	 * @return the terms and their edit distances, closest first and then in term order
+	 */
+	public Map<String, Integer> intersect(IndexReader index, int max) {
+		List<String> matches = new ArrayList<String>();
+		List<Integer> distances = new ArrayList<Integer>();
+		// states[i] is the state after the first i characters of the term before
+		int[][] states = new int[16][];
+		states[0] = start();
+		int[] previous = new int[0];
+		int valid = 0;
+		Iterator<String> terms = index.terms("");
+		while (terms.hasNext()) {
+			String term = terms.next();
+			int[] chars = term.codePoints().toArray();
+			if (chars.length >= states.length) {
+				states = Arrays.copyOf(states, chars.length + 1);
+			}
+			int i = 0;
+			while (i < valid && i < chars.length && chars[i] == previous[i]) {
+				++i;
+			}
+			boolean dead = false;
+			for (; i<chars.length && !dead; ++i) {
+				states[i+1] = step(states[i], chars[i]);
+				dead = !canMatch(states[i+1]);
+			}
+			previous = chars;
+			valid = i;
+			if (dead) {
+				// no term that starts with the first i characters matches
+				int[] next = nextPrefix(chars, states, i);
+				if (next == null) {
+					break;
+				}
+				terms = index.terms("", new String(next, 0, next.length));
+				continue;
+			}
+			int distance = distance(states[chars.length]);
+			if (distance <= maxEdits && distance < Math.min(chars.length, word.length)) {
+				matches.add(term);
+				distances.add(distance);
+			}
+		}
+		Map<String, Integer> closest = new LinkedHashMap<String, Integer>();
+		for (int distance=0; distance<=maxEdits; ++distance) {
+			for (int i=0; i<matches.size() && closest.size() < max; ++i) {
+				if (distances.get(i) == distance) {
+					closest.put(matches.get(i), distance);
+				}
+			}
+		}
+		return closest;
+	}
+	
+	/**
+	 * Get the first prefix the automaton accepts after all terms that start with the first length 
+	 * characters, null if there is none. The order of code points is the order of UTF-8 bytes.
+	 * @param states the states after the characters, states[length] is dead
+	 */
+	private int[] nextPrefix(int[] chars, int[][] states, int length) {
+		for (int i=length-1; i>=0; --i) {
+			int c = nextChar(states[i], chars[i]);
+			if (c >= 0) {
+				int[] next = Arrays.copyOf(chars, i + 1);
+				next[i] = c;
+				return next;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the first character after a character that the automaton accepts in a state, -1 if there is none
+	 */
+	private int nextChar(int[] state, int after) {
+		int min = maxEdits + 1;
+		for (int distance : state) {
+			min = Math.min(min, distance);
+		}
+		if (min < maxEdits) {
+			// inserting any character keeps a distance within maxEdits
+			if (after == Character.MAX_CODE_POINT) {
+				return -1;
+			}
+			return after + 1 == Character.MIN_SURROGATE ? Character.MAX_SURROGATE + 1 : after + 1;
+		}
+		int next = -1;
+		for (int i=0; i<word.length; ++i) {
+			if (state[i] == maxEdits && word[i] > after && (next < 0 || word[i] < next)) {
+				next = word[i];
+			}
+		}
+		return next;
+	}
+	
+	@Override
+	public String toString() {
+		return "LevenshteinAutomaton{word=" + new String(word, 0, word.length) + ", maxEdits=" + maxEdits + "}";
+	}
+
+}
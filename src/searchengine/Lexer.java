@@ -4,7 +4,6 @@
 package searchengine;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -21,19 +20,78 @@ import java.util.List;
  * 	SELECT * or SELECT doc1.txt doc2.txt
  * 4. Terminate the search engine
  * 	EXIT
+ * 5. Boolean query, the operators are upper case and parentheses group the operands
+ * 	GET (brown OR red) AND fox AND NOT lazy
+ * 6. Phrase query, inside the quotes AND, OR, NOT and parentheses are words
+ * 	GET "the AND fox" or GET "brown dog"~2
  *
  */
 public class Lexer {
 	
+	/**
+	 * Receives the tokens of a scan.
+	 * The term buffer is reused for the next token, call toString() on it to keep the term.
+	 */
+	public interface TokenHandler {
+		public void token(TokenType type, TermBuffer term);
+	}
+	
+	private static final Histogram LEX = Metrics.histogram("query.lex");
+	
+	// States of the scanner that classifies a token while its characters are read.
+	// FILENAME = \w+\.txt, PERIOD = \. and anything else is a WORD
+	private static final int START = 0;
+	private static final int NAME = 1;
+	private static final int NAME_DOT = 2;
+	private static final int NAME_DOT_T = 3;
+	private static final int NAME_DOT_TX = 4;
+	private static final int FILENAME = 5;
+	private static final int PERIOD = 6;
+	private static final int WORD = 7;
+	
+	// Character classes
+	private static final int OTHER_CHAR = 0;
+	private static final int WORD_CHAR = 1;
+	private static final int DOT_CHAR = 2;
+	private static final int T_CHAR = 3;
+	private static final int X_CHAR = 4;
+	
+	// TRANSITIONS[state][character class] = next state
+	private static final int[][] TRANSITIONS = {
+			//                  OTHER WORD  DOT       T           X
+			/* START */        {WORD, NAME, PERIOD,   NAME,       NAME},
+			/* NAME */         {WORD, NAME, NAME_DOT, NAME,       NAME},
+			/* NAME_DOT */     {WORD, WORD, WORD,     NAME_DOT_T, WORD},
+			/* NAME_DOT_T */   {WORD, WORD, WORD,     WORD,       NAME_DOT_TX},
+			/* NAME_DOT_TX */  {WORD, WORD, WORD,     FILENAME,   WORD},
+			/* FILENAME */     {WORD, WORD, WORD,     WORD,       WORD},
+			/* PERIOD */       {WORD, WORD, WORD,     WORD,       WORD},
+			/* WORD */         {WORD, WORD, WORD,     WORD,       WORD}
+	};
+	
+	// Character classes of the ASCII characters, other characters are OTHER_CHAR (\w is ASCII only)
+	private static final byte[] CHAR_CLASSES = new byte[128];
+	static {
+		for (char c = '0'; c <= '9'; ++c)
+			CHAR_CLASSES[c] = WORD_CHAR;
+		for (char c = 'a'; c <= 'z'; ++c)
+			CHAR_CLASSES[c] = WORD_CHAR;
+		for (char c = 'A'; c <= 'Z'; ++c)
+			CHAR_CLASSES[c] = WORD_CHAR;
+		CHAR_CLASSES['_'] = WORD_CHAR;
+		CHAR_CLASSES['.'] = DOT_CHAR;
+		CHAR_CLASSES['t'] = T_CHAR;
+		CHAR_CLASSES['x'] = X_CHAR;
+	}
+	
 	// Build the list of tokens in a field variable, for "complex" queries with 
 	// punctuation etc we want to find the tokens recursively!
 	List<Token> tokens;
-	HashMap<TokenType, String> regexMap = new HashMap<TokenType, String>();
-	
-	public Lexer() {
-		regexMap.put(TokenType.FILENAME, "\\w+\\.txt");
-		regexMap.put(TokenType.PERIOD, "\\.");
-	}
+	// If the query words are inside the quotes of a phrase
+	private boolean inPhrase = false;
+	// The token that is being scanned, it can continue in the next chunk of a document
+	private final TermBuffer term = new TermBuffer();
+	private int state = START;
 	
 	/**
 	 * Tokenize a document, it can contain WORD/FILENAME/PUNCTUATION tokens
@@ -43,35 +101,233 @@ public class Lexer {
 	 */
 	public List<Token> tokenizeDocument(String sequence) {
 		tokens = new ArrayList<Token>();
-		sequence = sequence.toLowerCase();
-		String[] sequenceList = sequence.split(" ");
-		for (int i=0; i<sequenceList.length; ++i) {
-			addToken(sequenceList[i]);
-		}
+		TokenHandler handler = (type, value) -> tokens.add(new Token(type, value.toString()));
+		reset();
+		scan(sequence, handler);
+		finish(handler);
 		return tokens;
 	}
 
 	/**
-	 * Create a list of tokens, gives an empty list if the sequence is empty
+	 * Create a list of tokens, gives an empty list if the sequence is empty.
+	 * The quotes of phrases are QUOTE tokens, and ~n right after a quote or at the end of a word is a SLOP token.
+	 * AND, OR and NOT are operators when they are upper case, and parentheses at the start
+	 * or end of a word are LPAREN/RPAREN tokens, but not inside a phrase. Everything else is lowercased.
 	 * @param sequence the query to tokenize
 	 * @return a list of tokens
 	 * @throws SyntaxException if the format of the sequence is incorrect
 	 */
 	public List<Token> tokenizeQuery(String sequence) throws SyntaxException {
+		long start = Metrics.now();
+		// The words keep their case until the operators are found
+		List<String> words = splitWords(sequence);
 		tokens = new ArrayList<Token>();
-		sequence = sequence.toLowerCase();
-		String[] sequenceList = sequence.split(" ");
-		if (sequenceList.length > 0) {
-			// Check the first token
-			addActionToken(sequenceList[0]);
-			// Loop over each sub-sequence
-			for (int i=1; i<sequenceList.length; ++i) {
-				addToken(sequenceList[i]);
-			}
+		inPhrase = false;
+		// Check the first token
+		addActionToken(words.isEmpty() ? "" : lowerCase(words.get(0)));
+		for (String word : words.subList(1, words.size())) {
+			addQueryToken(word);
 		}
+		LEX.recordSince(start);
 		return tokens;
 	}
 	
+	/**
+	 * Split a sequence at white space, like {@link #scan(CharSequence, TokenHandler)}
+	 */
+	private static List<String> splitWords(String sequence) {
+		List<String> words = new ArrayList<String>();
+		int from = -1;
+		for (int i=0; i<=sequence.length(); ++i) {
+			if (i == sequence.length() || Character.isWhitespace(sequence.charAt(i))) {
+				if (from >= 0) {
+					words.add(sequence.substring(from, i));
+					from = -1;
+				}
+			} else if (from < 0) {
+				from = i;
+			}
+		}
+		return words;
+	}
+	
+	private static String lowerCase(String word) {
+		StringBuilder sb = new StringBuilder(word.length());
+		for (int i=0; i<word.length(); ++i) {
+			sb.append(Character.toLowerCase(word.charAt(i)));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Get the operator of an upper case AND, OR or NOT, null for other words
+	 */
+	private static TokenType operator(String word) {
+		switch (word) {
+		case "AND":
+			return TokenType.AND;
+		case "OR":
+			return TokenType.OR;
+		case "NOT":
+			return TokenType.NOT;
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * Add a word of a query, split at the parentheses around it and at the quotes of phrases.
+	 * Inside a phrase the word is only lowercased, up to the closing quote and its slop.
+	 */
+	private void addQueryToken(String word) {
+		if (inPhrase) {
+			int quote = word.indexOf('"');
+			int end = quote < 0 ? word.length() : slopEnd(word, quote + 1);
+			addQuoted(lowerCase(word.substring(0, end)));
+			if (end < word.length()) {
+				addQueryToken(word.substring(end));
+			}
+			return;
+		}
+		int from = 0;
+		while (from < word.length() && word.charAt(from) == '(') {
+			tokens.add(new Token(TokenType.LPAREN, "("));
+			++from;
+		}
+		int to = word.length();
+		while (to > from && word.charAt(to-1) == ')') {
+			--to;
+		}
+		String value = word.substring(from, to);
+		TokenType operator = operator(value);
+		if (operator != null) {
+			tokens.add(new Token(operator, value));
+		} else {
+			addQuoted(lowerCase(value));
+		}
+		for (int i=to; i<word.length(); ++i) {
+			tokens.add(new Token(TokenType.RPAREN, ")"));
+		}
+	}
+	
+	/**
+	 * Add a lowercased word of a query, split at the quotes of phrases, a quote opens or closes a phrase
+	 */
+	private void addQuoted(String value) {
+		if (value.indexOf('"') < 0) {
+			addFuzzy(value);
+			return;
+		}
+		int from = 0;
+		for (int quote = value.indexOf('"'); quote >= 0; quote = value.indexOf('"', from)) {
+			addWord(value.substring(from, quote));
+			tokens.add(new Token(TokenType.QUOTE, "\""));
+			inPhrase = !inPhrase;
+			from = quote + 1;
+			int digits = slopEnd(value, from);
+			if (digits > from) {
+				tokens.add(new Token(TokenType.SLOP, value.substring(from, digits)));
+				from = digits;
+			}
+		}
+		addFuzzy(value.substring(from));
+	}
+	
+	/**
+	 * Get the end of a slop like ~2 that starts at an index, the index if there is none
+	 */
+	private static int slopEnd(String value, int from) {
+		int digits = from + 1;
+		while (digits < value.length() && Character.isDigit(value.charAt(digits))) {
+			++digits;
+		}
+		return value.startsWith("~", from) && digits > from + 1 ? digits : from;
+	}
+	
+	/**
+	 * Add a part of a query token, with a SLOP token for the edit distance of a fuzzy term like brwn~1
+	 */
+	private void addFuzzy(String word) {
+		int tilde = word.lastIndexOf('~');
+		int digits = tilde + 1;
+		while (digits < word.length() && Character.isDigit(word.charAt(digits))) {
+			++digits;
+		}
+		if (tilde > 0 && digits > tilde + 1 && digits == word.length()) {
+			addWord(word.substring(0, tilde));
+			tokens.add(new Token(TokenType.SLOP, word.substring(tilde)));
+		} else {
+			addWord(word);
+		}
+	}
+	
+	/**
+	 * Add a part of a query token as a WORD or FILENAME token, if it isn't empty
+	 */
+	private void addWord(String word) {
+		if (word.isEmpty()) {
+			return;
+		}
+		int state = START;
+		for (int i=0; i<word.length(); ++i) {
+			char c = word.charAt(i);
+			state = TRANSITIONS[state][c < 128 ? CHAR_CLASSES[c] : OTHER_CHAR];
+		}
+		tokens.add(new Token(tokenType(state), word));
+	}
+	
+	/**
+	 * Scan a sequence of characters and pass each token to the handler.
+	 * The sequence can be a chunk of a larger document: the last token is kept
+	 * until the next call, or until {@link #finish(TokenHandler)} is called.
+	 * Tokens are separated by white space and lowercased.
+	 * @param sequence the characters to scan
+	 * @param handler receives the tokens, with a reused {@link TermBuffer}
+	 */
+	public void scan(CharSequence sequence, TokenHandler handler) {
+		int length = sequence.length();
+		for (int i=0; i<length; ++i) {
+			char c = sequence.charAt(i);
+			if (Character.isWhitespace(c)) {
+				finish(handler);
+			} else {
+				c = Character.toLowerCase(c);
+				term.append(c);
+				state = TRANSITIONS[state][c < 128 ? CHAR_CLASSES[c] : OTHER_CHAR];
+			}
+		}
+	}
+	
+	/**
+	 * Pass the last token of the scanned characters to the handler, if there is one
+	 * @param handler receives the token
+	 */
+	public void finish(TokenHandler handler) {
+		if (term.length() > 0) {
+			handler.token(tokenType(state), term);
+		}
+		reset();
+	}
+	
+	/**
+	 * Drop the token that is being scanned
+	 */
+	public void reset() {
+		term.clear();
+		state = START;
+	}
+	
+	private static TokenType tokenType(int state) {
+		switch (state) {
+		case FILENAME:
+			return TokenType.FILENAME;
+		case PERIOD:
+			return TokenType.PERIOD;
+		default:
+			return TokenType.WORD;
+		}
+	}
+	
 	/**
 	 * Add the first token in a command to the list of tokens. 
 	 * Legal sub-sequences are "add", "exit" or "get", other inputs generate IllegalArgumentException
@@ -98,23 +354,4 @@ public class Lexer {
 		tokens.add(token);
 	}
 	
-	/**
-	 * Create a text-token from the sub sequence (FILENAME, WORD or PUNCTUATION)
-	 * @param subSequence
-	 */
-	private void addToken(String subSequence) {
-		// Use regex to select a token
-		Token token;
-		if (subSequence.matches(regexMap.get(TokenType.FILENAME))) {
-			token = new Token(TokenType.FILENAME, subSequence);
-		}
-		else if (subSequence.matches(regexMap.get(TokenType.PERIOD))) {
-			token = new Token(TokenType.PERIOD, subSequence);
-		} 
-		else {
-			token = new Token(TokenType.WORD, subSequence);
-		}
-		tokens.add(token);
-	}
-	
 }
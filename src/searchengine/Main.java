@@ -3,7 +3,11 @@
  */
 package searchengine;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
@@ -17,8 +21,8 @@ public class Main {
 
 	private static final String MSG_COMMANDS = "Type EXIT to terminate,\n"
 			+ "ADD <filename.txt> <file content> to add a document,\n"
-			+ "GET <query> to search for a word,\n"
-			+ "SELECT <filename.txt> <filename.txt> ... to select a subset of the files.";
+			+ "GET <query> to search for one or more words,\n"
+			+ "SELECT <filename.txt> <filename.txt> ... to select a subset of the files, SELECT to select all.";
 	private static final String MSG_WELCOME = "\nWelcome to Simple Search Engine!\n" + MSG_COMMANDS;
 	
 	/**
@@ -26,7 +30,7 @@ public class Main {
 	 * @param engine the search engine
 	 * @param input the line of input from the user
 	 */
-	private static void addDocument(SearchEngine engine, String input) {
+	private static void addDocument(SearchService engine, String input) {
 		String[] inputList = input.split(" ", 3);
 		if (inputList.length < 3 || !inputList[1].endsWith(".txt")) {
 			System.out.println("Failed to add the file. Please use the command format: "
@@ -39,10 +43,31 @@ public class Main {
 			} catch (FileAlreadyExistsException e) {
 				String message = e.getMessage();
 				System.out.println(String.format("%s Please use another file name.", message));
+			} catch (UncheckedIOException e) {
+				System.err.println(e.getMessage());
 			}
 		}
 	}
 	
+	/**
+	 * Create the search engine. Connect to shard servers with -Dsearchengine.shardAddresses=host:port,...,
+	 * load the data base in local shards with -Dsearchengine.shards=n, otherwise load it in one index.
+	 * @return the search engine, or null if a shard server can't be reached
+	 */
+	private static SearchService createEngine() {
+		String addresses = System.getProperty("searchengine.shardAddresses");
+		if (addresses != null) {
+			try {
+				return ShardedSearchEngine.remote(addresses);
+			} catch (IOException e) {
+				System.err.println("Failed to connect to the shards " + addresses + ". " + e.getMessage());
+				return null;
+			}
+		}
+		int shards = Integer.getInteger("searchengine.shards", 1);
+		return shards > 1 ? ShardedSearchEngine.local(shards) : new SearchEngine();
+	}
+	
 	/**
 	 * Makes a lexer read the input to a list of tokens
 	 * @param lexer converts a string to a list of tokens
@@ -60,9 +85,133 @@ public class Main {
 		return tokens;
 	}
 
+	/**
+	 * Run the search engine as an HTTP server, see {@link SearchServer}.
+	 * Set the port, the maximum number of concurrent requests and the request timeout (ms) with
+	 * -Dsearchengine.port, -Dsearchengine.maxConcurrentRequests and -Dsearchengine.requestTimeout.
+	 * Type EXIT to stop the server, it keeps running if the input is closed.
+	 */
+	private static void serve() {
+		int port = Integer.getInteger("searchengine.port", SearchServer.DEFAULT_PORT);
+		int maxConcurrent = Integer.getInteger("searchengine.maxConcurrentRequests", 
+				SearchServer.DEFAULT_MAX_CONCURRENT);
+		long timeout = Long.getLong("searchengine.requestTimeout", SearchServer.DEFAULT_TIMEOUT_MILLIS);
+		SearchService engine = createEngine();
+		if (engine == null) {
+			return;
+		}
+		SearchServer server;
+		try {
+			server = new SearchServer(engine, port, maxConcurrent, timeout);
+		} catch (IOException e) {
+			System.err.println("Failed to start the server on port " + port + ". " + e.getMessage());
+			return;
+		}
+		server.start();
+		System.out.println("Listening on http://localhost:" + server.getPort() + "/, type EXIT to stop the server.");
+		Scanner scanner = new Scanner(System.in);
+		while (scanner.hasNextLine()) {
+			if (scanner.nextLine().trim().equalsIgnoreCase("exit")) {
+				server.stop(1);
+				close(engine);
+				System.out.println("Stopped the server.");
+				break;
+			}
+		}
+		scanner.close();
+	}
+	
+	/**
+	 * Run a file of queries and write the results to another file, see {@link BatchRunner}.
+	 * Set the number of workers with -Dsearchengine.batchThreads.
+	 * @param queries the file with one query per line
+	 * @param results the file to write the results to
+	 */
+	private static void runBatch(String queries, String results) {
+		int threads = Integer.getInteger("searchengine.batchThreads", Runtime.getRuntime().availableProcessors());
+		SearchService engine = createEngine();
+		if (engine == null) {
+			return;
+		}
+		BatchRunner runner = new BatchRunner(engine, threads, SearchEngine.DEFAULT_LIMIT);
+		try {
+			BatchRunner.Summary summary = runner.run(Paths.get(queries), Paths.get(results));
+			System.out.println(summary);
+			if (Metrics.ENABLED) {
+				System.out.print(Metrics.snapshot());
+			}
+		} catch (IOException e) {
+			System.err.println("Failed to run the queries in " + queries + ". " + e.getMessage());
+		}
+		close(engine);
+	}
+
+	/**
+	 * Run one shard of the data base as a {@link ShardServer}, for a search engine started
+	 * with -Dsearchengine.shardAddresses. Type EXIT to stop the server.
+	 * @param shard the shard, from 0 to shards-1
+	 * @param shards the number of shards
+	 * @param port the port to listen to
+	 */
+	private static void serveShard(int shard, int shards, int port) {
+		SearchEngine engine = new SearchEngine(shard, shards);
+		ShardServer server;
+		try {
+			server = new ShardServer(engine, port);
+		} catch (IOException e) {
+			System.err.println("Failed to start the shard server on port " + port + ". " + e.getMessage());
+			close(engine);
+			return;
+		}
+		server.start();
+		System.out.println(String.format("Shard %d of %d listening on port %d, type EXIT to stop the server.", 
+				shard, shards, server.getPort()));
+		Scanner scanner = new Scanner(System.in);
+		while (scanner.hasNextLine()) {
+			if (scanner.nextLine().trim().equalsIgnoreCase("exit")) {
+				server.stop();
+				close(engine);
+				System.out.println("Stopped the shard server.");
+				break;
+			}
+		}
+		scanner.close();
+	}
+	
+	/**
+	 * Start the search engine, reads commands from the input.
+	 * Start it with the argument server to run it as an HTTP server instead, 
+	 * with batch &lt;queries&gt; &lt;results&gt; to run a file of queries,
+	 * or with shard &lt;shard&gt; &lt;shards&gt; &lt;port&gt; to run a shard server.
+	 */
 	public static void main(String[] args) {
+		// print the metrics every n seconds, set with -Dsearchengine.metricsInterval=<n>
+		Metrics.startDump(Long.getLong("searchengine.metricsInterval", 0));
+		if (args.length > 0 && args[0].equalsIgnoreCase("server")) {
+			serve();
+			return;
+		}
+		if (args.length > 0 && args[0].equalsIgnoreCase("batch")) {
+			if (args.length != 3) {
+				System.err.println("Usage: batch <queries.txt> <results.txt>");
+			} else {
+				runBatch(args[1], args[2]);
+			}
+			return;
+		}
+		if (args.length > 0 && args[0].equalsIgnoreCase("shard")) {
+			try {
+				serveShard(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			} catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+				System.err.println("Usage: shard <shard> <shards> <port>");
+			}
+			return;
+		}
 		TokenType action = null;
-		SearchEngine searchEngine = new SearchEngine();
+		SearchService searchEngine = createEngine();
+		if (searchEngine == null) {
+			return;
+		}
 		Lexer lexer = new Lexer();
 		Scanner scanner = new Scanner(System.in);
 		
@@ -73,7 +222,9 @@ public class Main {
 			
 			// Tokenize the input
 			List<Token> tokens = readInput(lexer, input);
-			System.out.println("query tokens = " + tokens.toString());
+			if (Debug.TRACE) {
+				Debug.log("query tokens = %s", tokens);
+			}
 			
 			// Choose action
 			if (tokens.isEmpty()) {
@@ -83,45 +234,72 @@ public class Main {
 			}
 			
 			if (TokenType.ADD.equals(action)) {
-				System.out.println("-> Add a doc");
+				if (Debug.TRACE) {
+					Debug.log("-> Add a doc");
+				}
 				if (input.length() > 0) {
 					addDocument(searchEngine, input);
 				}
 			}
 			else if (TokenType.GET.equals(action)) {
-				System.out.println("-> Search");
+				if (Debug.TRACE) {
+					Debug.log("-> Search");
+				}
 				if (tokens.size() > 1) {
 					try {
 						Query query = new Query(QueryType.GET, tokens.subList(1, tokens.size()));
-						System.out.println("Query = " + query.toString());
+						if (Debug.TRACE) {
+							Debug.log("Query = %s", query);
+						}
 						DocumentList results = searchEngine.search(query);
 						if (results!=null)
 							printResults(results);
 					} catch (SyntaxException e) {
 						System.out.println(e.getMessage());
 						System.out.println(MSG_COMMANDS);
+					} catch (UncheckedIOException e) {
+						System.err.println(e.getMessage());
 					}
 				}
 			}
 			else if (TokenType.SELECT.equals(action)) {
-				System.out.println("-> Select");
-				if (tokens.size() > 1) {
-					try {
-						Query query = new Query(QueryType.SELECT, tokens.subList(1, tokens.size()));
-						System.out.println("Query = " + query.toString());
-						searchEngine.reloadIndex(query);
-					} catch (SyntaxException e) {
-						System.out.println(e.getMessage());
-						System.out.println(MSG_COMMANDS);
+				if (Debug.TRACE) {
+					Debug.log("-> Select");
+				}
+				// SELECT without files selects all files again
+				try {
+					Query query = new Query(QueryType.SELECT, tokens.subList(1, tokens.size()));
+					if (Debug.TRACE) {
+						Debug.log("Query = %s", query);
 					}
+					searchEngine.select(query);
+				} catch (SyntaxException e) {
+					System.out.println(e.getMessage());
+					System.out.println(MSG_COMMANDS);
+				} catch (UncheckedIOException e) {
+					System.err.println(e.getMessage());
 				}
 			}
 		}
 		
 		scanner.close();
+		close(searchEngine);
 		System.out.println("Closed the Search Engine.");
 	}
 	
+	/**
+	 * Close a search engine that has resources, e.g. its shards or the log of added documents
+	 */
+	private static void close(SearchService engine) {
+		if (engine instanceof Closeable) {
+			try {
+				((Closeable) engine).close();
+			} catch (IOException e) {
+				System.err.println("Failed to close " + engine + ". " + e.getMessage());
+			}
+		}
+	}
+	
 	public static void printResults(DocumentList results) {
 		System.out.println("Search results:");
 		System.out.println(results.toString());
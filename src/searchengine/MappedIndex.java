@@ -0,0 +1,304 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An index that is served from a memory mapped {@link IndexFile}.
+ * The term dictionary is searched and the postings are read directly in the mapping,
+ * only the document names and norms are loaded to the heap. The index can't be changed.
+ * 
+ * Reads use absolute positions in the buffer, so the index can be searched by several threads.
+ *
+ */
+public class MappedIndex implements IndexReader {
+	
+	private final ByteBuffer buffer;
+	private final int termCount;
+	private final int docTableOffset;
+	private final int termIndexOffset;
+	private final long totalLength;
+	private final DocumentDictionary documents = new DocumentDictionary();
+	
+	MappedIndex(ByteBuffer buffer) {
+		this.buffer = buffer;
+		int docCount = buffer.getInt(2 * Integer.BYTES);
+		this.termCount = buffer.getInt(3 * Integer.BYTES);
+		this.docTableOffset = buffer.getInt(4 * Integer.BYTES);
+		this.termIndexOffset = buffer.getInt(5 * Integer.BYTES);
+		int normsOffset = buffer.getInt(6 * Integer.BYTES);
+		this.totalLength = buffer.getLong(7 * Integer.BYTES);
+		for (int doc=0; doc<docCount; ++doc) {
+			int record = docTableOffset + doc * IndexFile.DOCUMENT_SIZE;
+			int nameOffset = buffer.getInt(record + 2 * Long.BYTES);
+			int nameLength = buffer.getInt(record + 2 * Long.BYTES + Integer.BYTES);
+			documents.add(new String(bytes(nameOffset, nameLength), StandardCharsets.UTF_8));
+			documents.setNorm(doc, buffer.get(normsOffset + doc));
+		}
+	}
+	
+	@Override
+	public int numberOfDocuments() {
+		return documents.size();
+	}
+	
+	@Override
+	public long totalLength() {
+		return totalLength;
+	}
+	
+	@Override
+	public DocumentDictionary getDocuments() {
+		return documents;
+	}
+	
+	/**
+	 * Get the length of a document file when it was indexed
+	 */
+	public long getDocLength(int doc) {
+		return buffer.getLong(docTableOffset + doc * IndexFile.DOCUMENT_SIZE);
+	}
+	
+	/**
+	 * Get the last modified time of a document file when it was indexed
+	 */
+	public long getDocLastModified(int doc) {
+		return buffer.getLong(docTableOffset + doc * IndexFile.DOCUMENT_SIZE + Long.BYTES);
+	}
+	
+	/**
+	 * Binary search for the term in the sorted term dictionary of the file
+	 */
+	@Override
+	public Postings getPostings(String term) {
+		byte[] key = term.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = termCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int entry = buffer.getInt(termIndexOffset + mid * Integer.BYTES);
+			int cmp = compare(entry, key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				int length = buffer.getInt(entry);
+				int stats = entry + Integer.BYTES + length;
+				return new MappedPostings(term, buffer.getInt(stats), 
+						buffer.getInt(stats + Integer.BYTES), buffer.getInt(stats + 2 * Integer.BYTES));
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Iterate over the terms that start with a prefix, from a binary search in the sorted term dictionary
+	 */
+	@Override
+	public Iterator<String> terms(String prefix, String from) {
+		byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+		byte[] start = from.getBytes(StandardCharsets.UTF_8);
+		if (Arrays.compareUnsigned(start, key) < 0) {
+			start = key;
+		}
+		int low = 0;
+		int high = termCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(buffer.getInt(termIndexOffset + mid * Integer.BYTES), start) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		int first = low;
+		return new Iterator<String>() {
+			
+			private int next = first;
+			
+			@Override
+			public boolean hasNext() {
+				if (next == termCount) {
+					return false;
+				}
+				int entry = buffer.getInt(termIndexOffset + next * Integer.BYTES);
+				if (buffer.getInt(entry) < key.length) {
+					return false;
+				}
+				for (int i=0; i<key.length; ++i) {
+					if (buffer.get(entry + Integer.BYTES + i) != key[i]) {
+						return false;
+					}
+				}
+				return true;
+			}
+			
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				int entry = buffer.getInt(termIndexOffset + next++ * Integer.BYTES);
+				return new String(bytes(entry + Integer.BYTES, buffer.getInt(entry)), StandardCharsets.UTF_8);
+			}
+		
+		};
+	}
+	
+	/**
+	 * Compare the term of an entry with a key, as unsigned bytes
+	 */
+	private int compare(int entry, byte[] key) {
+		int length = buffer.getInt(entry);
+		int n = Math.min(length, key.length);
+		for (int i=0; i<n; ++i) {
+			int cmp = Integer.compare(buffer.get(entry + Integer.BYTES + i) & 0xff, key[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return Integer.compare(length, key.length);
+	}
+	
+	private byte[] bytes(int offset, int length) {
+		byte[] bytes = new byte[length];
+		for (int i=0; i<length; ++i) {
+			bytes[i] = buffer.get(offset + i);
+		}
+		return bytes;
+	}
+	
+	@Override
+	public String toString() {
+		return "MappedIndex{documents=" + numberOfDocuments() + ", terms=" + termCount + "}";
+	}
+	
+	/**
+	 * Postings of a term in the mapping
+	 */
+	private class MappedPostings implements Postings {
+		
+		private final String term;
+		private final int size;
+		private final int maxFreq;
+		// the skip data, followed by the blocks and the positions
+		private final int offset;
+		
+		private MappedPostings(String term, int size, int maxFreq, int offset) {
+			this.term = term;
+			this.size = size;
+			this.maxFreq = maxFreq;
+			this.offset = offset;
+		}
+		
+		@Override
+		public String getTerm() {
+			return term;
+		}
+		
+		@Override
+		public int size() {
+			return size;
+		}
+		
+		@Override
+		public int getMaxFreq() {
+			return maxFreq;
+		}
+		
+		@Override
+		public double getIdf(int numberOfDocuments) {
+			return Math.log10((double) numberOfDocuments / Math.max(size, 1));
+		}
+		
+		@Override
+		public PostingsIterator iterator() {
+			return new MappedIterator(offset, size);
+		}
+	
+	}
+	
+	/**
+	 * Reads the blocks of postings from the mapping
+	 */
+	private class MappedIterator extends BlockPostingsIterator {
+		
+		private final int size;
+		private final int blockCount;
+		private final int skipOffset;
+		private final int blocksOffset;
+		private final int positionsOffset;
+		
+		private MappedIterator(int offset, int size) {
+			this(offset, size, buffer.getInt(offset));
+		}
+		
+		private MappedIterator(int offset, int size, int blockCount) {
+			super(blockCount, size);
+			this.size = size;
+			this.blockCount = blockCount;
+			this.skipOffset = offset + 2 * Integer.BYTES;
+			this.blocksOffset = skipOffset + 3 * Integer.BYTES * blockCount;
+			this.positionsOffset = blocksOffset + buffer.getInt(offset + Integer.BYTES);
+		}
+		
+		@Override
+		protected int lastDoc(int block) {
+			return buffer.getInt(skipOffset + 3 * Integer.BYTES * block);
+		}
+		
+		@Override
+		protected int decode(int block, int[] docs, int[] freqs) {
+			int count = block < blockCount - 1 ? BLOCK_SIZE : size - BLOCK_SIZE * block;
+			int offset = blocksOffset + buffer.getInt(skipOffset + 3 * Integer.BYTES * block + Integer.BYTES);
+			int doc = block == 0 ? 0 : lastDoc(block - 1);
+			for (int i=0; i<count; ++i) {
+				int gap = buffer.get(offset++);
+				if (gap < 0) {
+					gap = VarInt.read(buffer, offset - 1);
+					offset += VarInt.length(gap) - 1;
+				}
+				doc += gap;
+				docs[i] = doc;
+			}
+			for (int i=0; i<count; ++i) {
+				int freq = buffer.get(offset++);
+				if (freq < 0) {
+					freq = VarInt.read(buffer, offset - 1);
+					offset += VarInt.length(freq) - 1;
+				}
+				freqs[i] = freq;
+			}
+			return count;
+		}
+		
+		@Override
+		protected int positionsStart(int block) {
+			return positionsOffset + buffer.getInt(skipOffset + 3 * Integer.BYTES * block + 2 * Integer.BYTES);
+		}
+		
+		@Override
+		protected int readPosition(int offset) {
+			return VarInt.read(buffer, offset);
+		}
+		
+		@Override
+		protected int skipPositions(int offset, int count) {
+			while (count > 0) {
+				if (buffer.get(offset++) >= 0) {
+					--count;
+				}
+			}
+			return offset;
+		}
+	
+	}
+
+}
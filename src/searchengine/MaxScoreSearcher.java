@@ -0,0 +1,465 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ranked retrieval of free-text queries.
+ * The score of a document is the sum of the scores of the query terms it contains, tf-idf or BM25,
+ * see {@link Similarity}, and only the top k documents are kept, see {@link TopDocs}.
+ * A phrase scores like a term, its tf is the number of matches and its idf the sum of the idf of its terms.
+ *
+ * Uses MaxScore dynamic pruning: every term has an upper bound for its score (the score of max tf).
+ * Once k documents have been collected, the terms whose summed upper bounds can't beat
+ * the k-th best score are non-essential. Only the essential terms drive the iteration,
+ * the postings of the non-essential terms are skipped with advance() and only looked up
+ * for the candidates, which are dropped as soon as they can't reach the top k.
+ *
+ * A wildcard is expanded to the terms of the index that match it, at most {@link #MAX_EXPANSIONS}
+ * in the order of the term dictionary, and each of them scores like a query term. A fuzzy term is
+ * expanded to the closest terms within its edit distance, and each of them scores like a query
+ * term times the boost of its distance, see {@link FuzzyTerm#boost(String, int)}.
+ *
+ * A Boolean query is matched by a tree of {@link ConjunctionIterator}s and {@link DisjunctionIterator}s,
+ * and every document that matches is scored by the terms and phrases it matched.
+ *
+ */
+public class MaxScoreSearcher {
+	
+	private static final Histogram POSTINGS = Metrics.histogram("search.postings");
+	private static final Histogram SCORE = Metrics.histogram("search.score");
+	private static final Histogram SORT = Metrics.histogram("search.sort");
+	private static final LongAdder QUERIES = Metrics.counter("search.queries");
+	private static final LongAdder CANDIDATES = Metrics.counter("search.candidates");
+	
+	/**
+	 * The maximum number of terms a wildcard or a fuzzy term expands to
+	 */
+	static final int MAX_EXPANSIONS = Integer.getInteger("searchengine.maxExpansions", 128);
+	
+	private final IndexReader index;
+	private final Similarity similarity;
+	
+	/**
+	 * Create a searcher that scores with tf-idf
+	 */
+	public MaxScoreSearcher(IndexReader index) {
+		this(index, new TfidfSimilarity());
+	}
+	
+	public MaxScoreSearcher(IndexReader index, Similarity similarity) {
+		this.index = index;
+		this.similarity = similarity;
+	}
+	
+	/**
+	 * Search for the documents with the highest scores for the terms
+	 * @param terms the query terms
+	 * @param offset the number of top documents to skip, for paging
+	 * @param limit the maximum number of documents to return
+	 * @return the documents ranked offset+1 to offset+limit, sorted by descending score
+	 */
+	public TfidfDocumentList search(List<String> terms, int offset, int limit) {
+		return search(terms, Collections.<Phrase>emptyList(), offset, limit);
+	}
+	
+	/**
+	 * Search for the documents with the highest scores for the terms and phrases
+	 * @param terms the query terms
+	 * @param phrases the phrases of the query, see {@link PhraseIterator}
+	 * @param offset the number of top documents to skip, for paging
+	 * @param limit the maximum number of documents to return
+	 * @return the documents ranked offset+1 to offset+limit, sorted by descending score
+	 */
+	public TfidfDocumentList search(List<String> terms, List<Phrase> phrases, int offset, int limit) {
+		return search(terms, phrases, Collections.<Wildcard>emptyList(), offset, limit);
+	}
+	
+	/**
+	 * Search for the documents with the highest scores for the terms, phrases and wildcards
+	 * @param terms the query terms
+	 * @param phrases the phrases of the query, see {@link PhraseIterator}
+	 * @param wildcards the terms with wildcards, see {@link IndexReader#expand(Wildcard, int)}
+	 * @param offset the number of top documents to skip, for paging
+	 * @param limit the maximum number of documents to return
+	 * @return the documents ranked offset+1 to offset+limit, sorted by descending score
+	 */
+	public TfidfDocumentList search(List<String> terms, List<Phrase> phrases, List<Wildcard> wildcards, int offset, int limit) {
+		return search(terms, phrases, wildcards, Collections.<FuzzyTerm>emptyList(), offset, limit);
+	}
+	
+	/**
+	 * Search for the documents with the highest scores for the terms, phrases, wildcards and fuzzy terms
+	 * @param terms the query terms
+	 * @param phrases the phrases of the query, see {@link PhraseIterator}
+	 * @param wildcards the terms with wildcards, see {@link IndexReader#expand(Wildcard, int)}
+	 * @param fuzzyTerms the terms that also match terms within an edit distance, see {@link FuzzyTerm}
+	 * @param offset the number of top documents to skip, for paging
+	 * @param limit the maximum number of documents to return
+	 * @return the documents ranked offset+1 to offset+limit, sorted by descending score
+	 */
+	public TfidfDocumentList search(List<String> terms, List<Phrase> phrases, List<Wildcard> wildcards, 
+			List<FuzzyTerm> fuzzyTerms, int offset, int limit) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException(String.format(
+					"Offset and limit must not be negative: offset=%d, limit=%d", offset, limit));
+		}
+		int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+		long start = Metrics.now();
+		// Terms without postings can't contribute to any score
+		List<TermScorer> scorers = new ArrayList<TermScorer>();
+		for (String term : terms) {
+			TermScorer scorer = termScorer(term, 1);
+			if (scorer != null) {
+				scorers.add(scorer);
+			}
+		}
+		for (Wildcard wildcard : wildcards) {
+			for (String term : index.expand(wildcard, MAX_EXPANSIONS)) {
+				TermScorer scorer = termScorer(term, 1);
+				if (scorer != null) {
+					scorers.add(scorer);
+				}
+			}
+		}
+		for (FuzzyTerm fuzzyTerm : fuzzyTerms) {
+			for (Map.Entry<String, Integer> match : fuzzyTerm.expand(index, MAX_EXPANSIONS).entrySet()) {
+				TermScorer scorer = termScorer(match.getKey(), fuzzyTerm.boost(match.getKey(), match.getValue()));
+				if (scorer != null) {
+					scorers.add(scorer);
+				}
+			}
+		}
+		for (Phrase phrase : phrases) {
+			TermScorer scorer = phraseScorer(phrase);
+			if (scorer != null) {
+				scorers.add(scorer);
+			}
+		}
+		// Never allocate more than the number of documents that can match
+		long matches = 0;
+		for (TermScorer scorer : scorers) {
+			matches += scorer.postings.cost();
+		}
+		POSTINGS.recordSince(start);
+		start = Metrics.now();
+		TopDocs topDocs = new TopDocs((int) Math.min(k, matches));
+		if (k > 0 && !scorers.isEmpty()) {
+			int candidates = collect(scorers.toArray(new TermScorer[scorers.size()]), topDocs);
+			if (Metrics.ENABLED) {
+				CANDIDATES.add(candidates);
+			}
+		}
+		SCORE.recordSince(start);
+		start = Metrics.now();
+		StringBuilder query = new StringBuilder(String.join(" ", terms));
+		for (Phrase phrase : phrases) {
+			query.append(query.length() > 0 ? " " : "").append(phrase);
+		}
+		for (Wildcard wildcard : wildcards) {
+			query.append(query.length() > 0 ? " " : "").append(wildcard);
+		}
+		for (FuzzyTerm fuzzyTerm : fuzzyTerms) {
+			query.append(query.length() > 0 ? " " : "").append(fuzzyTerm);
+		}
+		TfidfDocumentList documents = topDocs.toDocumentList(query.toString(), index.getDocuments(), offset);
+		SORT.recordSince(start);
+		QUERIES.increment();
+		return documents;
+	}
+	
+	/**
+	 * Search for the documents that match a Boolean query, ranked by the scores of the terms
+	 * and phrases of the clauses they match. Negated clauses only exclude documents.
+	 * @param query the expression of the query
+	 * @param offset the number of top documents to skip, for paging
+	 * @param limit the maximum number of documents to return
+	 * @return the documents ranked offset+1 to offset+limit, sorted by descending score
+	 */
+	public TfidfDocumentList search(BooleanQuery query, int offset, int limit) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException(String.format(
+					"Offset and limit must not be negative: offset=%d, limit=%d", offset, limit));
+		}
+		int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+		long start = Metrics.now();
+		BooleanScorer scorer = booleanScorer(query);
+		POSTINGS.recordSince(start);
+		start = Metrics.now();
+		TopDocs topDocs = new TopDocs(scorer == null ? 0 : Math.min(k, scorer.postings.cost()));
+		if (k > 0 && scorer != null) {
+			int candidates = 0;
+			for (int doc = scorer.postings.nextDoc(); doc != PostingsIterator.NO_MORE_DOCS; doc = scorer.postings.nextDoc()) {
+				topDocs.insert(doc, scorer.score(doc));
+				++candidates;
+			}
+			if (Metrics.ENABLED) {
+				CANDIDATES.add(candidates);
+			}
+		}
+		SCORE.recordSince(start);
+		start = Metrics.now();
+		TfidfDocumentList documents = topDocs.toDocumentList(query.toString(), index.getDocuments(), offset);
+		SORT.recordSince(start);
+		QUERIES.increment();
+		return documents;
+	}
+	
+	/**
+	 * Get the scorer of a clause of a Boolean query, null if no document matches it
+	 */
+	private BooleanScorer booleanScorer(BooleanQuery query) {
+		switch (query.getOperator()) {
+		case TERM:
+			TermScorer term = termScorer(query.getTerm(), 1);
+			return term == null ? null : new BooleanScorer(term, new BooleanScorer[0]);
+		case PHRASE:
+			TermScorer phrase = phraseScorer(query.getPhrase());
+			return phrase == null ? null : new BooleanScorer(phrase, new BooleanScorer[0]);
+		case WILDCARD:
+			List<BooleanScorer> expansions = new ArrayList<BooleanScorer>();
+			for (String expansion : index.expand(query.getWildcard(), MAX_EXPANSIONS)) {
+				BooleanScorer scorer = booleanScorer(BooleanQuery.term(expansion));
+				if (scorer != null) {
+					expansions.add(scorer);
+				}
+			}
+			return disjunction(expansions);
+		case FUZZY:
+			FuzzyTerm fuzzyTerm = query.getFuzzyTerm();
+			List<BooleanScorer> matches = new ArrayList<BooleanScorer>();
+			for (Map.Entry<String, Integer> match : fuzzyTerm.expand(index, MAX_EXPANSIONS).entrySet()) {
+				TermScorer scorer = termScorer(match.getKey(), fuzzyTerm.boost(match.getKey(), match.getValue()));
+				if (scorer != null) {
+					matches.add(new BooleanScorer(scorer, new BooleanScorer[0]));
+				}
+			}
+			return disjunction(matches);
+		case AND:
+			List<BooleanScorer> required = new ArrayList<BooleanScorer>();
+			List<PostingsIterator> excluded = new ArrayList<PostingsIterator>();
+			for (BooleanQuery clause : query.getClauses()) {
+				if (clause.getOperator() == BooleanQuery.Operator.NOT) {
+					// a clause that matches no document excludes none
+					BooleanScorer negated = booleanScorer(clause.getClauses().get(0));
+					if (negated != null) {
+						excluded.add(negated.postings);
+					}
+				} else {
+					BooleanScorer scorer = booleanScorer(clause);
+					if (scorer == null) {
+						return null;
+					}
+					required.add(scorer);
+				}
+			}
+			BooleanScorer[] clauses = required.toArray(new BooleanScorer[required.size()]);
+			if (clauses.length == 1 && excluded.isEmpty()) {
+				return clauses[0];
+			}
+			PostingsIterator[] iterators = new PostingsIterator[clauses.length];
+			for (int i=0; i<clauses.length; ++i) {
+				iterators[i] = clauses[i].postings;
+			}
+			return new BooleanScorer(new ConjunctionIterator(iterators, 
+					excluded.toArray(new PostingsIterator[excluded.size()])), clauses);
+		case OR:
+			List<BooleanScorer> optional = new ArrayList<BooleanScorer>();
+			for (BooleanQuery clause : query.getClauses()) {
+				BooleanScorer scorer = booleanScorer(clause);
+				if (scorer != null) {
+					optional.add(scorer);
+				}
+			}
+			return disjunction(optional);
+		default:
+			throw new IllegalArgumentException("A NOT has to be in an AND: " + query);
+		}
+	}
+	
+	/**
+	 * Get the scorer of an OR of clauses that match documents, null if there are none
+	 */
+	private static BooleanScorer disjunction(List<BooleanScorer> optional) {
+		if (optional.size() <= 1) {
+			return optional.isEmpty() ? null : optional.get(0);
+		}
+		BooleanScorer[] alternatives = optional.toArray(new BooleanScorer[optional.size()]);
+		PostingsIterator[] disjunction = new PostingsIterator[alternatives.length];
+		for (int i=0; i<alternatives.length; ++i) {
+			disjunction[i] = alternatives[i].postings;
+		}
+		return new BooleanScorer(new DisjunctionIterator(disjunction), alternatives);
+	}
+	
+	/**
+	 * Get the scorer of a term, null if it is in no document
+	 * @param boost the factor of the idf, less than 1 for the terms a fuzzy term matches
+	 */
+	private TermScorer termScorer(String term, double boost) {
+		Postings postings = index.getPostings(term);
+		if (postings == null || postings.size() == 0) {
+			return null;
+		}
+		double idf = boost * similarity.idf(index.docFreq(postings), index.numberOfDocuments());
+		return new TermScorer(postings.iterator(), similarity.scorer(idf, index), postings.getMaxFreq());
+	}
+	
+	/**
+	 * Get the scorer of a phrase, null if one of its terms is in no document
+	 */
+	private TermScorer phraseScorer(Phrase phrase) {
+		List<String> terms = phrase.getTerms();
+		PostingsIterator[] iterators = new PostingsIterator[terms.size()];
+		double idf = 0;
+		int maxFreq = Integer.MAX_VALUE;
+		for (int i=0; i<iterators.length; ++i) {
+			Postings postings = index.getPostings(terms.get(i));
+			if (postings == null || postings.size() == 0) {
+				return null;
+			}
+			iterators[i] = postings.iterator();
+			idf += similarity.idf(index.docFreq(postings), index.numberOfDocuments());
+			// an exact phrase can't match more often than any of its terms, 
+			// a sloppy one can match more often than its later terms, but not than its first term
+			if (i == 0 || phrase.getSlop() == 0) {
+				maxFreq = Math.min(maxFreq, postings.getMaxFreq());
+			}
+		}
+		PostingsIterator postings = iterators.length == 1 ? iterators[0] : new PhraseIterator(iterators, phrase.getSlop());
+		return new TermScorer(postings, similarity.scorer(idf, index), maxFreq);
+	}
+	
+	/**
+	 * Score the documents that can make it to the top k
+	 * @return the number of candidates that were scored
+	 */
+	private static int collect(TermScorer[] scorers, TopDocs topDocs) {
+		// Sort by upper bound, bounds[i] is the best score a document can get from scorers 0..i
+		Arrays.sort(scorers, (a, b) -> Double.compare(a.maxScore, b.maxScore));
+		double[] bounds = new double[scorers.length];
+		double sum = 0;
+		for (int i=0; i<scorers.length; ++i) {
+			sum += scorers[i].maxScore;
+			bounds[i] = Math.nextUp(sum);
+			scorers[i].postings.nextDoc();
+		}
+		// scorers[firstEssential..] drive the iteration
+		int firstEssential = 0;
+		double threshold = Double.NEGATIVE_INFINITY;
+		int candidates = 0;
+		
+		while (firstEssential < scorers.length) {
+			// The next candidate is the lowest document among the essential terms
+			int doc = PostingsIterator.NO_MORE_DOCS;
+			for (int i=firstEssential; i<scorers.length; ++i) {
+				doc = Math.min(doc, scorers[i].postings.docId());
+			}
+			if (doc == PostingsIterator.NO_MORE_DOCS) {
+				break;
+			}
+			++candidates;
+			double score = 0;
+			for (int i=firstEssential; i<scorers.length; ++i) {
+				TermScorer scorer = scorers[i];
+				if (scorer.postings.docId() == doc) {
+					score += scorer.score();
+					scorer.postings.nextDoc();
+				}
+			}
+			// Add the non-essential terms, highest bound first, until the document can't make it
+			for (int i=firstEssential-1; i>=0 && score + bounds[i] > threshold; --i) {
+				TermScorer scorer = scorers[i];
+				if (scorer.postings.docId() < doc) {
+					scorer.postings.advance(doc);
+				}
+				if (scorer.postings.docId() == doc) {
+					score += scorer.score();
+				}
+			}
+			if (score > threshold && topDocs.insert(doc, score)) {
+				threshold = topDocs.threshold();
+				while (firstEssential < scorers.length && bounds[firstEssential] <= threshold) {
+					++firstEssential;
+				}
+			}
+		}
+		return candidates;
+	}
+	
+	/**
+	 * The postings of a query term or phrase with the scorer of its idf
+	 */
+	private static class TermScorer {
+		
+		private final PostingsIterator postings;
+		private final Similarity.Scorer scorer;
+		private final double maxScore;
+		
+		private TermScorer(PostingsIterator postings, Similarity.Scorer scorer, int maxFreq) {
+			this.postings = postings;
+			this.scorer = scorer;
+			this.maxScore = scorer.maxScore(maxFreq);
+		}
+		
+		/**
+		 * Get the score of the current document
+		 */
+		private double score() {
+			return scorer.score(postings.docId(), postings.freq());
+		}
+	
+	}
+	
+	/**
+	 * The iterator of a clause of a Boolean query, and the scorers of its operands
+	 */
+	private static class BooleanScorer {
+		
+		private final PostingsIterator postings;
+		// the scorer of a term or phrase, null for an operator
+		private final TermScorer term;
+		// the operands that aren't negated, none for a term or phrase
+		private final BooleanScorer[] clauses;
+		
+		private BooleanScorer(TermScorer term, BooleanScorer[] clauses) {
+			this.postings = term.postings;
+			this.term = term;
+			this.clauses = clauses;
+		}
+		
+		private BooleanScorer(PostingsIterator postings, BooleanScorer[] clauses) {
+			this.postings = postings;
+			this.term = null;
+			this.clauses = clauses;
+		}
+		
+		/**
+		 * Get the score of a document, 0 if the clause isn't on it.
+		 * The operands of a conjunction are on the documents it matches, 
+		 * and the operands of a disjunction that are on its document matched.
+		 */
+		private double score(int doc) {
+			if (postings.docId() != doc) {
+				return 0;
+			}
+			if (term != null) {
+				return term.score();
+			}
+			double score = 0;
+			for (BooleanScorer clause : clauses) {
+				score += clause.score(doc);
+			}
+			return score;
+		}
+	
+	}
+
+}
@@ -0,0 +1,137 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of counters and latency histograms of the stages of the search pipeline.
+ * Both are lock-free, and are kept in static fields of the classes that update them:
+ * <pre>
+ * private static final Histogram SCORE = Metrics.histogram("search.score");
+ *
+ * long start = Metrics.now();
+ * ...
+ * SCORE.recordSince(start);
+ * </pre>
+ * Metrics are on unless the system property searchengine.metrics is off, the flag is
+ * a constant like {@link Debug}'s, so the timing costs nothing when it's off.
+ * With -Dsearchengine.metricsInterval=&lt;seconds&gt; a snapshot is printed periodically to System.err,
+ * and with -Dsearchengine.jfr=true each search is also a JFR event, see {@link QueryEvent}.
+ *
+ */
+public final class Metrics {
+	
+	public static final boolean ENABLED = !System.getProperty("searchengine.metrics", "on").equalsIgnoreCase("off");
+	
+	/**
+	 * Commit a {@link QueryEvent} for each search, for Java Flight Recorder
+	 */
+	public static final boolean JFR = Boolean.getBoolean("searchengine.jfr");
+	
+	private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<String, LongAdder>();
+	private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<String, Histogram>();
+	
+	private Metrics() {
+	}
+	
+	/**
+	 * Get the counter with the name, it is created if it doesn't exist
+	 */
+	public static LongAdder counter(String name) {
+		return COUNTERS.computeIfAbsent(name, key -> new LongAdder());
+	}
+	
+	/**
+	 * Get the histogram with the name, it is created if it doesn't exist
+	 */
+	public static Histogram histogram(String name) {
+		return HISTOGRAMS.computeIfAbsent(name, key -> new Histogram());
+	}
+	
+	/**
+	 * Get the start time of a stage for {@link Histogram#recordSince(long)}, 0 if metrics are off
+	 */
+	public static long now() {
+		return ENABLED ? System.nanoTime() : 0;
+	}
+	
+	/**
+	 * Get the current values of all counters and histograms
+	 */
+	public static Snapshot snapshot() {
+		Map<String, Long> counters = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+			counters.put(entry.getKey(), entry.getValue().sum());
+		}
+		Map<String, Histogram.Snapshot> histograms = new TreeMap<String, Histogram.Snapshot>();
+		for (Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()) {
+			histograms.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return new Snapshot(counters, histograms);
+	}
+	
+	/**
+	 * Print a snapshot to System.err periodically, from a daemon thread
+	 * @param seconds the period, nothing is printed if it is 0 or less
+	 */
+	public static void startDump(long seconds) {
+		if (!ENABLED || seconds <= 0) {
+			return;
+		}
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-dump");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.scheduleAtFixedRate(() -> System.err.print(snapshot()), seconds, seconds, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * The values of the counters and histograms at one point in time, sorted by name
+	 */
+	public static class Snapshot {
+		
+		private final Map<String, Long> counters;
+		private final Map<String, Histogram.Snapshot> histograms;
+		
+		private Snapshot(Map<String, Long> counters, Map<String, Histogram.Snapshot> histograms) {
+			this.counters = Collections.unmodifiableMap(counters);
+			this.histograms = Collections.unmodifiableMap(histograms);
+		}
+		
+		public Map<String, Long> getCounters() {
+			return counters;
+		}
+		
+		public Map<String, Histogram.Snapshot> getHistograms() {
+			return histograms;
+		}
+		
+		/**
+		 * One line per counter and histogram, latencies in microseconds
+		 */
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (Map.Entry<String, Long> entry : counters.entrySet()) {
+				sb.append(String.format("%-24s %d%n", entry.getKey(), entry.getValue()));
+			}
+			for (Map.Entry<String, Histogram.Snapshot> entry : histograms.entrySet()) {
+				sb.append(String.format("%-24s %s%n", entry.getKey(), entry.getValue()));
+			}
+			return sb.toString();
+		}
+	
+	}
+
+}
@@ -0,0 +1,50 @@
+/**
+ * 
+ */
+package searchengine;
+
+/**
+ * Quantizes the length of a document, the number of terms in it, to one byte: the norm of the
+ * document. Lengths below 32 are stored as they are, longer ones as a floating point number with
+ * a 4 bit mantissa, so the length of a norm is less than 1/16 shorter than the document.
+ * Documents of 2^19 terms and longer get the highest norm. The norms of an index are an array
+ * of one byte per document, see {@link DocumentDictionary#getNorms()}.
+ *
+ */
+public final class Norms {
+	
+	// the lengths that are stored as they are
+	private static final int EXACT = 32;
+	private static final int MANTISSA_BITS = 4;
+	
+	private Norms() {
+	}
+	
+	/**
+	 * Get the norm of a document length, the norms are in the same order as the lengths
+	 */
+	public static byte encode(int length) {
+		if (length < EXACT) {
+			return (byte) Math.max(length, 0);
+		}
+		// the highest bit and the mantissa are kept
+		int shift = 32 - Integer.numberOfLeadingZeros(length) - (MANTISSA_BITS + 1);
+		int mantissa = (length >>> shift) - (1 << MANTISSA_BITS);
+		int norm = EXACT + ((shift - 1) << MANTISSA_BITS) + mantissa;
+		return (byte) Math.min(norm, 255);
+	}
+	
+	/**
+	 * Get the length of a norm, the shortest length that has the norm
+	 * @param norm the norm as an unsigned byte
+	 */
+	public static int decode(int norm) {
+		if (norm < EXACT) {
+			return norm;
+		}
+		int shift = ((norm - EXACT) >>> MANTISSA_BITS) + 1;
+		int mantissa = (norm - EXACT) & ((1 << MANTISSA_BITS) - 1);
+		return ((1 << MANTISSA_BITS) + mantissa) << shift;
+	}
+
+}
@@ -0,0 +1,46 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A phrase in a GET query, terms in quotes that have to be next to each other 
+ * in a document, in the same order. With a slop, e.g. "brown dog"~2, there can be
+ * up to slop other terms in between the terms of the phrase.
+ *
+ */
+public class Phrase {
+	
+	private final List<String> terms;
+	private final int slop;
+	
+	/**
+	 * @param terms the terms in the order they have to be in
+	 * @param slop the number of other terms that are allowed in between
+	 */
+	public Phrase(List<String> terms, int slop) {
+		if (slop < 0) {
+			throw new IllegalArgumentException("The slop must not be negative: " + slop);
+		}
+		this.terms = Collections.unmodifiableList(new ArrayList<String>(terms));
+		this.slop = slop;
+	}
+	
+	public List<String> getTerms() {
+		return terms;
+	}
+	
+	public int getSlop() {
+		return slop;
+	}
+	
+	@Override
+	public String toString() {
+		return "\"" + String.join(" ", terms) + "\"" + (slop > 0 ? "~" + slop : "");
+	}
+
+}
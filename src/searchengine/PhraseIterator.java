@@ -0,0 +1,154 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.Arrays;
+
+/**
+ * Iterates over the documents that contain a phrase, its freq() is the number of matches.
+ *
+ * The postings of the terms are intersected first, the rarest term leads and the others
+ * advance to its documents. Positions are only decoded for the documents that contain all terms.
+ * A match is a position of each term, in phrase order, where at most slop other terms are
+ * in between. For each position of the first term the closest positions of the next terms
+ * are chosen, and as the positions of each term are only passed once, counting the matches
+ * is linear in the number of positions.
+ *
+ */
+public class PhraseIterator implements PostingsIterator {
+	
+	// in phrase order, and ordered by cost for the intersection
+	private final PostingsIterator[] terms;
+	private final PostingsIterator[] byCost;
+	private final int slop;
+	// the positions of the terms in the current document
+	private final int[][] positions;
+	private final int[] next;
+	// the first position of the matches in the current document
+	private int[] matches = new int[4];
+	private int freq = 0;
+	private int match = 0;
+	private int doc = -1;
+	
+	/**
+	 * @param terms iterators over the postings of the terms of the phrase, in phrase order.
+	 * A term that is twice in the phrase needs two iterators.
+	 * @param slop the number of other terms that are allowed in between the terms
+	 */
+	public PhraseIterator(PostingsIterator[] terms, int slop) {
+		if (terms.length == 0) {
+			throw new IllegalArgumentException("A phrase needs at least one term");
+		}
+		this.terms = terms;
+		this.byCost = terms.clone();
+		Arrays.sort(byCost, (a, b) -> Integer.compare(a.cost(), b.cost()));
+		this.slop = slop;
+		this.positions = new int[terms.length][4];
+		this.next = new int[terms.length];
+	}
+	
+	@Override
+	public int docId() {
+		return doc;
+	}
+	
+	@Override
+	public int nextDoc() {
+		return toMatch(byCost[0].nextDoc());
+	}
+	
+	@Override
+	public int advance(int target) {
+		return toMatch(byCost[0].advance(target));
+	}
+	
+	/**
+	 * Move to the first document from candidate that contains the phrase
+	 */
+	private int toMatch(int candidate) {
+		while (candidate != NO_MORE_DOCS) {
+			int target = candidate;
+			for (int i=1; i<byCost.length && target == candidate; ++i) {
+				if (byCost[i].docId() < candidate) {
+					target = byCost[i].advance(candidate);
+				} else {
+					target = byCost[i].docId();
+				}
+			}
+			if (target != candidate) {
+				candidate = byCost[0].advance(target);
+			} else if (countMatches() > 0) {
+				return doc = candidate;
+			} else {
+				candidate = byCost[0].nextDoc();
+			}
+		}
+		freq = 0;
+		return doc = NO_MORE_DOCS;
+	}
+	
+	/**
+	 * Decode the positions of the terms in the current document and count the matches
+	 */
+	private int countMatches() {
+		for (int t=0; t<terms.length; ++t) {
+			int n = terms[t].freq();
+			if (positions[t].length < n) {
+				positions[t] = new int[Math.max(n, positions[t].length * 2)];
+			}
+			for (int i=0; i<n; ++i) {
+				positions[t][i] = terms[t].nextPosition();
+			}
+			next[t] = 0;
+		}
+		freq = 0;
+		match = 0;
+		int span = terms.length - 1 + slop;
+		int first = terms[0].freq();
+		for (int i=0; i<first; ++i) {
+			int start = positions[0][i];
+			int position = start;
+			for (int t=1; t<terms.length; ++t) {
+				// the closest position after the previous term, it only moves forward with start
+				int n = terms[t].freq();
+				while (next[t] < n && positions[t][next[t]] <= position) {
+					++next[t];
+				}
+				if (next[t] == n) {
+					return freq;
+				}
+				position = positions[t][next[t]];
+			}
+			if ((long) position - start <= span) {
+				if (freq == matches.length) {
+					matches = Arrays.copyOf(matches, freq * 2);
+				}
+				matches[freq++] = start;
+			}
+		}
+		return freq;
+	}
+	
+	/**
+	 * Get the number of matches of the phrase in the current document
+	 */
+	@Override
+	public int freq() {
+		return freq;
+	}
+	
+	/**
+	 * Get the position of the first term of the next match
+	 */
+	@Override
+	public int nextPosition() {
+		return matches[match++];
+	}
+	
+	@Override
+	public int cost() {
+		return byCost[0].cost();
+	}
+
+}
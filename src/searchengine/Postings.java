@@ -0,0 +1,40 @@
+/**
+ * 
+ */
+package searchengine;
+
+/**
+ * Read access to the postings of a term, whether they are on the heap 
+ * ({@link TfDocumentList}) or in an index file ({@link MappedIndex}).
+ *
+ */
+public interface Postings {
+	
+	/**
+	 * Get the term of the postings
+	 */
+	public String getTerm();
+	
+	/**
+	 * Get the number of documents that contain the term (document frequency)
+	 */
+	public int size();
+	
+	/**
+	 * Get the highest term frequency, an upper bound for the score of a posting
+	 */
+	public int getMaxFreq();
+	
+	/**
+	 * Get the idf of the term
+	 * @param numberOfDocuments the number of documents in the index (N)
+	 * @return log(N / document frequency)
+	 */
+	public double getIdf(int numberOfDocuments);
+	
+	/**
+	 * Get an iterator over the postings in document order
+	 */
+	public PostingsIterator iterator();
+
+}
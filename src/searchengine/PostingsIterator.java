@@ -0,0 +1,56 @@
+/**
+ * 
+ */
+package searchengine;
+
+/**
+ * Iterates over the postings of a term in increasing document order.
+ * The iterator starts before the first posting, call nextDoc() or advance(int) to position it.
+ *
+ */
+public interface PostingsIterator {
+	
+	/**
+	 * Returned by docId() when the iterator is exhausted.
+	 * Larger than any document ordinal so it can be compared with a target.
+	 */
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+	
+	/**
+	 * Get the current document ordinal, -1 before the first call to nextDoc()/advance(int),
+	 * {@link #NO_MORE_DOCS} when the iterator is exhausted
+	 */
+	public int docId();
+	
+	/**
+	 * Move to the next posting
+	 * @return the new document ordinal or {@link #NO_MORE_DOCS}
+	 */
+	public int nextDoc();
+	
+	/**
+	 * Move to the first posting with a document ordinal greater than or equal to target.
+	 * Postings in between are skipped without being visited.
+	 * @param target a document ordinal greater than the current one
+	 * @return the new document ordinal or {@link #NO_MORE_DOCS}
+	 */
+	public int advance(int target);
+	
+	/**
+	 * Get the term frequency in the current document
+	 */
+	public int freq();
+	
+	/**
+	 * Get the next position of the term in the current document, it can be called freq() times.
+	 * A position is the ordinal of a term in its document, they are returned in increasing order.
+	 * The positions are only decoded when they are asked for.
+	 */
+	public int nextPosition();
+	
+	/**
+	 * Get the number of postings, an upper bound of how many documents the iterator visits
+	 */
+	public int cost();
+
+}
@@ -4,6 +4,7 @@
 package searchengine;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -11,11 +12,25 @@ import java.util.List;
  */
 public class Query {
 	
+	private static final Histogram PARSE = Metrics.histogram("query.parse");
+	
 	private List<String> query;
+	// the tokens the query was parsed from
+	private final List<Token> tokens;
+	// the phrases of a GET query, in quotes
+	private List<Phrase> phrases = new ArrayList<Phrase>();
+	// the terms of a GET query with * or ?, outside phrases
+	private List<Wildcard> wildcards = new ArrayList<Wildcard>();
+	// the terms of a GET query with ~n, outside phrases
+	private List<FuzzyTerm> fuzzyTerms = new ArrayList<FuzzyTerm>();
+	// the expression of a GET query with operators or parentheses, null without them
+	private BooleanQuery booleanQuery = null;
 	private QueryType queryType;
 	
 	public Query(QueryType queryType, List<Token> tokens) throws SyntaxException {
+		long start = Metrics.now();
 		this.queryType = queryType;	
+		this.tokens = new ArrayList<Token>(tokens);
 		switch (queryType) {
 		case SELECT:
 			this.query = buildSelectQuery(tokens);
@@ -26,6 +41,7 @@ public class Query {
 		default:
 			throw new SyntaxException("QueryType <" + queryType + "> is not supported.");
 		}
+		PARSE.recordSince(start);
 	}
 
 	private List<String> buildSelectQuery(List<Token> tokens) throws SyntaxException {
@@ -44,29 +60,214 @@ public class Query {
 	
 	private List<String> buildGetQuery(List<Token> tokens) throws SyntaxException {
 		List<String> query = new ArrayList<String>();
-		TokenType type;
 		for (Token t : tokens) {
+			switch (t.getType()) {
+			case AND:
+			case OR:
+			case NOT:
+			case LPAREN:
+			case RPAREN:
+				booleanQuery = new BooleanParser(tokens).parse();
+				return query;
+			default:
+				break;
+			}
+		}
+		// the terms of the phrase that is open, null outside quotes
+		List<String> phrase = null;
+		TokenType type;
+		for (int i=0; i<tokens.size(); ++i) {
+			Token t = tokens.get(i);
 			type = t.getType();
 			switch (type) {
 			case WORD:
-				query.add(t.getValue());
-				break;
 			case FILENAME:
-				query.add(t.getValue());
+				if (i + 1 < tokens.size() && TokenType.SLOP.equals(tokens.get(i + 1).getType())) {
+					if (phrase != null) {
+						throw new SyntaxException("A term in a phrase can't be fuzzy: " + t.getValue() + tokens.get(i + 1).getValue());
+					}
+					fuzzyTerms.add(parseFuzzy(t, tokens.get(++i)));
+				} else if (phrase == null && Wildcard.hasWildcard(t.getValue())) {
+					wildcards.add(new Wildcard(t.getValue()));
+				} else {
+					(phrase == null ? query : phrase).add(t.getValue());
+				}
+				break;
+			case QUOTE:
+				if (phrase == null) {
+					phrase = new ArrayList<String>();
+					break;
+				}
+				int slop = 0;
+				if (i + 1 < tokens.size() && TokenType.SLOP.equals(tokens.get(i + 1).getType())) {
+					slop = parseSlop(tokens.get(++i).getValue());
+				}
+				if (!phrase.isEmpty()) {
+					phrases.add(new Phrase(phrase, slop));
+				}
+				phrase = null;
 				break;
 			default:
 				throw new SyntaxException("GET query can't contain token " + t.toString());
 			}
 		}
+		if (phrase != null) {
+			throw new SyntaxException("The phrase \"" + String.join(" ", phrase) + " has no closing quote.");
+		}
 		return query;
 	}
 	
+	/**
+	 * Recursive descent parser of a Boolean GET query, NOT binds closest, then AND, then OR:
+	 * <pre>
+	 * or      = and ([OR] and)*
+	 * and     = unary (AND unary)*
+	 * unary   = NOT primary | primary
+	 * primary = WORD | FILENAME | QUOTE (WORD | FILENAME)+ QUOTE [SLOP] | LPAREN or RPAREN
+	 * </pre>
+	 * A WORD with * or ? outside a phrase is a wildcard, and a WORD followed by SLOP is a fuzzy term.
+	 * Operands without an operator in between are in an OR, like the terms of a query without operators.
+	 */
+	private static class BooleanParser {
+		
+		private final List<Token> tokens;
+		private int next = 0;
+		
+		private BooleanParser(List<Token> tokens) {
+			this.tokens = tokens;
+		}
+		
+		private BooleanQuery parse() throws SyntaxException {
+			BooleanQuery query = parseOr();
+			if (next < tokens.size()) {
+				throw new SyntaxException("Unexpected " + tokens.get(next) + ", a parenthesis has no opening parenthesis.");
+			}
+			return query;
+		}
+		
+		private boolean peek(TokenType type) {
+			return next < tokens.size() && type.equals(tokens.get(next).getType());
+		}
+		
+		private BooleanQuery parseOr() throws SyntaxException {
+			List<BooleanQuery> clauses = new ArrayList<BooleanQuery>();
+			clauses.add(parseAnd());
+			while (next < tokens.size() && !peek(TokenType.RPAREN)) {
+				if (peek(TokenType.OR)) {
+					++next;
+				}
+				clauses.add(parseAnd());
+			}
+			return clauses.size() == 1 ? clauses.get(0) : BooleanQuery.or(clauses);
+		}
+		
+		private BooleanQuery parseAnd() throws SyntaxException {
+			List<BooleanQuery> clauses = new ArrayList<BooleanQuery>();
+			clauses.add(parseUnary());
+			while (peek(TokenType.AND)) {
+				++next;
+				clauses.add(parseUnary());
+			}
+			for (BooleanQuery clause : clauses) {
+				if (clause.getOperator() != BooleanQuery.Operator.NOT) {
+					return clauses.size() == 1 ? clauses.get(0) : BooleanQuery.and(clauses);
+				}
+			}
+			throw new SyntaxException("NOT " + clauses.get(0).getClauses().get(0) 
+					+ " only excludes documents, it needs an AND with a term that isn't negated.");
+		}
+		
+		private BooleanQuery parseUnary() throws SyntaxException {
+			if (peek(TokenType.NOT)) {
+				++next;
+				return BooleanQuery.not(parsePrimary());
+			}
+			return parsePrimary();
+		}
+		
+		private BooleanQuery parsePrimary() throws SyntaxException {
+			if (next == tokens.size()) {
+				throw new SyntaxException("The query ends where a term was expected.");
+			}
+			Token t = tokens.get(next++);
+			switch (t.getType()) {
+			case WORD:
+			case FILENAME:
+				if (peek(TokenType.SLOP)) {
+					return BooleanQuery.fuzzy(parseFuzzy(t, tokens.get(next++)));
+				}
+				if (Wildcard.hasWildcard(t.getValue())) {
+					return BooleanQuery.wildcard(new Wildcard(t.getValue()));
+				}
+				return BooleanQuery.term(t.getValue());
+			case QUOTE:
+				List<String> terms = new ArrayList<String>();
+				while (peek(TokenType.WORD) || peek(TokenType.FILENAME)) {
+					terms.add(tokens.get(next++).getValue());
+				}
+				if (!peek(TokenType.QUOTE)) {
+					throw new SyntaxException("The phrase \"" + String.join(" ", terms) + " has no closing quote.");
+				}
+				++next;
+				if (terms.isEmpty()) {
+					throw new SyntaxException("A phrase in a Boolean query needs a term.");
+				}
+				int slop = 0;
+				if (peek(TokenType.SLOP)) {
+					slop = parseSlop(tokens.get(next++).getValue());
+				}
+				return BooleanQuery.phrase(new Phrase(terms, slop));
+			case LPAREN:
+				BooleanQuery query = parseOr();
+				if (!peek(TokenType.RPAREN)) {
+					throw new SyntaxException("A parenthesis has no closing parenthesis.");
+				}
+				++next;
+				return query;
+			default:
+				throw new SyntaxException("Expected a term, a phrase or a parenthesis, not " + t.toString());
+			}
+		}
+	
+	}
+	
+	private static int parseSlop(String slop) throws SyntaxException {
+		try {
+			return Integer.parseInt(slop.substring(1));
+		} catch (NumberFormatException e) {
+			throw new SyntaxException("The slop of a phrase is too large: " + slop);
+		}
+	}
+	
+	/**
+	 * Get the fuzzy term of a word and the SLOP token after it
+	 */
+	private static FuzzyTerm parseFuzzy(Token word, Token slop) throws SyntaxException {
+		if (Wildcard.hasWildcard(word.getValue())) {
+			throw new SyntaxException("A term with wildcards can't be fuzzy: " + word.getValue() + slop.getValue());
+		}
+		int edits = parseSlop(slop.getValue());
+		if (edits > FuzzyTerm.MAX_EDITS) {
+			throw new SyntaxException("A fuzzy term can be at most " + FuzzyTerm.MAX_EDITS + " edits away: " 
+					+ word.getValue() + slop.getValue());
+		}
+		return new FuzzyTerm(word.getValue(), edits);
+	}
+	
 	public QueryType getType() {
 		return queryType;
 	}
 	
 	/**
-	 * Get the size of the query (i.e. number of tokens)
+	 * Get the tokens the query was parsed from, without the action token
+	 */
+	public List<Token> getTokens() {
+		return Collections.unmodifiableList(tokens);
+	}
+	
+	/**
+	 * Get the size of the query (i.e. number of tokens), without the phrases, wildcards and fuzzy terms.
+	 * A Boolean query has its terms in {@link #getBooleanQuery()} instead.
 	 */
 	public int size() {
 		return query.size();
@@ -79,16 +280,63 @@ public class Query {
 		return query.get(index);
 	}
 	
+	/**
+	 * Get the phrases of a GET query
+	 */
+	public List<Phrase> getPhrases() {
+		return Collections.unmodifiableList(phrases);
+	}
+	
+	/**
+	 * Get the terms with wildcards of a GET query
+	 */
+	public List<Wildcard> getWildcards() {
+		return Collections.unmodifiableList(wildcards);
+	}
+	
+	/**
+	 * Get the fuzzy terms of a GET query
+	 */
+	public List<FuzzyTerm> getFuzzyTerms() {
+		return Collections.unmodifiableList(fuzzyTerms);
+	}
+	
+	/**
+	 * Get the expression of a GET query with operators or parentheses
+	 * @return the expression, or null if the query has no operators
+	 */
+	public BooleanQuery getBooleanQuery() {
+		return booleanQuery;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("{" + queryType.toString());
+		if (booleanQuery != null) {
+			return sb.append(", ").append(booleanQuery).append("}").toString();
+		}
 		sb.append(", [");
 		for (int i=0; i < query.size(); ++i) {
 			sb.append(query.get(i));
 			if (i < query.size()-1)
 				sb.append(",");
 		}
+		for (int i=0; i < phrases.size(); ++i) {
+			if (i > 0 || !query.isEmpty())
+				sb.append(",");
+			sb.append(phrases.get(i));
+		}
+		for (int i=0; i < wildcards.size(); ++i) {
+			if (i > 0 || !query.isEmpty() || !phrases.isEmpty())
+				sb.append(",");
+			sb.append(wildcards.get(i));
+		}
+		for (int i=0; i < fuzzyTerms.size(); ++i) {
+			if (i > 0 || !query.isEmpty() || !phrases.isEmpty() || !wildcards.isEmpty())
+				sb.append(",");
+			sb.append(fuzzyTerms.get(i));
+		}
 		sb.append("]}");
 		return sb.toString();
 	}
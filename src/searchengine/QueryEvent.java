@@ -0,0 +1,35 @@
+/**
+ * 
+ */
+package searchengine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A search, as a Java Flight Recorder event. Only committed with -Dsearchengine.jfr=true
+ * and while a recording is running, e.g. java -XX:StartFlightRecording -Dsearchengine.jfr=true.
+ *
+ */
+@Name("searchengine.Query")
+@Label("Query")
+@Category("Search Engine")
+@Description("A ranked search of the index")
+class QueryEvent extends Event {
+	
+	@Label("Query")
+	String query;
+	
+	@Label("Offset")
+	int offset;
+	
+	@Label("Limit")
+	int limit;
+	
+	@Label("Results")
+	int results;
+
+}
@@ -0,0 +1,191 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A shard that is served by a {@link ShardServer} in another process.
+ * A connection carries one request at a time, so concurrent requests take idle connections
+ * from a pool and open new ones when there are none. A connection that fails is closed
+ * and the request fails with an IOException, the next request opens a new connection.
+ *
+ */
+public class RemoteShard implements Shard {
+	
+	private final InetSocketAddress address;
+	private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+	private volatile boolean closed = false;
+	
+	/**
+	 * Connect to a shard server
+	 * @param address the host and port of the server
+	 * @throws IOException if the server can't be reached
+	 */
+	public RemoteShard(InetSocketAddress address) throws IOException {
+		this.address = address;
+		idle.add(new Connection(address));
+	}
+	
+	@Override
+	public TermStatistics statistics(Query getQuery) throws IOException {
+		return request(connection -> {
+			connection.out.writeByte(ShardServer.STATISTICS);
+			ShardServer.writeQuery(connection.out, getQuery);
+			connection.flush();
+			return TermStatistics.read(connection.in);
+		});
+	}
+	
+	@Override
+	public DocumentList search(Query getQuery, TermStatistics statistics, int limit) throws IOException {
+		return request(connection -> {
+			connection.out.writeByte(ShardServer.SEARCH);
+			statistics.write(connection.out);
+			connection.out.writeInt(limit);
+			ShardServer.writeQuery(connection.out, getQuery);
+			connection.flush();
+			return ShardServer.readDocuments(connection.in);
+		});
+	}
+	
+	@Override
+	public void addDocument(String docID, String text) throws IOException {
+		request(connection -> {
+			connection.out.writeByte(ShardServer.ADD);
+			connection.out.writeUTF(docID);
+			ShardServer.writeString(connection.out, text);
+			connection.flush();
+			return null;
+		});
+	}
+	
+	@Override
+	public void addDocuments(Map<String, String> documents) throws IOException {
+		request(connection -> {
+			connection.out.writeByte(ShardServer.ADD_ALL);
+			connection.out.writeInt(documents.size());
+			for (Map.Entry<String, String> document : documents.entrySet()) {
+				connection.out.writeUTF(document.getKey());
+				ShardServer.writeString(connection.out, document.getValue());
+			}
+			connection.flush();
+			return null;
+		});
+	}
+	
+	@Override
+	public void select(Query selectQuery) throws IOException {
+		request(connection -> {
+			connection.out.writeByte(ShardServer.SELECT);
+			ShardServer.writeQuery(connection.out, selectQuery);
+			connection.flush();
+			return null;
+		});
+	}
+	
+	/**
+	 * Run a request on an idle connection and give the connection back
+	 */
+	private <T> T request(Request<T> request) throws IOException {
+		if (closed) {
+			throw new IOException("The shard " + address + " is closed.");
+		}
+		Connection connection = idle.poll();
+		if (connection == null) {
+			connection = new Connection(address);
+		}
+		try {
+			T result = request.send(connection);
+			idle.add(connection);
+			return result;
+		} catch (IOException | RuntimeException e) {
+			connection.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Close the idle connections, requests that are running close theirs when they are done
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+			connection.close();
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "RemoteShard{" + address + "}";
+	}
+	
+	/**
+	 * Writes a request to a connection and reads the response
+	 */
+	private interface Request<T> {
+		
+		public T send(Connection connection) throws IOException;
+	
+	}
+	
+	/**
+	 * A connection to the shard server
+	 */
+	private static class Connection implements Closeable {
+		
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		
+		private Connection(InetSocketAddress address) throws IOException {
+			this.socket = new Socket(address.getHostString(), address.getPort());
+			socket.setTcpNoDelay(true);
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+		
+		/**
+		 * Send the request and read the status of the response
+		 * @throws FileAlreadyExistsException if the shard already has the document that is added
+		 * @throws IOException if the shard failed, with its message
+		 */
+		private void flush() throws IOException {
+			out.flush();
+			byte status = in.readByte();
+			switch (status) {
+			case ShardServer.OK:
+				return;
+			case ShardServer.EXISTS:
+				throw new FileAlreadyExistsException(in.readUTF());
+			case ShardServer.ERROR:
+				throw new IOException(in.readUTF());
+			default:
+				throw new IOException("Unknown status " + status);
+			}
+		}
+		
+		@Override
+		public void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing to do, the socket is dropped
+			}
+		}
+	
+	}
+
+}
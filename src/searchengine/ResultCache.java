@@ -0,0 +1,130 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of search results, bounded by the number of entries and their estimated size.
+ *
+ * An entry remembers the {@link IndexReader} it was searched on, and is only a hit for the
+ * same reader. The reader of a {@link SearchEngine} is replaced when a document is added or
+ * the selection changes, and with tf-idf both change the idf of every term, since the number
+ * of documents changes, so every entry of an older reader is stale. {@link #clear()} drops them
+ * at once, and a search that was running while the index changed can't store a stale hit.
+ *
+ * The cached lists are shared by all hits and must not be changed.
+ *
+ */
+public class ResultCache {
+	
+	private static final LongAdder HITS = Metrics.counter("cache.hits");
+	private static final LongAdder MISSES = Metrics.counter("cache.misses");
+	private static final LongAdder EVICTIONS = Metrics.counter("cache.evictions");
+	
+	private final int maxEntries;
+	private final long maxBytes;
+	// in access order, the eldest entry is the least recently used
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long bytes = 0;
+	
+	/**
+	 * @param maxEntries the maximum number of cached results
+	 * @param maxBytes the maximum estimated size of the cached results
+	 */
+	public ResultCache(int maxEntries, long maxBytes) {
+		if (maxEntries < 0 || maxBytes < 0) {
+			throw new IllegalArgumentException(String.format(
+					"Cache bounds must not be negative: maxEntries=%d, maxBytes=%d", maxEntries, maxBytes));
+		}
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Get the key of a search, the terms are already lowercased by the {@link Lexer}
+	 */
+	public static String key(String query, int offset, int limit) {
+		return offset + ":" + limit + ":" + query;
+	}
+	
+	/**
+	 * Get the result of a search on the reader
+	 * @return the result, or null if it isn't cached for this reader
+	 */
+	public synchronized TfidfDocumentList get(String key, IndexReader reader) {
+		Entry entry = entries.get(key);
+		if (entry == null || entry.reader != reader) {
+			MISSES.increment();
+			return null;
+		}
+		HITS.increment();
+		return entry.documents;
+	}
+	
+	/**
+	 * Cache the result of a search on the reader, unless it is larger than the cache
+	 */
+	public synchronized void put(String key, IndexReader reader, TfidfDocumentList documents) {
+		long size = estimateBytes(key, documents);
+		if (maxEntries == 0 || size > maxBytes) {
+			return;
+		}
+		Entry old = entries.put(key, new Entry(reader, documents, size));
+		if (old != null) {
+			bytes -= old.bytes;
+		}
+		bytes += size;
+		Iterator<Entry> eldest = entries.values().iterator();
+		while (entries.size() > maxEntries || bytes > maxBytes) {
+			bytes -= eldest.next().bytes;
+			eldest.remove();
+			EVICTIONS.increment();
+		}
+	}
+	
+	/**
+	 * Remove all entries, e.g. when the index or the selection changed
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Get the estimated size of the entries in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * Estimate the heap an entry retains: the key, the map entry and the list with
+	 * an int and a double per document. The reader is shared with the engine.
+	 */
+	private static long estimateBytes(String key, TfidfDocumentList documents) {
+		return 2L * (key.length() + documents.getTerm().length()) + 160 + 12L * documents.size();
+	}
+	
+	private static class Entry {
+		
+		private final IndexReader reader;
+		private final TfidfDocumentList documents;
+		private final long bytes;
+		
+		private Entry(IndexReader reader, TfidfDocumentList documents, long bytes) {
+			this.reader = reader;
+			this.documents = documents;
+			this.bytes = bytes;
+		}
+	
+	}
+
+}
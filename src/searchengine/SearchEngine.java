@@ -3,164 +3,905 @@
  */
 package searchengine;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Handles the logic between UI, database and inverted index.
+ * 
+ * Searches can run in any number of threads, also while documents are added or selected.
+ * A search reads the snapshot of the index and the selection that were current when it started.
+ * ADD and SELECT are serialized.
+ * 
+ * A SearchEngine can also be one shard of a {@link ShardedSearchEngine}, then it only has the files
+ * of the data base that hash to the shard and its own index file.
+ * 
+ * Files that are created, changed or deleted in the data base by anyone else are indexed in the background,
+ * see {@link DataBaseWatcher}. The length and modification time of each indexed file are kept,
+ * so only the files that really changed are indexed again.
  *
  */
-public class SearchEngine {
+public class SearchEngine implements SearchService, Shard, DataBaseWatcher.Listener {
+	
+	// the number of documents returned by a search if no limit is given
+	public static final int DEFAULT_LIMIT = 10;
 	
-	private InvertedIndex invertedIndex = new InvertedIndex();
+	// threads used to load the data base, set with -Dsearchengine.indexThreads=<n>
+	private static final int INDEX_THREADS = Integer.getInteger("searchengine.indexThreads", 
+			Runtime.getRuntime().availableProcessors());
+	// a worker thread is only started for at least this many files
+	private static final int MIN_FILES_PER_THREAD = 64;
+	// store the index of the data base in an index file, disable with -Dsearchengine.indexFile=false
+	private static final boolean INDEX_FILE = Boolean.parseBoolean(
+			System.getProperty("searchengine.indexFile", "true"));
+	// calculate idf over the selected documents (selection) or all documents (corpus),
+	// set with -Dsearchengine.statistics=selection|corpus
+	private static final boolean SELECTION_STATISTICS = !"corpus".equalsIgnoreCase(
+			System.getProperty("searchengine.statistics", "selection"));
+	// bounds of the result cache, set with -Dsearchengine.cacheEntries=<n> and -Dsearchengine.cacheBytes=<n>,
+	// 0 entries turns the cache off
+	private static final int CACHE_ENTRIES = Integer.getInteger("searchengine.cacheEntries", 10000);
+	private static final long CACHE_BYTES = Long.getLong("searchengine.cacheBytes", 32L << 20);
+	// scores the documents, set with -Dsearchengine.similarity=tfidf|bm25
+	private static final Similarity SIMILARITY = Similarity.forName(System.getProperty("searchengine.similarity", "tfidf"));
+	// index the changes to the data base folder while running, disable with -Dsearchengine.watch=false
+	private static final boolean WATCH = Boolean.parseBoolean(System.getProperty("searchengine.watch", "true"));
+	// the time in ms without changes before they are indexed, set with -Dsearchengine.watchDelay=<ms>
+	private static final long WATCH_DELAY = Long.getLong("searchengine.watchDelay", 200);
+	// log added documents before they are indexed, disable with -Dsearchengine.wal=false
+	private static final boolean WAL = Boolean.parseBoolean(System.getProperty("searchengine.wal", "true"));
+	// group commit of the log: wait up to -Dsearchengine.walSyncInterval=<ms> for more documents,
+	// sync at most -Dsearchengine.walBatch=<n> documents at once
+	private static final long WAL_SYNC_INTERVAL = Long.getLong("searchengine.walSyncInterval", 0);
+	private static final int WAL_BATCH = Integer.getInteger("searchengine.walBatch", 1000);
+	// sync the added files and empty the log when it is larger, set with -Dsearchengine.walCheckpoint=<bytes>
+	private static final long WAL_CHECKPOINT = Long.getLong("searchengine.walCheckpoint", 64L << 20);
+	
+	private static final Histogram DOCUMENT_LOAD = Metrics.histogram("index.documentLoad");
+	private static final LongAdder DOCUMENTS_LOADED = Metrics.counter("index.documents");
+	private static final LongAdder BYTES_READ = Metrics.counter("index.bytesRead");
+	private static final LongAdder TERMS_INSERTED = Metrics.counter("index.termsInserted");
+	
+	// the shard of the data base this engine has, and the number of shards
+	private final int shard;
+	private final int shards;
+	// the data base, or its index file, followed by the documents added after it was loaded
+	private SegmentedIndex index;
+	// ordinals of the documents selected with SELECT, null if all documents are selected.
+	// A new BitSet is published when the selection changes, a published one is never changed
+	private volatile BitSet selection = null;
+	// reads the selection of a snapshot, replaced at the first search after the selection or the index changed
+	private volatile FilteredIndexReader selectionReader = null;
+	// results of recent searches on the current reader
+	private final ResultCache cache = new ResultCache(CACHE_ENTRIES, CACHE_BYTES);
+	// the lengths and modification times of the files when they were indexed, by document ordinal
+	private long[] docLengths = new long[0];
+	private long[] docLastModified = new long[0];
+	// indexes the changes to the data base, null if it isn't watched
+	private DataBaseWatcher watcher = null;
+	// logs the added documents, null if there is no log
+	private WriteAheadLog log = null;
+	// the documents that are being added and not indexed yet
+	private final Set<String> adding = new HashSet<String>();
+	// the committed documents that are not written to the data base yet, until the checkpoint of the log
+	private final Set<String> unwritten = new HashSet<String>();
 	
 	/**
 	 * Create a SearchEngine where the index contains all the files in the data base
 	 */
 	public SearchEngine() {
+		this(0, 1);
+	}
+	
+	/**
+	 * Create a SearchEngine where the index contains the files in the data base of one shard
+	 * @param shard the shard, from 0 to shards-1
+	 * @param shards the number of shards
+	 * @throws IllegalArgumentException if the shard is not in the range
+	 */
+	public SearchEngine(int shard, int shards) {
+		if (shards < 1 || shard < 0 || shard >= shards) {
+			throw new IllegalArgumentException(String.format("Shard %d of %d doesn't exist", shard, shards));
+		}
+		this.shard = shard;
+		this.shards = shards;
 		String db = findDataBase();
+		replayLog();
+		if (WATCH) {
+			// Watch before the files are listed, so no change is missed while they are loaded
+			try {
+				watcher = new DataBaseWatcher(new File(db).toPath(), WATCH_DELAY, this);
+			} catch (IOException e) {
+				System.err.println("Failed to watch the data base " + db + ", changes are indexed at the next start. " 
+						+ e.getMessage());
+			}
+		}
 		this.loadIndexAllFiles(db);
+		if (WAL) {
+			try {
+				log = new WriteAheadLog(findIndexFile("wal"), new LogListener(), WAL_SYNC_INTERVAL, WAL_BATCH, WAL_CHECKPOINT);
+			} catch (IOException e) {
+				System.err.println("Failed to open the log, added documents are not logged. " + e.getMessage());
+			}
+		}
+		if (watcher != null) {
+			watcher.start();
+		}
 	}
 	
 	/**
-	 * Create a SearchEngine where the index contains the files specified in the query,
+	 * Create a SearchEngine where the index contains all the files in the data base
+	 * and the search engine only considers the files specified in the query.
 	 * Skips files that doesn't exist.
 	 * @param selectQuery query with {@link QueryType} SELECT
 	 */
 	public SearchEngine(Query selectQuery) {
-		String db = findDataBase();
-		this.loadIndex(db, selectQuery);
+		this();
+		this.select(selectQuery);
 	}
 	
 	/**
-	 * Re-initialize the index so the search engine only considers 
-	 * the files in the SELECT {@link Query}. The search engine will load all
-	 * files if the query is empty.
+	 * Select the files in the SELECT {@link Query}, so the search engine only considers them.
+	 * The index is not reloaded, the files that are not selected are filtered out when searching.
+	 * Files in the data base that are not in the index yet are loaded to it, if they are in this shard.
+	 * The search engine considers all files if the query is empty.
 	 * @param selectQuery a query that states the files to use
 	 */
-	public void reloadIndex(Query selectQuery) {
-		String db = findDataBase();
-		invertedIndex = new InvertedIndex();
-		loadIndex(db, selectQuery);
-		System.out.println("Reloaded the index: " + invertedIndex.toString());
-	}
-	
-	/**
-	 * Load the {@link SearchEngine}'s index according to a query with filename-tokens.
-	 * Loads all data if the query is empty.
-	 * @param dbPath the path to the data base
-	 * @param selectQuery a query that selects the files to be loaded
-	 */
-	private void loadIndex(String dbPath, Query selectQuery) {
+	@Override
+	public synchronized void select(Query selectQuery) {
 		if (selectQuery.size() < 1) {
-			// if query is empty --> load all files in db
-			loadIndexAllFiles(dbPath);
-		} else {
-			// else --> loop over the files in the query and TRY to read/add
-			String docId;
+			selection = null;
+			cache.clear();
+			return;
+		}
+		String dbPath = findDataBase();
+		index.update(buffer -> {
+			DocumentReader reader = null;
 			for (int i=0; i<selectQuery.size(); ++i) {
-				docId = selectQuery.get(i);
-				if (!invertedIndex.hasDocId(docId)) {
-					File file = new File(dbPath + File.separator + docId);
-					try {
-						loadFile(file, docId);
-					} catch (FileNotFoundException e) {
-						System.err.println("File " + file.getName() + " doesn't exist, skipped to load it to index.");
+				String docId = selectQuery.get(i);
+				if (buffer.getDocOrdinal(docId) == -1 && isInShard(docId)) {
+					// TRY to read/add a file that was put in the data base after the index was loaded
+					if (reader == null) {
+						reader = new DocumentReader();
 					}
+					File file = new File(dbPath + File.separator + docId);
+					tryLoadStamped(file, docId, buffer, reader);
 				}
 			}
+		});
+		BitSet selected = new BitSet();
+		for (int i=0; i<selectQuery.size(); ++i) {
+			int doc = index.getDocOrdinal(selectQuery.get(i));
+			if (doc != -1) {
+				selected.set(doc);
+			}
+		}
+		selection = selected;
+		cache.clear();
+		if (Debug.INFO) {
+			Debug.log("Selected %d of %d documents", selected.cardinality(), 
+					index.getSnapshot().numberOfDocuments());
 		}
 	}
-
+	
 	/**
-	 * Load all documents in the database
+	 * Load all documents in the database. 
+	 * The index file is used if none of the files have changed since it was written, 
+	 * otherwise the files are indexed and a new index file is written.
+	 * Large data bases are split in slices that are indexed in parallel, see {@link #INDEX_THREADS}.
+	 * A shard only loads its own files.
 	 * @param dbPath The absolute path of the local data base folder
 	 */
 	private void loadIndexAllFiles(String dbPath) {
 		File db = new File(dbPath);
-		File[] fileList = db.listFiles();
-		if (fileList != null) {
-			String docID;
+		File[] fileList = db.listFiles(file -> isInShard(file.getName()));
+		if (fileList == null) {
+			fileList = new File[0];
+		}
+		MappedIndex mappedIndex = INDEX_FILE ? openIndexFile(fileList) : null;
+		if (mappedIndex != null) {
+			if (Debug.INFO) {
+				Debug.log("Opened the index file with %d documents", mappedIndex.numberOfDocuments());
+			}
+			index = new SegmentedIndex(mappedIndex, new DocumentDictionary(mappedIndex.getDocuments()));
+			for (int doc=0; doc<mappedIndex.numberOfDocuments(); ++doc) {
+				setStamp(doc, mappedIndex.getDocLength(doc), mappedIndex.getDocLastModified(doc));
+			}
+			return;
+		}
+		// Take the file stamps before the files are read, a file that changes while 
+		// it is indexed is then seen as changed the next time
+		long[] lengths = new long[fileList.length];
+		long[] lastModified = new long[fileList.length];
+		for (int i=0; i<fileList.length; ++i) {
+			lengths[i] = fileList[i].length();
+			lastModified[i] = fileList[i].lastModified();
+		}
+		InvertedIndex invertedIndex = new InvertedIndex();
+		int threads = Math.min(INDEX_THREADS, fileList.length / MIN_FILES_PER_THREAD);
+		if (threads > 1) {
+			loadFilesParallel(fileList, threads, invertedIndex);
+		} else {
+			loadFiles(fileList, 0, fileList.length, invertedIndex);
+		}
+		if (Debug.INFO) {
+			Debug.log("Loaded %d documents to the index", invertedIndex.numberOfDocuments());
+		}
+		if (Debug.TRACE) {
+			Debug.log("index = %s", invertedIndex);
+		}
+		invertedIndex.trim();
+		for (int i=0; i<fileList.length; ++i) {
+			int doc = invertedIndex.getDocOrdinal(fileList[i].getName());
+			if (doc != -1) {
+				setStamp(doc, lengths[i], lastModified[i]);
+			}
+		}
+		if (INDEX_FILE) {
+			writeIndexFile(invertedIndex);
+		}
+		index = new SegmentedIndex(invertedIndex, invertedIndex.getDocuments());
+	}
+	
+	/**
+	 * Open the index file if it has the same files, with the same lengths and 
+	 * modification times, as the data base
+	 * @param fileList the files in the data base
+	 * @return the index file, or null if it can't be used
+	 */
+	private MappedIndex openIndexFile(File[] fileList) {
+		Path path = findIndexFile();
+		if (!Files.exists(path)) {
+			return null;
+		}
+		try {
+			MappedIndex index = IndexFile.open(path);
+			if (index.numberOfDocuments() != fileList.length) {
+				return null;
+			}
 			for (File file : fileList) {
-				docID = file.getName();
-				try {
-					loadFile(file, docID);
-				} catch (FileNotFoundException e) {
-					System.err.println("File " + file.getName() + " doesn't exist, skipped to load it to index.");
+				int doc = index.getDocuments().getOrdinal(file.getName());
+				if (doc == -1 || index.getDocLength(doc) != file.length() 
+						|| index.getDocLastModified(doc) != file.lastModified()) {
+					return null;
 				}
 			}
+			return index;
+		} catch (IOException e) {
+			System.err.println("Failed to open the index file " + path + ", the data base is indexed again. " 
+					+ e.getMessage());
+			return null;
 		}
-		System.out.println("index = " + invertedIndex.toString());
 	}
 	
 	/**
-	 * Load a file to the inverted index
+	 * Write the index of the data base to the index file, with the stamps of the files
+	 * @param invertedIndex the index of the files
+	 */
+	private void writeIndexFile(InvertedIndex invertedIndex) {
+		int docCount = invertedIndex.numberOfDocuments();
+		Path path = findIndexFile();
+		try {
+			Files.createDirectories(path.getParent());
+			IndexFile.write(invertedIndex, Arrays.copyOf(docLengths, docCount), 
+					Arrays.copyOf(docLastModified, docCount), path);
+		} catch (IOException e) {
+			System.err.println("Failed to write the index file " + path + ". " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Get the index that a search reads, the current snapshot filtered by the selection
+	 */
+	private IndexReader getIndexReader() {
+		IndexSnapshot snapshot = index.getSnapshot();
+		BitSet selection = this.selection;
+		if (selection == null) {
+			return snapshot;
+		}
+		FilteredIndexReader reader = selectionReader;
+		if (reader == null || !reader.reads(snapshot, selection)) {
+			reader = new FilteredIndexReader(snapshot, selection, SELECTION_STATISTICS);
+			selectionReader = reader;
+		}
+		return reader;
+	}
+	
+	/**
+	 * Index the files with a pool of worker threads. Each worker builds a private index 
+	 * of a contiguous slice of the files without any locking. The slices are merged in order,
+	 * so the documents get the same ordinals as when the files are loaded one by one.
+	 * @param fileList the files to load
+	 * @param threads the number of workers, and slices
+	 * @param invertedIndex the index to merge the slices to
+	 */
+	private void loadFilesParallel(File[] fileList, int threads, InvertedIndex invertedIndex) {
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<InvertedIndex>> slices = new ArrayList<Future<InvertedIndex>>();
+			for (int t=0; t<threads; ++t) {
+				int from = (int) ((long) fileList.length * t / threads);
+				int to = (int) ((long) fileList.length * (t+1) / threads);
+				slices.add(workers.submit(() -> {
+					InvertedIndex slice = new InvertedIndex();
+					loadFiles(fileList, from, to, slice);
+					return slice;
+				}));
+			}
+			// Merge while the later slices are still being indexed
+			for (Future<InvertedIndex> slice : slices) {
+				invertedIndex.merge(slice.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading the data base.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to load the data base.", e.getCause());
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Load a range of files to an index, skips files that can't be read
+	 * @param fileList the files
+	 * @param from the first file to load
+	 * @param to the file after the last one to load
+	 * @param index the index to load the files to
+	 */
+	private void loadFiles(File[] fileList, int from, int to, InvertedIndex index) {
+		DocumentReader reader = new DocumentReader();
+		for (int i=from; i<to; ++i) {
+			File file = fileList[i];
+			tryLoadFile(file, file.getName(), index, reader);
+		}
+	}
+	
+	/**
+	 * Load a file to an index and keep its stamp, taken before it is read, see {@link #tryLoadFile}
+	 * @return true if the file was loaded
+	 */
+	private boolean tryLoadStamped(File file, String docId, InvertedIndex index, DocumentReader reader) {
+		long length = file.length();
+		long lastModified = file.lastModified();
+		if (!tryLoadFile(file, docId, index, reader)) {
+			return false;
+		}
+		setStamp(index.getDocOrdinal(docId), length, lastModified);
+		return true;
+	}
+	
+	/**
+	 * Keep the length and modification time a file had when it was indexed
+	 */
+	private void setStamp(int doc, long length, long lastModified) {
+		if (doc >= docLengths.length) {
+			int capacity = Math.max(doc + 1, docLengths.length * 2);
+			docLengths = Arrays.copyOf(docLengths, capacity);
+			docLastModified = Arrays.copyOf(docLastModified, capacity);
+		}
+		docLengths[doc] = length;
+		docLastModified[doc] = lastModified;
+	}
+	
+	/**
+	 * Check if a file has the same length and modification time as when a document was indexed from it
+	 */
+	private boolean hasStamp(int doc, File file) {
+		return doc < docLengths.length && docLengths[doc] == file.length() 
+				&& docLastModified[doc] == file.lastModified();
+	}
+	
+	/**
+	 * Load a file to an inverted index, prints a message if the file can't be read
+	 * @return true if the file was loaded
+	 */
+	private static boolean tryLoadFile(File file, String docId, InvertedIndex index, DocumentReader reader) {
+		try {
+			loadFile(file, docId, index, reader);
+			return true;
+		} catch (NoSuchFileException e) {
+			System.err.println("File " + file.getName() + " doesn't exist, skipped to load it to index.");
+		} catch (IOException e) {
+			System.err.println("Failed to read " + file.getAbsolutePath() + ", skipped loading to index.");
+		}
+		return false;
+	}
+	
+	/**
+	 * Load a file to an inverted index. 
+	 * The terms are streamed from the file straight into the index.
 	 * @param file that is exists in the database
 	 * @param docId the file's identifier
-	 * @throws FileNotFoundException if the file does not exist
+	 * @param index the index to add the file to
+	 * @param reader splits the file into terms
+	 * @throws IOException if the file does not exist or can't be read
+	 */
+	private static void loadFile(File file, String docId, InvertedIndex index, DocumentReader reader) throws IOException {
+		long start = Metrics.now();
+		try (FileChannel channel = FileChannel.open(file.toPath())) {
+			loadDocument(channel, channel.size(), docId, index, reader);
+		}
+		DOCUMENT_LOAD.recordSince(start);
+	}
+	
+	/**
+	 * Load a document to an inverted index, from a file or from memory
+	 * @param channel the bytes of the document
+	 * @param size the number of bytes
+	 * @param docId the document's identifier
+	 * @param index the index to add the document to
+	 * @param reader splits the document into terms
+	 * @throws IOException if the channel can't be read
 	 */
-	private void loadFile(File file, String docId) throws FileNotFoundException {
-		List<Token> tokens = readFile(file);
-		// Add each term to index
-		for (int i=1; i<tokens.size(); ++i) {
-			Document docTerm = new Document(docId, 1.0);
-			invertedIndex.insert(tokens.get(i).getValue(), docTerm);
+	private static void loadDocument(ReadableByteChannel channel, long size, String docId, InvertedIndex index, 
+			DocumentReader reader) throws IOException {
+		int doc = index.addDocument(docId);
+		// Add each term to index, counted per document to keep the counter off the hot path
+		int[] terms = {0};
+		reader.read(channel, (type, term) -> {
+			index.insert(term, doc);
+			++terms[0];
+		});
+		if (Metrics.ENABLED) {
+			BYTES_READ.add(size);
+			TERMS_INSERTED.add(terms[0]);
+			DOCUMENTS_LOADED.increment();
 		}
 	}
 	
 	/**
-	 * Add a document to the data base and the index.
+	 * Add a document to the data base and the index, see {@link #addDocuments(Map)}
 	 * @param docID Document identifier and file name (including .txt)
 	 * @param text The content of the document
 	 * @throws FileAlreadyExistsException 
 	 */
+	@Override
 	public void addDocument(String docID, String text) throws FileAlreadyExistsException {
-		// Check if file already exists in the data base
-		String docName = docID;
-		String docPath = findDataBase() + File.separator + docName;
-		if (new File(docPath).exists())
-			throw new FileAlreadyExistsException(String.format("File %s already exists.", docID));
-		// Store as a file in db
+		addDocuments(Collections.singletonMap(docID, text));
+	}
+	
+	/**
+	 * Add documents to the data base and the index, all or none of them.
+	 * The documents are appended to the write-ahead log, and when the log is synced they are indexed 
+	 * from memory, together with the documents added by other threads meanwhile. Their files are written 
+	 * to the data base at the next checkpoint of the log. The documents are durable and searchable when this returns.
+	 * @param documents the contents of the documents by identifier and file name (including .txt)
+	 * @throws FileAlreadyExistsException if a document is already in the data base or the index
+	 * @throws UncheckedIOException if the log can't be written, no document is added then
+	 * @throws IllegalStateException if the documents are in the log but can't be indexed. They can't be added
+	 * again, their files are written at the checkpoint and indexed from there, by the watcher or at the next start
+	 */
+	@Override
+	public void addDocuments(Map<String, String> documents) throws FileAlreadyExistsException {
+		List<WriteAheadLog.Record> records = new ArrayList<WriteAheadLog.Record>(documents.size());
+		for (Map.Entry<String, String> document : documents.entrySet()) {
+			// The file is written in the platform's charset, and indexed from the same bytes
+			records.add(new WriteAheadLog.Record(document.getKey(), document.getValue().getBytes(Charset.defaultCharset())));
+		}
+		reserve(documents.keySet());
 		try {
-			writeFile(docPath, text);
+			if (log != null) {
+				log.append(records);
+			} else {
+				commitDocuments(records);
+			}
 		} catch (IOException e) {
-			System.err.println(String.format("Failed to write the file with id <%d>, "
-					+ "path <%s>", docID, docPath));
-			e.printStackTrace();
+			throw new UncheckedIOException("Failed to add the documents. " + e.getMessage(), e);
+		} finally {
+			synchronized (this) {
+				adding.removeAll(documents.keySet());
+			}
+		}
+	}
+	
+	/**
+	 * Reserve the identifiers of documents that are added, until they are in the index
+	 * @throws FileAlreadyExistsException if a document already exists in the data base, in the index
+	 * if it was removed from the data base and the removal isn't indexed yet, is being added or is in the log
+	 */
+	private void reserve(Set<String> docIds) throws FileAlreadyExistsException {
+		// Only files that were put in the data base and are not indexed yet need the file system,
+		// so they are checked without the lock. Added documents are in adding, the index or unwritten.
+		String dbPath = findDataBase();
+		for (String docId : docIds) {
+			if (new File(dbPath + File.separator + docId).exists()) {
+				throw new FileAlreadyExistsException(String.format("File %s already exists.", docId));
+			}
 		}
-		// Load to index
-		File file = new File(docPath);
+		synchronized (this) {
+			for (String docId : docIds) {
+				if (index.getDocOrdinal(docId) != -1 || adding.contains(docId) || unwritten.contains(docId)) {
+					throw new FileAlreadyExistsException(String.format("File %s already exists.", docId));
+				}
+			}
+			adding.addAll(docIds);
+		}
+	}
+	
+	/**
+	 * Index committed documents from memory in one segment. Their files are written at the checkpoint
+	 * of the log, or at once if there is no log. The documents are unwritten even if they can't be indexed, 
+	 * so they can't be added again, their files are indexed by the watcher or at the next start then.
+	 */
+	private synchronized void commitDocuments(List<WriteAheadLog.Record> records) {
+		if (log != null) {
+			for (WriteAheadLog.Record record : records) {
+				unwritten.add(record.getDocId());
+			}
+		}
+		index.update(buffer -> {
+			DocumentReader reader = new DocumentReader();
+			for (WriteAheadLog.Record record : records) {
+				try {
+					byte[] text = record.getText();
+					loadDocument(Channels.newChannel(new ByteArrayInputStream(text)), text.length, 
+							record.getDocId(), buffer, reader);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+		BitSet selected = selection == null ? null : (BitSet) selection.clone();
+		for (WriteAheadLog.Record record : records) {
+			if (log == null) {
+				try {
+					writeDocument(record);
+				} catch (IOException e) {
+					System.err.println("Failed to write " + record.getDocId() + " to the data base. " + e.getMessage());
+				}
+			}
+			// A new document is part of the selection
+			if (selected != null) {
+				selected.set(index.getDocOrdinal(record.getDocId()));
+			}
+		}
+		if (selected != null) {
+			selection = selected;
+		}
+		// The number of documents changed, so did the idf of every term
+		cache.clear();
+	}
+	
+	/**
+	 * Write the files of documents in the log to the data base and sync them, for a checkpoint of the log.
+	 * Commits go on meanwhile, only the stamps of the files are kept under the lock.
+	 * @throws IOException if a file can't be written or synced, the documents are written at the next checkpoint then
+	 */
+	private void writeDocuments(List<WriteAheadLog.Record> records) throws IOException {
+		String dbPath = findDataBase();
+		for (WriteAheadLog.Record record : records) {
+			writeDocument(record);
+		}
+		for (WriteAheadLog.Record record : records) {
+			syncFile(new File(dbPath + File.separator + record.getDocId()).toPath());
+		}
+		syncFile(new File(dbPath).toPath());
+		if (Debug.INFO) {
+			Debug.log("Wrote %d documents from the log to %s", records.size(), dbPath);
+		}
+	}
+	
+	/**
+	 * Write the file of a document, and keep its stamp so the watcher doesn't index it again
+	 */
+	private void writeDocument(WriteAheadLog.Record record) throws IOException {
+		File file = new File(findDataBase() + File.separator + record.getDocId());
+		Files.write(file.toPath(), record.getText());
+		synchronized (this) {
+			int doc = index.getDocOrdinal(record.getDocId());
+			if (doc != -1) {
+				setStamp(doc, file.length(), file.lastModified());
+			}
+			unwritten.remove(record.getDocId());
+		}
+	}
+	
+	/**
+	 * Sync a file or a folder to disk. A file that was deleted since is skipped,
+	 * a folder is skipped where it can't be opened (Windows)
+	 */
+	private static void syncFile(Path path) throws IOException {
+		boolean folder = Files.isDirectory(path);
+		try (FileChannel channel = FileChannel.open(path, folder ? StandardOpenOption.READ : StandardOpenOption.WRITE)) {
+			channel.force(true);
+		} catch (NoSuchFileException e) {
+			// deleted since it was written
+		} catch (IOException e) {
+			if (!folder) {
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * Write the documents in the log of an earlier run to the data base, so they are loaded with it,
+	 * and delete the log. A file that already has the text is only synced, so the index file can still be used.
+	 * The log is kept if a file can't be written.
+	 */
+	private void replayLog() {
+		Path path = findIndexFile("wal");
 		try {
-			loadFile(file, docID);
-		} catch (FileNotFoundException e) {
-			System.err.println("Failed to read " + file.getAbsolutePath() + ", skipped loading to index.");
-			e.printStackTrace();
+			List<WriteAheadLog.Record> records = WriteAheadLog.read(path);
+			if (records.isEmpty()) {
+				return;
+			}
+			String dbPath = findDataBase();
+			for (WriteAheadLog.Record record : records) {
+				Path file = new File(dbPath + File.separator + record.getDocId()).toPath();
+				if (!Files.isRegularFile(file) || !Arrays.equals(Files.readAllBytes(file), record.getText())) {
+					Files.write(file, record.getText());
+				}
+				syncFile(file);
+			}
+			syncFile(new File(dbPath).toPath());
+			WriteAheadLog.delete(path);
+			if (Debug.INFO) {
+				Debug.log("Replayed %d documents from the log %s", records.size(), path);
+			}
+		} catch (IOException e) {
+			System.err.println("Failed to replay the log " + path + ", it is replayed at the next start. " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Index the changes of files in the data base that were made outside the search engine: 
+	 * new files are added, changed files are indexed again and deleted files are deleted from the index.
+	 * Files with the same length and modification time as when they were indexed, and files of 
+	 * other shards, are skipped, and so are added documents that are not written yet. 
+	 * All changes are published in one snapshot. 
+	 * A changed file stays selected, a new file is selected like an added document.
+	 * @param files the names of the files that may have changed
+	 */
+	@Override
+	public synchronized void update(Set<String> files) {
+		String dbPath = findDataBase();
+		Set<String> deletions = new LinkedHashSet<String>();
+		List<File> changed = new ArrayList<File>();
+		// the selected documents that are indexed again
+		Set<String> selected = new LinkedHashSet<String>();
+		for (String docId : files) {
+			if (!isInShard(docId) || unwritten.contains(docId)) {
+				continue;
+			}
+			File file = new File(dbPath + File.separator + docId);
+			int doc = index.getDocOrdinal(docId);
+			boolean exists = file.isFile();
+			if (doc != -1 && exists && hasStamp(doc, file)) {
+				continue;
+			}
+			if (doc != -1) {
+				deletions.add(docId);
+				if (selection != null && selection.get(doc)) {
+					selected.add(docId);
+				}
+			}
+			if (exists) {
+				changed.add(file);
+			}
+		}
+		if (deletions.isEmpty() && changed.isEmpty()) {
+			return;
+		}
+		BitSet previous = selection;
+		BitSet oldDocs = new BitSet();
+		for (String docId : deletions) {
+			oldDocs.set(index.getDocOrdinal(docId));
+		}
+		index.update(deletions, buffer -> {
+			DocumentReader reader = new DocumentReader();
+			for (File file : changed) {
+				if (tryLoadStamped(file, file.getName(), buffer, reader) && !deletions.contains(file.getName())) {
+					selected.add(file.getName());
+				}
+			}
+		});
+		if (previous != null) {
+			BitSet selection = (BitSet) previous.clone();
+			selection.andNot(oldDocs);
+			for (String docId : selected) {
+				int doc = index.getDocOrdinal(docId);
+				if (doc != -1) {
+					selection.set(doc);
+				}
+			}
+			this.selection = selection;
+		}
+		cache.clear();
+		if (Debug.INFO) {
+			Debug.log("Indexed %d changed files and deleted %d documents, %s", changed.size(), 
+					deletions.size(), index.getSnapshot());
+		}
+	}
+	
+	/**
+	 * Index the changes of all files in the data base and in the index, see {@link #update(Set)}
+	 */
+	@Override
+	public synchronized void refresh() {
+		Set<String> files = new LinkedHashSet<String>();
+		String[] names = new File(findDataBase()).list();
+		if (names != null) {
+			files.addAll(Arrays.asList(names));
+		}
+		IndexSnapshot snapshot = index.getSnapshot();
+		for (int doc=0; doc<snapshot.numberOfDocuments(); ++doc) {
+			if (!snapshot.isDeleted(doc)) {
+				files.add(snapshot.getDocuments().getName(doc));
+			}
+		}
+		update(files);
+	}
+	
+	/**
+	 * Stop indexing the changes to the data base, commit the documents that are being added
+	 * and write all documents in the log to the data base
+	 */
+	@Override
+	public void close() {
+		if (watcher != null) {
+			watcher.close();
+		}
+		if (log != null) {
+			log.close();
 		}
 	}
 	
 	/**
-	 * Search for documents that match a query
+	 * Search for documents that match a query, the scores of the words are summed, 
+	 * tf-idf or BM25 as set with {@link #SIMILARITY}.
+	 * The results of recent searches are cached until a document is added or the selection changes.
 	 * @param getQuery {@link Query} of type GET
-	 * @return The documents sorted by tf-idf
-	 */
-	public DocumentList search(Query getQuery) {
-		DocumentList documents = new TfDocumentList("");
-		if (getQuery.size() < 1) {
-			System.out.println("Empty: " + documents.toString());
-		}
-		else if (getQuery.size() == 1) {
-			// one word query
-			String term = getQuery.get(0);
-			documents = invertedIndex.getDocumentsTfidf(term);
-			documents.sort();
-		} else {
-			System.out.println("Only one-word queries are supported.");
+	 * @param offset the number of best documents to skip
+	 * @param limit the maximum number of documents to return
+	 * @return The documents ranked offset+1 to offset+limit, sorted by score
+	 */
+	@Override
+	public DocumentList search(Query getQuery, int offset, int limit) {
+		return search(getQuery, getIndexReader(), cache, offset, limit);
+	}
+	
+	/**
+	 * Search this shard with the idf of all shards. The results are not cached,
+	 * the statistics of the other shards can change with every search.
+	 */
+	@Override
+	public DocumentList search(Query getQuery, TermStatistics statistics, int limit) {
+		return search(getQuery, new GlobalStatisticsReader(getIndexReader(), statistics), null, 0, limit);
+	}
+	
+	/**
+	 * Get the number of selected documents and the document frequencies of the terms a query reads,
+	 * the terms a wildcard or fuzzy term expands to in this shard included
+	 */
+	@Override
+	public TermStatistics statistics(Query getQuery) {
+		IndexReader reader = getIndexReader();
+		Set<String> terms = new LinkedHashSet<String>();
+		for (int i=0; i<getQuery.size(); ++i) {
+			terms.add(getQuery.get(i));
+		}
+		for (Phrase phrase : getQuery.getPhrases()) {
+			terms.addAll(phrase.getTerms());
+		}
+		for (Wildcard wildcard : getQuery.getWildcards()) {
+			terms.addAll(reader.expand(wildcard, MaxScoreSearcher.MAX_EXPANSIONS));
+		}
+		for (FuzzyTerm fuzzyTerm : getQuery.getFuzzyTerms()) {
+			terms.addAll(fuzzyTerm.expand(reader, MaxScoreSearcher.MAX_EXPANSIONS).keySet());
+		}
+		if (getQuery.getBooleanQuery() != null) {
+			addTerms(getQuery.getBooleanQuery(), reader, terms);
+		}
+		TermStatistics statistics = new TermStatistics(reader.numberOfDocuments(), reader.totalLength());
+		for (String term : terms) {
+			Postings postings = reader.getPostings(term);
+			statistics.add(term, postings == null ? 0 : reader.docFreq(postings));
+		}
+		return statistics;
+	}
+	
+	/**
+	 * Add the terms of a Boolean query and its clauses
+	 */
+	private static void addTerms(BooleanQuery query, IndexReader reader, Set<String> terms) {
+		switch (query.getOperator()) {
+		case TERM:
+			terms.add(query.getTerm());
+			break;
+		case PHRASE:
+			terms.addAll(query.getPhrase().getTerms());
+			break;
+		case WILDCARD:
+			terms.addAll(reader.expand(query.getWildcard(), MaxScoreSearcher.MAX_EXPANSIONS));
+			break;
+		case FUZZY:
+			terms.addAll(query.getFuzzyTerm().expand(reader, MaxScoreSearcher.MAX_EXPANSIONS).keySet());
+			break;
+		default:
+			for (BooleanQuery clause : query.getClauses()) {
+				addTerms(clause, reader, terms);
+			}
+		}
+	}
+	
+	/**
+	 * Search an index reader
+	 * @param cache the cache of the results of the reader, null to not cache them
+	 */
+	private DocumentList search(Query getQuery, IndexReader reader, ResultCache cache, int offset, int limit) {
+		List<String> terms = new ArrayList<String>();
+		for (int i=0; i<getQuery.size(); ++i) {
+			terms.add(getQuery.get(i));
+		}
+		QueryEvent event = Metrics.JFR ? new QueryEvent() : null;
+		if (event != null) {
+			event.begin();
+		}
+		List<Phrase> phrases = getQuery.getPhrases();
+		List<Wildcard> wildcards = getQuery.getWildcards();
+		List<FuzzyTerm> fuzzyTerms = getQuery.getFuzzyTerms();
+		BooleanQuery booleanQuery = getQuery.getBooleanQuery();
+		StringBuilder text = new StringBuilder(String.join(" ", terms));
+		for (Phrase phrase : phrases) {
+			text.append(' ').append(phrase);
+		}
+		for (Wildcard wildcard : wildcards) {
+			text.append(' ').append(wildcard);
+		}
+		for (FuzzyTerm fuzzyTerm : fuzzyTerms) {
+			text.append(' ').append(fuzzyTerm);
+		}
+		if (booleanQuery != null) {
+			text.append(booleanQuery);
+		}
+		String key = ResultCache.key(text.toString(), offset, limit);
+		TfidfDocumentList documents = cache != null ? cache.get(key, reader) : null;
+		if (documents == null) {
+			MaxScoreSearcher searcher = new MaxScoreSearcher(reader, SIMILARITY);
+			documents = booleanQuery != null ? searcher.search(booleanQuery, offset, limit) 
+					: searcher.search(terms, phrases, wildcards, fuzzyTerms, offset, limit);
+			if (cache != null) {
+				cache.put(key, reader, documents);
+			}
+		}
+		if (event != null) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.query = text.toString();
+				event.offset = offset;
+				event.limit = limit;
+				event.results = documents.size();
+				event.commit();
+			}
+		}
+		if (Debug.TRACE && getQuery.size() < 1 && phrases.isEmpty() && wildcards.isEmpty() && fuzzyTerms.isEmpty() && booleanQuery == null) {
+			Debug.log("Empty: %s", documents);
 		}
 		return documents;
 	}
@@ -175,31 +916,49 @@ public class SearchEngine {
 		return new File(pathDB).getAbsolutePath();
 	}
 	
-	private static void writeFile(String absolutePath, String text) throws IOException {
-		BufferedWriter writer = new BufferedWriter(new FileWriter(absolutePath));
-		writer.write(text);
-		writer.close();
+	/**
+	 * Find the absolute path of the index file of the database, or of the shard of it
+	 */
+	private Path findIndexFile() {
+		return findIndexFile("index");
 	}
 	
 	/**
-	 * Read a file from the local data base
-	 * @param file the file to read
-	 * @return the contents of the file as a list of {@link Token} 
-	 * @throws FileNotFoundException 
+	 * Find the absolute path of a file of the database, or of the shard of it, in the index folder
+	 * @param extension the extension of the file, e.g. index or wal
 	 */
-	private List<Token> readFile(File file) throws FileNotFoundException {
-		// Read the file on disk
-		Scanner sc = new Scanner(file);
-		StringBuilder contents = new StringBuilder();
-		while (sc != null && sc.hasNext()) {
-			String word = sc.next();
-			contents.append(word + " ");
-		}
-		sc.close();
-		// Tokenize the document
-		Lexer lexer = new Lexer();
-		List<Token> tokens = lexer.tokenizeDocument(contents.toString());
-		return tokens;
+	private Path findIndexFile(String extension) {
+		String name = shards == 1 ? "db." + extension : String.format("db-%d-of-%d.%s", shard, shards, extension);
+		return new File("").getAbsoluteFile().toPath().resolve("index").resolve(name);
+	}
+	
+	/**
+	 * Check if a file of the data base belongs to the shard of this engine
+	 */
+	private boolean isInShard(String docId) {
+		return shards == 1 || ShardedSearchEngine.shardOf(docId, shards) == shard;
+	}
+	
+	@Override
+	public String toString() {
+		return shards == 1 ? "SearchEngine" : String.format("SearchEngine{shard=%d, shards=%d}", shard, shards);
 	}
 	
+	/**
+	 * Applies the commits of the log to this engine
+	 */
+	private class LogListener implements WriteAheadLog.Listener {
+		
+		@Override
+		public void committed(List<WriteAheadLog.Record> records) {
+			commitDocuments(records);
+		}
+		
+		@Override
+		public void checkpoint(List<WriteAheadLog.Record> records) throws IOException {
+			writeDocuments(records);
+		}
+	
+	}
+
 }
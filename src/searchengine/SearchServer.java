@@ -0,0 +1,371 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP server in front of a shared {@link SearchService}, one index or the shards of one,
+ * the commands of {@link Main} as endpoints that answer with JSON:
+ * <pre>
+ * GET  /search?q=brown+dog&amp;offset=0&amp;limit=10
+ * POST /add?name=filename.txt   with the content of the document as body
+ * POST /select?files=doc1.txt+doc2.txt   selects all files without files
+ * GET  /metrics   the counters and latency histograms of {@link Metrics}, in nanoseconds
+ * </pre>
+ * Each request runs in a virtual thread when the JVM has them (Java 21), otherwise in a
+ * pool of maxConcurrent threads where the other requests wait in the queue. At most maxConcurrent
+ * requests run at the same time. The timeout starts when the request is accepted: a request that
+ * can't start within it, waiting in the queue or for a slot, gets 503 and doesn't run. A search
+ * can't be stopped, so a request that started runs to the end and gets its response.
+ *
+ */
+public class SearchServer {
+	
+	public static final int DEFAULT_PORT = 8080;
+	public static final int DEFAULT_MAX_CONCURRENT = 64;
+	public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+	
+	private static final Histogram REQUESTS = Metrics.histogram("http.request");
+	// when the request that runs in the thread was accepted, in System.nanoTime()
+	private static final ThreadLocal<Long> ACCEPTED = new ThreadLocal<Long>();
+	
+	private final SearchService engine;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	// one permit per request that may run
+	private final Semaphore permits;
+	private final long timeoutNanos;
+	
+	/**
+	 * Create a server, it is started with {@link #start()}
+	 * @param engine the search engine that all requests use
+	 * @param port the port to listen to, 0 for any free port
+	 * @param maxConcurrent the maximum number of requests that run at the same time
+	 * @param timeoutMillis the maximum time a request waits to start, from when it is accepted
+	 * @throws IOException if the port can't be used
+	 */
+	public SearchServer(SearchService engine, int port, int maxConcurrent, long timeoutMillis) throws IOException {
+		if (maxConcurrent < 1 || timeoutMillis < 1) {
+			throw new IllegalArgumentException(String.format(
+					"Concurrency and timeout must be positive: maxConcurrent=%d, timeout=%d", maxConcurrent, timeoutMillis));
+		}
+		this.engine = engine;
+		this.permits = new Semaphore(maxConcurrent);
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.executor = newRequestExecutor(maxConcurrent);
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.setExecutor(command -> {
+			long accepted = System.nanoTime();
+			executor.execute(() -> {
+				ACCEPTED.set(accepted);
+				try {
+					command.run();
+				} finally {
+					ACCEPTED.remove();
+				}
+			});
+		});
+		server.createContext("/search", exchange -> handle(exchange, "GET", this::search));
+		server.createContext("/add", exchange -> handle(exchange, "POST", this::add));
+		server.createContext("/select", exchange -> handle(exchange, "POST", this::select));
+		server.createContext("/metrics", exchange -> handle(exchange, "GET", this::metrics));
+	}
+	
+	/**
+	 * Create an executor that runs each task in a new virtual thread,
+	 * or in a pool of a fixed number of threads if the JVM has no virtual threads
+	 * @param threads the number of threads of the pool, the other requests wait in its queue
+	 */
+	private static ExecutorService newRequestExecutor(int threads) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(threads);
+		}
+	}
+	
+	public void start() {
+		server.start();
+	}
+	
+	/**
+	 * Stop the server
+	 * @param delaySeconds the maximum time to wait for the requests that are running
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdown();
+	}
+	
+	/**
+	 * Get the port the server listens to
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * Run an endpoint for a request in the thread of the request, if it gets a slot within the timeout, 
+	 * and send its response
+	 */
+	private void handle(HttpExchange exchange, String method, Endpoint endpoint) throws IOException {
+		long start = Metrics.now();
+		try {
+			if (!method.equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", method);
+				send(exchange, 405, error("Use " + method + " for " + exchange.getRequestURI().getPath()));
+				return;
+			}
+			Map<String, String> params = parseParams(exchange.getRequestURI().getRawQuery());
+			String body = readBody(exchange);
+			Long accepted = ACCEPTED.get();
+			long deadline = (accepted == null ? System.nanoTime() : accepted) + timeoutNanos;
+			long wait = deadline - System.nanoTime();
+			if (wait <= 0 || !permits.tryAcquire(wait, TimeUnit.NANOSECONDS)) {
+				send(exchange, 503, error("Too many concurrent requests"));
+				return;
+			}
+			Response result;
+			try {
+				result = endpoint.handle(params, body);
+			} catch (SyntaxException | IllegalArgumentException e) {
+				result = new Response(400, error(e.getMessage()));
+			} catch (Exception e) {
+				System.err.println("Failed to handle " + exchange.getRequestURI() + ": " + e);
+				result = new Response(500, error(String.valueOf(e)));
+			} finally {
+				permits.release();
+			}
+			send(exchange, result.status, result.json);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			send(exchange, 503, error("The server is stopping"));
+		} finally {
+			exchange.close();
+			REQUESTS.recordSince(start);
+		}
+	}
+	
+	/**
+	 * GET /search?q=&lt;query&gt;&amp;offset=&lt;n&gt;&amp;limit=&lt;n&gt;
+	 */
+	private Response search(Map<String, String> params, String body) throws SyntaxException {
+		String words = params.getOrDefault("q", "");
+		if (words.isBlank()) {
+			return new Response(400, error("Missing query parameter q"));
+		}
+		int offset = intParam(params, "offset", 0);
+		int limit = intParam(params, "limit", SearchEngine.DEFAULT_LIMIT);
+		List<Token> tokens = new Lexer().tokenizeQuery("GET " + words);
+		Query query = new Query(QueryType.GET, tokens.subList(1, tokens.size()));
+		DocumentList results = engine.search(query, offset, limit);
+		
+		StringBuilder json = new StringBuilder();
+		json.append("{\"query\":").append(quote(words))
+			.append(",\"offset\":").append(offset)
+			.append(",\"limit\":").append(limit)
+			.append(",\"results\":[");
+		for (int i=0; i<results.size(); ++i) {
+			Document document = results.get(i);
+			if (i > 0)
+				json.append(',');
+			json.append("{\"document\":").append(quote(results.getDocuments().getName(document.getDocId())))
+				.append(",\"score\":").append(document.getScore()).append('}');
+		}
+		json.append("]}");
+		return new Response(200, json.toString());
+	}
+	
+	/**
+	 * POST /add?name=&lt;filename.txt&gt; with the content of the document as body
+	 */
+	private Response add(Map<String, String> params, String body) throws SyntaxException {
+		String name = params.getOrDefault("name", "");
+		List<Token> tokens = new Lexer().tokenizeQuery("SELECT " + name);
+		if (tokens.size() != 2 || !TokenType.FILENAME.equals(tokens.get(1).getType())) {
+			return new Response(400, error("The name must be a file name like filename.txt: " + name));
+		}
+		try {
+			engine.addDocument(name, body);
+		} catch (FileAlreadyExistsException e) {
+			return new Response(409, error(e.getMessage()));
+		}
+		return new Response(200, "{\"added\":" + quote(name) + "}");
+	}
+	
+	/**
+	 * POST /select?files=&lt;filename.txt&gt;+&lt;filename.txt&gt;...
+	 */
+	private Response select(Map<String, String> params, String body) throws SyntaxException {
+		List<Token> tokens = new Lexer().tokenizeQuery("SELECT " + params.getOrDefault("files", ""));
+		Query query = new Query(QueryType.SELECT, tokens.subList(1, tokens.size()));
+		engine.select(query);
+		StringBuilder json = new StringBuilder("{\"selected\":[");
+		for (int i=0; i<query.size(); ++i) {
+			if (i > 0)
+				json.append(',');
+			json.append(quote(query.get(i)));
+		}
+		json.append("]}");
+		return new Response(200, json.toString());
+	}
+	
+	/**
+	 * GET /metrics
+	 */
+	private Response metrics(Map<String, String> params, String body) {
+		Metrics.Snapshot snapshot = Metrics.snapshot();
+		StringBuilder json = new StringBuilder("{\"counters\":{");
+		String separator = "";
+		for (Map.Entry<String, Long> counter : snapshot.getCounters().entrySet()) {
+			json.append(separator).append(quote(counter.getKey())).append(':').append(counter.getValue());
+			separator = ",";
+		}
+		json.append("},\"histograms\":{");
+		separator = "";
+		for (Map.Entry<String, Histogram.Snapshot> entry : snapshot.getHistograms().entrySet()) {
+			Histogram.Snapshot histogram = entry.getValue();
+			json.append(separator).append(quote(entry.getKey()))
+				.append(":{\"count\":").append(histogram.getCount())
+				.append(",\"mean\":").append(Math.round(histogram.getMean()))
+				.append(",\"p50\":").append(histogram.getPercentile(50))
+				.append(",\"p95\":").append(histogram.getPercentile(95))
+				.append(",\"p99\":").append(histogram.getPercentile(99))
+				.append(",\"max\":").append(histogram.getMax()).append('}');
+			separator = ",";
+		}
+		json.append("}}");
+		return new Response(200, json.toString());
+	}
+	
+	private static int intParam(Map<String, String> params, String name, int defaultValue) {
+		String value = params.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Parameter " + name + " must be an integer: " + value);
+		}
+	}
+	
+	/**
+	 * Decode the parameters of a query string, e.g. q=brown+dog&amp;limit=5
+	 */
+	private static Map<String, String> parseParams(String rawQuery) {
+		Map<String, String> params = new HashMap<String, String>();
+		if (rawQuery == null) {
+			return params;
+		}
+		for (String param : rawQuery.split("&")) {
+			if (param.isEmpty()) {
+				continue;
+			}
+			int eq = param.indexOf('=');
+			String name = eq < 0 ? param : param.substring(0, eq);
+			String value = eq < 0 ? "" : param.substring(eq + 1);
+			params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+		return params;
+	}
+	
+	private static String readBody(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+	
+	private static void send(HttpExchange exchange, int status, String json) throws IOException {
+		if (Metrics.ENABLED) {
+			Metrics.counter("http.status." + status).increment();
+		}
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+	
+	private static String error(String message) {
+		return "{\"error\":" + quote(message) + "}";
+	}
+	
+	/**
+	 * Quote a string as a JSON string
+	 */
+	static String quote(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i=0; i<s.length(); ++i) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+	
+	/**
+	 * Handles the requests to a path
+	 */
+	private interface Endpoint {
+		public Response handle(Map<String, String> params, String body) throws Exception;
+	}
+	
+	/**
+	 * The status and JSON body of a response
+	 */
+	private static class Response {
+		
+		private final int status;
+		private final String json;
+		
+		private Response(int status, String json) {
+			this.status = status;
+			this.json = json;
+		}
+	
+	}
+
+}
@@ -0,0 +1,60 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.util.Map;
+
+/**
+ * The commands of the search engine: ADD, SELECT and GET. 
+ * A {@link SearchEngine} runs them on one index, a {@link ShardedSearchEngine} on the shards of an index.
+ *
+ */
+public interface SearchService {
+	
+	/**
+	 * Add a document to the data base and the index
+	 * @param docID Document identifier and file name (including .txt)
+	 * @param text The content of the document
+	 * @throws FileAlreadyExistsException if there already is a document with the identifier
+	 */
+	public void addDocument(String docID, String text) throws FileAlreadyExistsException;
+	
+	/**
+	 * Add documents to the data base and the index, the default adds them one by one
+	 * @param documents the contents of the documents by identifier
+	 * @throws FileAlreadyExistsException if there already is a document with one of the identifiers
+	 */
+	public default void addDocuments(Map<String, String> documents) throws FileAlreadyExistsException {
+		for (Map.Entry<String, String> document : documents.entrySet()) {
+			addDocument(document.getKey(), document.getValue());
+		}
+	}
+	
+	/**
+	 * Select the files in the SELECT {@link Query}, so searches only consider them.
+	 * All files are considered if the query is empty.
+	 * @param selectQuery a query that states the files to use
+	 */
+	public void select(Query selectQuery);
+	
+	/**
+	 * Search for documents that match a query
+	 * @param getQuery {@link Query} of type GET
+	 * @param offset the number of best documents to skip
+	 * @param limit the maximum number of documents to return
+	 * @return The documents ranked offset+1 to offset+limit, sorted by score
+	 */
+	public DocumentList search(Query getQuery, int offset, int limit);
+	
+	/**
+	 * Search for documents that match a query
+	 * @param getQuery {@link Query} of type GET
+	 * @return The {@link SearchEngine#DEFAULT_LIMIT} best documents sorted by score
+	 */
+	public default DocumentList search(Query getQuery) {
+		return search(getQuery, 0, SearchEngine.DEFAULT_LIMIT);
+	}
+
+}
@@ -0,0 +1,187 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An index of immutable segments that can be searched while documents are added.
+ *
+ * New documents are loaded to a write buffer, an {@link InvertedIndex} that only the writer
+ * can see. When the update is done the buffer is published as a segment and a new
+ * {@link IndexSnapshot} of all segments replaces the old one. Searches take the current
+ * snapshot without locking and see the same documents until they are done.
+ * Updates are serialized, a published segment is never changed.
+ *
+ * To keep the number of segments low, the last segment is merged with the segment before it
+ * as long as it has at least as many documents, so there are O(log n) segments and
+ * a document is copied O(log n) times. Merging builds a new segment, the old segments
+ * stay unchanged for the snapshots that still use them.
+ *
+ * A document is deleted with a tombstone, its ordinal is marked as deleted and the snapshots
+ * after it skip its postings. A changed document is deleted and added again with a new ordinal,
+ * in the same update so no snapshot has both versions or none. The postings of deleted documents
+ * are kept, and count in the statistics, like in a data base that is loaded from scratch.
+ *
+ */
+public class SegmentedIndex {
+	
+	/**
+	 * Loads documents to a write buffer
+	 */
+	public interface Update {
+		
+		/**
+		 * Add documents to the buffer with {@link InvertedIndex#addDocument(String)}
+		 * and insert their terms. Documents that are already in the index must not be added,
+		 * unless they are deleted in the same update.
+		 * @param buffer an empty index that continues the ordinals of the index
+		 */
+		public void apply(InvertedIndex buffer);
+	
+	}
+	
+	private static final Histogram UPDATE = Metrics.histogram("index.update");
+	private static final Histogram MERGE = Metrics.histogram("index.merge");
+	
+	// the documents of all segments, the writer adds to it
+	private final DocumentDictionary documents;
+	// the published segments in document order
+	private final List<Segment> segments = new ArrayList<Segment>();
+	// the ordinals of the deleted documents, a new BitSet is published when documents are deleted
+	private BitSet deleted = new BitSet();
+	private volatile IndexSnapshot snapshot;
+	
+	/**
+	 * Create an index with one segment
+	 * @param base the first segment, e.g. the index of the data base
+	 * @param documents the dictionary of the base segment, new documents are added to it
+	 */
+	public SegmentedIndex(IndexReader base, DocumentDictionary documents) {
+		this.documents = documents;
+		segments.add(new Segment(base, base.numberOfDocuments()));
+		publish();
+	}
+	
+	/**
+	 * Get the current snapshot of the index, it doesn't change when documents are added
+	 */
+	public IndexSnapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * Get the ordinal of a document in the index
+	 * @param docId The document identifier, e.g. document name
+	 * @return the ordinal, or -1 if the document is not in the index
+	 */
+	public synchronized int getDocOrdinal(String docId) {
+		return documents.getOrdinal(docId);
+	}
+	
+	/**
+	 * Add documents to a new write buffer and publish it as a segment when the update is done.
+	 * Searches continue on the current snapshot meanwhile.
+	 * If the update throws, the documents that were added before are still published.
+	 * @param update loads the documents to the buffer
+	 */
+	public synchronized void update(Update update) {
+		update(Collections.emptyList(), update);
+	}
+	
+	/**
+	 * Delete documents and add documents to a new write buffer, the snapshot with both
+	 * is published when the update is done. Deleted documents can be added again by the update.
+	 * @param deletions the identifiers of the documents to delete, documents that are not in the index are skipped
+	 * @param update loads the documents to the buffer
+	 */
+	public synchronized void update(Collection<String> deletions, Update update) {
+		long start = Metrics.now();
+		BitSet deleted = this.deleted;
+		for (String docId : deletions) {
+			int doc = documents.remove(docId);
+			if (doc != -1) {
+				if (deleted == this.deleted) {
+					deleted = (BitSet) deleted.clone();
+				}
+				deleted.set(doc);
+			}
+		}
+		int docBase = documents.size();
+		InvertedIndex buffer = new InvertedIndex(documents);
+		try {
+			update.apply(buffer);
+		} finally {
+			int docCount = documents.size() - docBase;
+			if (docCount > 0) {
+				buffer.trim();
+				segments.add(new Segment(buffer, docCount));
+				mergeSegments();
+			}
+			if (docCount > 0 || deleted != this.deleted) {
+				this.deleted = deleted;
+				publish();
+			}
+			UPDATE.recordSince(start);
+		}
+	}
+	
+	/**
+	 * Merge the last segment with the segment before it while it has at least as many documents.
+	 * Only in-memory segments are merged, an index file stays as it is.
+	 */
+	private void mergeSegments() {
+		int last = segments.size() - 1;
+		while (last > 0 && segments.get(last).index instanceof InvertedIndex
+				&& segments.get(last-1).index instanceof InvertedIndex
+				&& segments.get(last).docCount >= segments.get(last-1).docCount) {
+			long start = Metrics.now();
+			Segment second = segments.remove(last);
+			Segment first = segments.remove(last-1);
+			InvertedIndex merged = new InvertedIndex(documents);
+			merged.append((InvertedIndex) first.index);
+			merged.append((InvertedIndex) second.index);
+			merged.trim();
+			segments.add(new Segment(merged, first.docCount + second.docCount));
+			MERGE.recordSince(start);
+			--last;
+		}
+	}
+	
+	private void publish() {
+		IndexReader[] readers = new IndexReader[segments.size()];
+		for (int i=0; i<readers.length; ++i) {
+			readers[i] = segments.get(i).index;
+		}
+		snapshot = new IndexSnapshot(readers, documents.size(), documents, deleted);
+		if (Debug.TRACE) {
+			Debug.log("Published %s", snapshot);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "SegmentedIndex{" + snapshot + "}";
+	}
+	
+	/**
+	 * A published segment and the number of documents in it
+	 */
+	private static class Segment {
+		
+		private final IndexReader index;
+		private final int docCount;
+		
+		private Segment(IndexReader index, int docCount) {
+			this.index = index;
+			this.docCount = docCount;
+		}
+	
+	}
+
+}
@@ -0,0 +1,67 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A shard of a sharded index, the documents whose identifiers hash to it, 
+ * see {@link ShardedSearchEngine#shardOf(String, int)}.
+ * A shard is a {@link SearchEngine} in the same JVM or a {@link RemoteShard} in another process.
+ *
+ */
+public interface Shard extends Closeable {
+	
+	/**
+	 * Get the statistics of the terms a query reads in this shard
+	 * @param getQuery {@link Query} of type GET
+	 * @throws IOException if the shard can't be reached
+	 */
+	public TermStatistics statistics(Query getQuery) throws IOException;
+	
+	/**
+	 * Search the shard with the statistics of all shards
+	 * @param getQuery {@link Query} of type GET
+	 * @param statistics the statistics of the terms of the query in all shards
+	 * @param limit the maximum number of documents to return
+	 * @return the best documents of the shard, sorted by score
+	 * @throws IOException if the shard can't be reached
+	 */
+	public DocumentList search(Query getQuery, TermStatistics statistics, int limit) throws IOException;
+	
+	/**
+	 * Add a document to the shard
+	 * @throws java.nio.file.FileAlreadyExistsException if there already is a document with the identifier
+	 * @throws IOException if the shard can't be reached
+	 */
+	public void addDocument(String docID, String text) throws IOException;
+	
+	/**
+	 * Add documents to the shard, the default adds them one by one
+	 * @param documents the contents of the documents by identifier
+	 * @throws java.nio.file.FileAlreadyExistsException if there already is a document with one of the identifiers
+	 * @throws IOException if the shard can't be reached
+	 */
+	public default void addDocuments(Map<String, String> documents) throws IOException {
+		for (Map.Entry<String, String> document : documents.entrySet()) {
+			addDocument(document.getKey(), document.getValue());
+		}
+	}
+	
+	/**
+	 * Select the files of the shard that are in a SELECT {@link Query}
+	 * @throws IOException if the shard can't be reached
+	 */
+	public void select(Query selectQuery) throws IOException;
+	
+	/**
+	 * Release the resources of the shard
+	 */
+	@Override
+	public default void close() throws IOException {
+	}
+
+}
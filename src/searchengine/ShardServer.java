@@ -0,0 +1,268 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a shard of a sharded index to a {@link ShardedSearchEngine} in another process, over TCP.
+ *
+ * A connection carries one request at a time, a request is an operation byte and its arguments,
+ * and the response a status byte and its result, in the format of {@link DataOutput}:
+ * <pre>
+ * STATISTICS query                  -&gt; OK statistics
+ * SEARCH     statistics limit query -&gt; OK query-text count (document score)*
+ * ADD        docId text             -&gt; OK | EXISTS message
+ * SELECT     query                  -&gt; OK
+ * ADD_ALL    count (docId text)*    -&gt; OK | EXISTS message
+ * </pre>
+ * A query is sent as its tokens, last, so the shard parses it like the coordinator did.
+ * A query the shard can't parse or a search that fails is answered with ERROR and its message,
+ * a request the shard can't read closes the connection. Each connection has its own thread.
+ *
+ */
+public class ShardServer {
+	
+	static final byte STATISTICS = 1;
+	static final byte SEARCH = 2;
+	static final byte ADD = 3;
+	static final byte SELECT = 4;
+	static final byte ADD_ALL = 5;
+	
+	static final byte OK = 0;
+	static final byte ERROR = 1;
+	static final byte EXISTS = 2;
+	
+	private static final Histogram REQUESTS = Metrics.histogram("shard.request");
+	
+	private final SearchEngine shard;
+	private final ServerSocket server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	
+	/**
+	 * Create a server, it is started with {@link #start()}
+	 * @param shard the shard to serve
+	 * @param port the port to listen to, 0 for any free port
+	 * @throws IOException if the port can't be used
+	 */
+	public ShardServer(SearchEngine shard, int port) throws IOException {
+		this.shard = shard;
+		this.server = new ServerSocket(port);
+	}
+	
+	/**
+	 * Accept connections in a background thread
+	 */
+	public void start() {
+		executor.execute(() -> {
+			while (!server.isClosed()) {
+				try {
+					Socket socket = server.accept();
+					executor.execute(() -> serve(socket));
+				} catch (SocketException e) {
+					// the server was stopped
+				} catch (IOException e) {
+					System.err.println("Failed to accept a connection. " + e.getMessage());
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Stop accepting connections and close the open ones
+	 */
+	public void stop() {
+		try {
+			server.close();
+		} catch (IOException e) {
+			System.err.println("Failed to close the shard server. " + e.getMessage());
+		}
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Get the port the server listens to
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+	
+	/**
+	 * Answer the requests of a connection until it is closed
+	 */
+	private void serve(Socket socket) {
+		try (socket) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			while (true) {
+				byte operation;
+				try {
+					operation = in.readByte();
+				} catch (EOFException e) {
+					return;
+				}
+				long start = Metrics.now();
+				try {
+					handle(operation, in, out);
+				} catch (SyntaxException | RuntimeException e) {
+					out.writeByte(ERROR);
+					out.writeUTF(String.valueOf(e.getMessage()));
+				}
+				out.flush();
+				REQUESTS.recordSince(start);
+			}
+		} catch (IOException e) {
+			if (!server.isClosed()) {
+				System.err.println("Failed to serve " + socket.getRemoteSocketAddress() + ". " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Read the arguments of a request and write its response
+	 */
+	private void handle(byte operation, DataInputStream in, DataOutputStream out) throws IOException, SyntaxException {
+		switch (operation) {
+		case STATISTICS: {
+			Query query = readQuery(in);
+			TermStatistics statistics = shard.statistics(query);
+			out.writeByte(OK);
+			statistics.write(out);
+			break;
+		}
+		case SEARCH: {
+			TermStatistics statistics = TermStatistics.read(in);
+			int limit = in.readInt();
+			DocumentList documents = shard.search(readQuery(in), statistics, limit);
+			out.writeByte(OK);
+			writeDocuments(out, documents);
+			break;
+		}
+		case ADD: {
+			String docId = in.readUTF();
+			String text = readString(in);
+			try {
+				shard.addDocument(docId, text);
+				out.writeByte(OK);
+			} catch (FileAlreadyExistsException e) {
+				out.writeByte(EXISTS);
+				out.writeUTF(e.getMessage());
+			}
+			break;
+		}
+		case ADD_ALL: {
+			int count = in.readInt();
+			Map<String, String> documents = new LinkedHashMap<String, String>();
+			for (int i=0; i<count; ++i) {
+				String docId = in.readUTF();
+				documents.put(docId, readString(in));
+			}
+			try {
+				shard.addDocuments(documents);
+				out.writeByte(OK);
+			} catch (FileAlreadyExistsException e) {
+				out.writeByte(EXISTS);
+				out.writeUTF(e.getMessage());
+			}
+			break;
+		}
+		case SELECT:
+			shard.select(readQuery(in));
+			out.writeByte(OK);
+			break;
+		default:
+			throw new IOException("Unknown operation " + operation);
+		}
+	}
+	
+	/**
+	 * Read the tokens of a query and parse them
+	 * @throws IOException if a token can't be read
+	 * @throws SyntaxException if the tokens are not a query, after all of them are read
+	 */
+	private static Query readQuery(DataInput in) throws IOException, SyntaxException {
+		try {
+			QueryType type = QueryType.valueOf(in.readUTF());
+			int size = in.readInt();
+			List<Token> tokens = new ArrayList<Token>(size);
+			for (int i=0; i<size; ++i) {
+				tokens.add(new Token(TokenType.valueOf(in.readUTF()), in.readUTF()));
+			}
+			return new Query(type, tokens);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unknown query or token type. " + e.getMessage(), e);
+		}
+	}
+	
+	static void writeQuery(DataOutput out, Query query) throws IOException {
+		out.writeUTF(query.getType().name());
+		List<Token> tokens = query.getTokens();
+		out.writeInt(tokens.size());
+		for (Token token : tokens) {
+			out.writeUTF(token.getType().name());
+			out.writeUTF(token.getValue());
+		}
+	}
+	
+	private static void writeDocuments(DataOutput out, DocumentList documents) throws IOException {
+		out.writeUTF(documents.getTerm());
+		out.writeInt(documents.size());
+		for (int i=0; i<documents.size(); ++i) {
+			Document document = documents.get(i);
+			out.writeUTF(documents.getDocuments().getName(document.getDocId()));
+			out.writeDouble(document.getScore());
+		}
+	}
+	
+	/**
+	 * Read documents that were written by {@link #writeDocuments(DataOutput, DocumentList)}, with a dictionary of their names
+	 */
+	static TfidfDocumentList readDocuments(DataInput in) throws IOException {
+		String term = in.readUTF();
+		int size = in.readInt();
+		DocumentDictionary documents = new DocumentDictionary();
+		int[] docs = new int[size];
+		double[] scores = new double[size];
+		for (int i=0; i<size; ++i) {
+			docs[i] = documents.add(in.readUTF());
+			scores[i] = in.readDouble();
+		}
+		return new TfidfDocumentList(term, documents, docs, scores, 0, size);
+	}
+	
+	/**
+	 * Write a string of any length, writeUTF only takes 64 KB
+	 */
+	static void writeString(DataOutput out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,309 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Coordinates the shards of an index. The documents are partitioned by the hash of their
+ * identifiers, each shard indexes and searches its own documents, in the same JVM or in a
+ * {@link ShardServer} in another process.
+ *
+ * A search runs in two rounds on all shards in parallel. The first round collects the number of
+ * documents and the document frequencies of the terms the query reads in each shard, and sums them.
+ * The second round sends the sums with the query, so every shard scores its documents with the idf
+ * of the whole index, and returns its offset+limit best documents. The coordinator merges them,
+ * so the results are the same as with one index, except that documents with equal scores are
+ * ordered by their identifiers. A wildcard or fuzzy term expands to at most the maximum number
+ * of terms in each shard, so it can expand to more terms than in one index.
+ *
+ */
+public class ShardedSearchEngine implements SearchService, Closeable {
+	
+	private static final Histogram STATISTICS = Metrics.histogram("shards.statistics");
+	private static final Histogram SEARCH = Metrics.histogram("shards.search");
+	private static final Histogram MERGE = Metrics.histogram("shards.merge");
+	
+	private final Shard[] shards;
+	// sends the requests to the shards
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "shards");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * @param shards the shards, shard i has the documents with {@link #shardOf(String, int)} i
+	 */
+	public ShardedSearchEngine(Shard[] shards) {
+		if (shards.length == 0) {
+			throw new IllegalArgumentException("A sharded index needs at least one shard");
+		}
+		this.shards = shards.clone();
+	}
+	
+	/**
+	 * Load the shards of the data base in this JVM, in parallel
+	 * @param count the number of shards
+	 */
+	public static ShardedSearchEngine local(int count) {
+		ShardedSearchEngine engine = new ShardedSearchEngine(new Shard[count]);
+		List<Future<SearchEngine>> shards = new ArrayList<Future<SearchEngine>>();
+		for (int i=0; i<count; ++i) {
+			int shard = i;
+			shards.add(engine.executor.submit(() -> new SearchEngine(shard, count)));
+		}
+		for (int i=0; i<count; ++i) {
+			engine.shards[i] = engine.get(shards.get(i));
+		}
+		return engine;
+	}
+	
+	/**
+	 * Connect to the shard servers of an index
+	 * @param addresses host:port of each server, separated by commas, in the order of the shards
+	 * @throws IOException if a server can't be reached
+	 * @throws IllegalArgumentException if an address isn't host:port
+	 */
+	public static ShardedSearchEngine remote(String addresses) throws IOException {
+		String[] hosts = addresses.split(",");
+		Shard[] shards = new Shard[hosts.length];
+		try {
+			for (int i=0; i<hosts.length; ++i) {
+				String host = hosts[i].trim();
+				int colon = host.lastIndexOf(':');
+				if (colon < 0) {
+					throw new IllegalArgumentException("The address of a shard must be host:port: " + host);
+				}
+				shards[i] = new RemoteShard(new InetSocketAddress(host.substring(0, colon), 
+						Integer.parseInt(host.substring(colon + 1))));
+			}
+		} catch (IOException | RuntimeException e) {
+			for (Shard shard : shards) {
+				if (shard != null) {
+					shard.close();
+				}
+			}
+			throw e;
+		}
+		return new ShardedSearchEngine(shards);
+	}
+	
+	/**
+	 * Get the shard of a document, the same in every JVM
+	 * @param docId the document identifier
+	 * @param count the number of shards
+	 */
+	public static int shardOf(String docId, int count) {
+		return Math.floorMod(docId.hashCode(), count);
+	}
+	
+	public int numberOfShards() {
+		return shards.length;
+	}
+	
+	/**
+	 * Add a document to its shard
+	 */
+	@Override
+	public void addDocument(String docID, String text) throws FileAlreadyExistsException {
+		try {
+			shards[shardOf(docID, shards.length)].addDocument(docID, text);
+		} catch (FileAlreadyExistsException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to add " + docID + " to its shard. " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Add documents to their shards, each shard adds its documents in one batch, in parallel. 
+	 * A shard adds all or none of its documents, the other shards still add theirs.
+	 */
+	@Override
+	public void addDocuments(Map<String, String> documents) throws FileAlreadyExistsException {
+		List<Map<String, String>> batches = new ArrayList<Map<String, String>>(shards.length);
+		for (int i=0; i<shards.length; ++i) {
+			batches.add(new LinkedHashMap<String, String>());
+		}
+		for (Map.Entry<String, String> document : documents.entrySet()) {
+			batches.get(shardOf(document.getKey(), shards.length)).put(document.getKey(), document.getValue());
+		}
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(shards.length);
+		for (int i=0; i<shards.length; ++i) {
+			Shard shard = shards[i];
+			Map<String, String> batch = batches.get(i);
+			if (!batch.isEmpty()) {
+				futures.add(executor.submit(() -> {
+					shard.addDocuments(batch);
+					return null;
+				}));
+			}
+		}
+		// Wait for all shards, and report the first failure
+		RuntimeException failure = null;
+		for (Future<Void> future : futures) {
+			try {
+				get(future);
+			} catch (RuntimeException e) {
+				failure = failure == null ? e : failure;
+			}
+		}
+		if (failure instanceof UncheckedIOException && failure.getCause() instanceof FileAlreadyExistsException) {
+			throw (FileAlreadyExistsException) failure.getCause();
+		} else if (failure != null) {
+			throw failure;
+		}
+	}
+	
+	/**
+	 * Select the files on all shards, each shard selects the ones it has
+	 */
+	@Override
+	public void select(Query selectQuery) {
+		all(shard -> {
+			shard.select(selectQuery);
+			return null;
+		});
+	}
+	
+	/**
+	 * Search all shards with the statistics of the whole index and merge their best documents
+	 */
+	@Override
+	public DocumentList search(Query getQuery, int offset, int limit) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException(String.format(
+					"Offset and limit must not be negative: offset=%d, limit=%d", offset, limit));
+		}
+		long start = Metrics.now();
+		TermStatistics statistics = null;
+		for (TermStatistics shard : all(shard -> shard.statistics(getQuery))) {
+			if (statistics == null) {
+				statistics = shard;
+			} else {
+				statistics.add(shard);
+			}
+		}
+		STATISTICS.recordSince(start);
+		start = Metrics.now();
+		TermStatistics global = statistics;
+		int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+		List<DocumentList> results = all(shard -> shard.search(getQuery, global, k));
+		SEARCH.recordSince(start);
+		start = Metrics.now();
+		TfidfDocumentList documents = merge(results, offset, limit);
+		MERGE.recordSince(start);
+		return documents;
+	}
+	
+	/**
+	 * Merge the best documents of the shards, by descending score and then by identifier
+	 */
+	private static TfidfDocumentList merge(List<DocumentList> results, int offset, int limit) {
+		List<String> names = new ArrayList<String>();
+		List<Double> scores = new ArrayList<Double>();
+		List<Integer> order = new ArrayList<Integer>();
+		for (DocumentList result : results) {
+			for (int i=0; i<result.size(); ++i) {
+				Document document = result.get(i);
+				order.add(names.size());
+				names.add(result.getDocuments().getName(document.getDocId()));
+				scores.add(document.getScore());
+			}
+		}
+		order.sort((a, b) -> {
+			int compare = Double.compare(scores.get(b), scores.get(a));
+			return compare != 0 ? compare : names.get(a).compareTo(names.get(b));
+		});
+		int from = Math.min(offset, order.size());
+		int size = Math.min(limit, order.size() - from);
+		DocumentDictionary documents = new DocumentDictionary();
+		int[] docs = new int[size];
+		double[] merged = new double[size];
+		for (int i=0; i<size; ++i) {
+			int hit = order.get(from + i);
+			docs[i] = documents.add(names.get(hit));
+			merged[i] = scores.get(hit);
+		}
+		return new TfidfDocumentList(results.get(0).getTerm(), documents, docs, merged, 0, size);
+	}
+	
+	/**
+	 * Send a request to all shards in parallel and wait for their results
+	 * @return the results in the order of the shards
+	 * @throws UncheckedIOException if a shard fails
+	 */
+	private <T> List<T> all(Request<T> request) {
+		List<Future<T>> futures = new ArrayList<Future<T>>(shards.length);
+		for (Shard shard : shards) {
+			futures.add(executor.submit(() -> request.send(shard)));
+		}
+		List<T> results = new ArrayList<T>(shards.length);
+		for (Future<T> future : futures) {
+			results.add(get(future));
+		}
+		return results;
+	}
+	
+	private <T> T get(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a shard.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw new UncheckedIOException("A shard failed. " + cause.getMessage(), (IOException) cause);
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException("A shard failed.", cause);
+		}
+	}
+	
+	/**
+	 * Close the shards
+	 */
+	@Override
+	public void close() {
+		for (Shard shard : shards) {
+			try {
+				shard.close();
+			} catch (IOException e) {
+				System.err.println("Failed to close " + shard + ". " + e.getMessage());
+			}
+		}
+		executor.shutdown();
+	}
+	
+	@Override
+	public String toString() {
+		return "ShardedSearchEngine{shards=" + shards.length + "}";
+	}
+	
+	/**
+	 * A request to a shard
+	 */
+	private interface Request<T> {
+		
+		public T send(Shard shard) throws IOException;
+	
+	}
+
+}
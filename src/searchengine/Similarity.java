@@ -0,0 +1,66 @@
+/**
+ * 
+ */
+package searchengine;
+
+/**
+ * Scores the documents of a query term from its frequency in the document, its document frequency
+ * and the length of the document. The idf is calculated once per term and query, then a scorer
+ * scores each posting from its term frequency and, if it needs it, the norm of its document 
+ * (see {@link Norms}) from the norms array of the index.
+ * Set the similarity with -Dsearchengine.similarity=tfidf|bm25.
+ *
+ */
+public interface Similarity {
+	
+	/**
+	 * Get the idf of a term
+	 * @param docFreq the number of documents that contain the term
+	 * @param numberOfDocuments the number of documents in the index (N)
+	 */
+	public double idf(int docFreq, int numberOfDocuments);
+	
+	/**
+	 * Get the scorer of a term or phrase
+	 * @param idf the idf of the term, the sum of the idf of its terms for a phrase
+	 * @param index the index that is searched, for the norms and the average length of its documents
+	 */
+	public Scorer scorer(double idf, IndexReader index);
+	
+	/**
+	 * Get the similarity with a name
+	 * @param name tfidf or bm25, in any case
+	 * @throws IllegalArgumentException if there is no similarity with the name
+	 */
+	public static Similarity forName(String name) {
+		switch (name.toLowerCase()) {
+		case "tfidf":
+			return new TfidfSimilarity();
+		case "bm25":
+			return new BM25Similarity(BM25Similarity.DEFAULT_K1, BM25Similarity.DEFAULT_B);
+		default:
+			throw new IllegalArgumentException("Unknown similarity " + name + ", use tfidf or bm25");
+		}
+	}
+	
+	/**
+	 * Scores the postings of one term or phrase
+	 */
+	public interface Scorer {
+		
+		/**
+		 * Get the score of a document
+		 * @param doc the document ordinal
+		 * @param freq the term frequency in the document
+		 */
+		public double score(int doc, int freq);
+		
+		/**
+		 * Get an upper bound for the score of any document
+		 * @param maxFreq the highest term frequency in a document
+		 */
+		public double maxScore(int maxFreq);
+	
+	}
+
+}
@@ -0,0 +1,98 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.util.Arrays;
+
+/**
+ * A reusable, growable buffer with the characters of one term.
+ * The {@link Lexer} fills the same buffer for every token, so scanning a document 
+ * doesn't allocate a String per token. Call toString() to keep a term.
+ * 
+ * hashCode() is the same as for a String with the same characters and equals(Object) 
+ * accepts such Strings, so a buffer can be used to look up a key in a Map&lt;String, ?&gt; 
+ * without creating a String. Don't store a buffer in a map or set, it changes.
+ *
+ */
+public class TermBuffer implements CharSequence {
+	
+	private char[] chars = new char[32];
+	private int length = 0;
+	
+	/**
+	 * Append a character to the term
+	 */
+	public void append(char c) {
+		if (length == chars.length) {
+			chars = Arrays.copyOf(chars, length * 2);
+		}
+		chars[length++] = c;
+	}
+	
+	/**
+	 * Empty the buffer so it can be filled with the next term
+	 */
+	public void clear() {
+		length = 0;
+	}
+	
+	@Override
+	public int length() {
+		return length;
+	}
+	
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+		}
+		return chars[index];
+	}
+	
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+	
+	/**
+	 * Check if the term has the same characters as a String or another buffer
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj instanceof String || obj instanceof TermBuffer) {
+			CharSequence other = (CharSequence) obj;
+			if (other.length() != length) {
+				return false;
+			}
+			for (int i=0; i<length; ++i) {
+				if (other.charAt(i) != chars[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * The same hash code as {@link String#hashCode()} of the term
+	 */
+	@Override
+	public int hashCode() {
+		int h = 0;
+		for (int i=0; i<length; ++i) {
+			h = 31 * h + chars[i];
+		}
+		return h;
+	}
+	
+	@Override
+	public String toString() {
+		return new String(chars, 0, length);
+	}
+
+}
@@ -0,0 +1,271 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sorted dictionary of terms, that maps a term to its ordinal in the sort order.
+ * The terms are sorted by their UTF-8 bytes, like in an {@link IndexFile}.
+ *
+ * The terms are front coded in blocks of {@link #BLOCK_SIZE}: the first term of a block is stored
+ * as it is, the others as the length of the prefix they share with the term before and the rest
+ * of their bytes, all in one byte array. Sorted terms share long prefixes, so this takes much less
+ * memory than a String per term. A lookup binary searches the first terms of the blocks and then
+ * decodes one block, ordered iteration and prefix ranges decode the blocks in order.
+ *
+ */
+public class TermDictionary {
+	
+	static final int BLOCK_SIZE = 16;
+	
+	private final int size;
+	// the encoded blocks, where each block starts
+	private final byte[] bytes;
+	private final int[] blockOffsets;
+	
+	/**
+	 * @param terms the terms, sorted by {@link #sort(String[])} and without duplicates
+	 * @throws IllegalArgumentException if the terms are not sorted or a term is there twice
+	 */
+	public TermDictionary(String[] terms) {
+		this.size = terms.length;
+		this.blockOffsets = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+		byte[] bytes = new byte[16];
+		int length = 0;
+		byte[] previous = new byte[0];
+		for (int i=0; i<size; ++i) {
+			byte[] term = terms[i].getBytes(StandardCharsets.UTF_8);
+			if (i > 0 && Arrays.compareUnsigned(previous, term) >= 0) {
+				throw new IllegalArgumentException(String.format(
+						"Term %s comes after term %s, the terms have to be sorted and unique.", terms[i], terms[i-1]));
+			}
+			int prefix = 0;
+			if (i % BLOCK_SIZE == 0) {
+				blockOffsets[i / BLOCK_SIZE] = length;
+			} else {
+				prefix = Arrays.mismatch(previous, term);
+			}
+			if (length + 10 + term.length - prefix > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(length + 10 + term.length - prefix, bytes.length * 2));
+			}
+			if (i % BLOCK_SIZE != 0) {
+				length = VarInt.write(bytes, length, prefix);
+			}
+			length = VarInt.write(bytes, length, term.length - prefix);
+			System.arraycopy(term, prefix, bytes, length, term.length - prefix);
+			length += term.length - prefix;
+			previous = term;
+		}
+		this.bytes = Arrays.copyOf(bytes, length);
+	}
+	
+	/**
+	 * Sort terms in the order of their UTF-8 bytes
+	 */
+	public static void sort(String[] terms) {
+		byte[][] keys = new byte[terms.length][];
+		Integer[] order = new Integer[terms.length];
+		for (int i=0; i<terms.length; ++i) {
+			keys[i] = terms[i].getBytes(StandardCharsets.UTF_8);
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+		String[] sorted = new String[terms.length];
+		for (int i=0; i<terms.length; ++i) {
+			sorted[i] = terms[order[i]];
+		}
+		System.arraycopy(sorted, 0, terms, 0, terms.length);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Get the ordinal of a term
+	 * @return the ordinal, or -1 if the term is not in the dictionary
+	 */
+	public int ordinal(String term) {
+		byte[] key = term.getBytes(StandardCharsets.UTF_8);
+		Cursor cursor = seek(key);
+		return cursor.ordinal < size && cursor.compareTo(key) == 0 ? cursor.ordinal : -1;
+	}
+	
+	/**
+	 * Get the ordinal of the first term that is equal to or after a term
+	 * @return the ordinal, or size() if all terms come before it
+	 */
+	public int ceiling(String term) {
+		return seek(term.getBytes(StandardCharsets.UTF_8)).ordinal;
+	}
+	
+	/**
+	 * Get the term with an ordinal
+	 * @throws IndexOutOfBoundsException if there is no term with the ordinal
+	 */
+	public String term(int ordinal) {
+		if (ordinal < 0 || ordinal >= size) {
+			throw new IndexOutOfBoundsException("Ordinal " + ordinal + " out of bounds for length " + size);
+		}
+		Cursor cursor = new Cursor(ordinal / BLOCK_SIZE);
+		while (cursor.ordinal < ordinal) {
+			cursor.next();
+		}
+		return cursor.term();
+	}
+	
+	/**
+	 * Iterate over the terms in order, from an ordinal
+	 */
+	public Iterator<String> iterator(int from) {
+		Cursor cursor = new Cursor(Math.min(Math.max(from, 0), size) / BLOCK_SIZE);
+		while (cursor.ordinal < from && cursor.ordinal < size) {
+			cursor.next();
+		}
+		return new TermIterator(cursor, new byte[0]);
+	}
+	
+	/**
+	 * Iterate over the terms that start with a prefix, in order
+	 */
+	public Iterator<String> terms(String prefix) {
+		return terms(prefix, prefix);
+	}
+	
+	/**
+	 * Iterate over the terms that start with a prefix, in order from the first one that is equal to or after a term
+	 */
+	public Iterator<String> terms(String prefix, String from) {
+		byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+		byte[] start = from.getBytes(StandardCharsets.UTF_8);
+		return new TermIterator(seek(Arrays.compareUnsigned(start, key) > 0 ? start : key), key);
+	}
+	
+	/**
+	 * Position a cursor on the first term that is equal to or after a key
+	 */
+	private Cursor seek(byte[] key) {
+		// the last block whose first term is not after the key
+		int low = 0;
+		int high = blockOffsets.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (compareFirst(mid, key) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		Cursor cursor = new Cursor(Math.max(high, 0));
+		while (cursor.ordinal < size && cursor.compareTo(key) < 0) {
+			cursor.next();
+		}
+		return cursor;
+	}
+	
+	/**
+	 * Compare the first term of a block with a key, without decoding it
+	 */
+	private int compareFirst(int block, byte[] key) {
+		int offset = blockOffsets[block];
+		int length = VarInt.read(bytes, offset);
+		offset += VarInt.length(length);
+		return Arrays.compareUnsigned(bytes, offset, offset + length, key, 0, key.length);
+	}
+	
+	@Override
+	public String toString() {
+		return "TermDictionary{terms=" + size + ", bytes=" + bytes.length + "}";
+	}
+	
+	/**
+	 * Decodes the terms of the dictionary in order, from the start of a block
+	 */
+	private class Cursor {
+		
+		private int ordinal;
+		// where the next term starts
+		private int offset;
+		// the current term, the first length bytes
+		private byte[] term = new byte[16];
+		private int length = 0;
+		
+		private Cursor(int block) {
+			this.ordinal = block * BLOCK_SIZE - 1;
+			this.offset = block < blockOffsets.length ? blockOffsets[block] : bytes.length;
+			next();
+		}
+		
+		/**
+		 * Move to the next term, the ordinal is size() after the last term
+		 */
+		private void next() {
+			if (++ordinal >= size) {
+				ordinal = size;
+				return;
+			}
+			int prefix = 0;
+			if (ordinal % BLOCK_SIZE != 0) {
+				prefix = VarInt.read(bytes, offset);
+				offset += VarInt.length(prefix);
+			}
+			int suffix = VarInt.read(bytes, offset);
+			offset += VarInt.length(suffix);
+			if (prefix + suffix > term.length) {
+				term = Arrays.copyOf(term, Math.max(prefix + suffix, term.length * 2));
+			}
+			System.arraycopy(bytes, offset, term, prefix, suffix);
+			offset += suffix;
+			length = prefix + suffix;
+		}
+		
+		private int compareTo(byte[] key) {
+			return Arrays.compareUnsigned(term, 0, length, key, 0, key.length);
+		}
+		
+		private boolean startsWith(byte[] prefix) {
+			return length >= prefix.length && Arrays.equals(term, 0, prefix.length, prefix, 0, prefix.length);
+		}
+		
+		private String term() {
+			return new String(term, 0, length, StandardCharsets.UTF_8);
+		}
+	
+	}
+	
+	/**
+	 * Iterates over the terms of the dictionary in order, while they start with a prefix
+	 */
+	private class TermIterator implements Iterator<String> {
+		
+		private final Cursor cursor;
+		private final byte[] prefix;
+		
+		private TermIterator(Cursor cursor, byte[] prefix) {
+			this.cursor = cursor;
+			this.prefix = prefix;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return cursor.ordinal < size && cursor.startsWith(prefix);
+		}
+		
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			String term = cursor.term();
+			cursor.next();
+			return term;
+		}
+	
+	}
+
+}
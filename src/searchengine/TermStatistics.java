@@ -0,0 +1,101 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The number of documents, their total length and the document frequencies of the terms of a query in an index. 
+ * The statistics of the shards of an index are summed to the statistics of the whole index,
+ * so every shard calculates the same idf, see {@link GlobalStatisticsReader}.
+ *
+ */
+public class TermStatistics {
+	
+	private int numberOfDocuments;
+	// the number of terms in the documents
+	private long totalLength;
+	private final Map<String, Integer> docFreqs = new HashMap<String, Integer>();
+	
+	public TermStatistics(int numberOfDocuments, long totalLength) {
+		this.numberOfDocuments = numberOfDocuments;
+		this.totalLength = totalLength;
+	}
+	
+	public int getNumberOfDocuments() {
+		return numberOfDocuments;
+	}
+	
+	public long getTotalLength() {
+		return totalLength;
+	}
+	
+	/**
+	 * Add documents that contain a term
+	 */
+	public void add(String term, int docFreq) {
+		docFreqs.merge(term, docFreq, Integer::sum);
+	}
+	
+	/**
+	 * Add the documents and the document frequencies of other statistics, e.g. of another shard
+	 */
+	public void add(TermStatistics other) {
+		numberOfDocuments += other.numberOfDocuments;
+		totalLength += other.totalLength;
+		for (Map.Entry<String, Integer> entry : other.docFreqs.entrySet()) {
+			add(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Get the number of documents that contain a term
+	 * @return the document frequency, or -1 if the statistics don't have the term
+	 */
+	public int docFreq(String term) {
+		Integer docFreq = docFreqs.get(term);
+		return docFreq == null ? -1 : docFreq;
+	}
+	
+	public Map<String, Integer> getDocFreqs() {
+		return Collections.unmodifiableMap(docFreqs);
+	}
+	
+	/**
+	 * Write the statistics, e.g. to a shard in another process
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(numberOfDocuments);
+		out.writeLong(totalLength);
+		out.writeInt(docFreqs.size());
+		for (Map.Entry<String, Integer> entry : docFreqs.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeInt(entry.getValue());
+		}
+	}
+	
+	/**
+	 * Read statistics that were written with {@link #write(DataOutput)}
+	 */
+	public static TermStatistics read(DataInput in) throws IOException {
+		TermStatistics statistics = new TermStatistics(in.readInt(), in.readLong());
+		int terms = in.readInt();
+		for (int i=0; i<terms; ++i) {
+			statistics.add(in.readUTF(), in.readInt());
+		}
+		return statistics;
+	}
+	
+	@Override
+	public String toString() {
+		return "TermStatistics{documents=" + numberOfDocuments + ", totalLength=" + totalLength 
+				+ ", docFreqs=" + docFreqs + "}";
+	}
+
+}
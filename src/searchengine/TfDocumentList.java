@@ -3,45 +3,364 @@
  */
 package searchengine;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * List of documents that contains a word.
  * Keeps track of the term frequency (tf = the number of times that term t occurs in document d)
  *
+ * The postings are compressed in blocks of {@link BlockPostingsIterator#BLOCK_SIZE} documents:
+ * the gaps between the document ordinals and the term frequencies as {@link VarInt}s, 
+ * with skip data per block. The last postings are kept in a small uncompressed tail until 
+ * it is a full block. Documents have to be added in ordinal order, which is how the index loads them:
+ * all terms of one document are inserted before the next document is read.
+ * The positions of the term in each document are stored with {@link VarInt}s in one byte array,
+ * the first position of a document and then the gaps to the previous position.
+ *
  */
-public class TfDocumentList implements DocumentList {
+public class TfDocumentList implements DocumentList, Postings {
+	
+	private static final int INITIAL_CAPACITY = 4;
+	private static final int BLOCK_SIZE = BlockPostingsIterator.BLOCK_SIZE;
+	private static final byte[] NO_BYTES = new byte[0];
+	private static final int[] NO_INTS = new int[0];
 	
 	private final String term;
-	// maps documents to their term frequency <docId>: <tf>
-	private List<Document> documentTermPairs = new ArrayList<Document>();
+	// maps document ordinals to document names when the list is rendered
+	private final DocumentDictionary documents;
+	// the full blocks, the first blocksSize bytes are in use
+	private byte[] blocks = NO_BYTES;
+	private int blocksSize = 0;
+	// skip data of the full blocks: the last document, where the block starts, where its positions start
+	private int[] blockLastDocs = NO_INTS;
+	private int[] blockOffsets = NO_INTS;
+	private int[] blockPositions = NO_INTS;
+	private int blockCount = 0;
+	// postings <document ordinal>: <tf> after the full blocks, and where their positions start
+	private int[] tailDocs = new int[INITIAL_CAPACITY];
+	private int[] tailFreqs = new int[INITIAL_CAPACITY];
+	private int tailSize = 0;
+	private int tailPositions = 0;
+	private int size = 0;
+	// the encoded positions, the first positionsSize bytes are in use
+	private byte[] positions = new byte[INITIAL_CAPACITY];
+	private int positionsSize = 0;
+	// the last position that was added, the gaps of the last document are relative to it
+	private int lastPosition = 0;
+	// highest tf in the list, an upper bound for the score of a posting
+	private int maxFreq = 0;
+	// the postings in descending tf order, null until sort() is called
+	private Decoded sorted = null;
+	// the block that get(int) decoded last, so reading the list in order decodes each block once.
+	// A block doesn't change once it is encoded, and the cache is replaced as a whole
+	private volatile Decoded decoded = null;
+	// the last calculated idf, null if not calculated. It is replaced as a whole,
+	// so threads that search a published list always see a consistent pair
+	private volatile Idf idf = null;
 	
-	public TfDocumentList(String term) {
+	public TfDocumentList(String term, DocumentDictionary documents) {
 		this.term = term;
+		this.documents = documents;
 	}
 	
 	public TfDocumentList(TfDocumentList other) {
 		this.term = other.getTerm();
-		this.documentTermPairs = other.documentTermPairs;
+		this.documents = other.documents;
+		this.blocks = other.blocks;
+		this.blocksSize = other.blocksSize;
+		this.blockLastDocs = other.blockLastDocs;
+		this.blockOffsets = other.blockOffsets;
+		this.blockPositions = other.blockPositions;
+		this.blockCount = other.blockCount;
+		this.tailDocs = other.tailDocs;
+		this.tailFreqs = other.tailFreqs;
+		this.tailSize = other.tailSize;
+		this.tailPositions = other.tailPositions;
+		this.size = other.size;
+		this.positions = other.positions;
+		this.positionsSize = other.positionsSize;
+		this.lastPosition = other.lastPosition;
+		this.maxFreq = other.maxFreq;
 	}
 	
 	/**
-	 * Add a document to the list and update the term frequencies.
-	 * @param docTerm the document-term pair to add
+	 * Add an occurrence of the term in a document and update the term frequencies.
+	 * Appending to the last document in the list is O(1).
+	 * @param doc the ordinal of the document that contains the term
+	 * @param position the position of the term in the document, not lower than 
+	 * the last position if it is the last document
+	 * @throws IllegalArgumentException if doc is lower than the last document,
+	 * or position is lower than the last position in the same document
 	 */
-	public void add(Document docTerm) {
-		int index = documentTermPairs.indexOf(docTerm);
-		if (index == -1) {
+	public void add(int doc, int position) {
+		sorted = null;
+		if (size > 0 && tailDocs[tailSize-1] == doc) {
+			if (position < lastPosition) {
+				throw new IllegalArgumentException(String.format(
+						"Position %d was added after position %d in document %d.", position, lastPosition, doc));
+			}
+			// Same document as the last posting, update the term frequency
+			++tailFreqs[tailSize-1];
+			maxFreq = Math.max(maxFreq, tailFreqs[tailSize-1]);
+			addPosition(position - lastPosition);
+		}
+		else if (size == 0 || tailDocs[tailSize-1] < doc) {
 			// Add a <document, term> pair to the list
-			documentTermPairs.add(docTerm);
+			append(doc, 1, positionsSize);
+			addPosition(position);
+			// the document frequency changed
+			idf = null;
 		} else {
-			// Update the term frequency
-			Double oldTf = documentTermPairs.get(index).getScore();
-			docTerm.setScore(oldTf + docTerm.getScore());
-			documentTermPairs.set(index, docTerm);
+			throw new IllegalArgumentException(String.format(
+					"Document %d was added after document %d.", doc, tailDocs[tailSize-1]));
+		}
+		lastPosition = position;
+	}
+	
+	private void addPosition(int gap) {
+		if (positionsSize + 5 > positions.length) {
+			positions = Arrays.copyOf(positions, Math.max(positionsSize + 5, positions.length * 2));
+		}
+		positionsSize = VarInt.write(positions, positionsSize, gap);
+	}
+	
+	/**
+	 * Append a posting after the last one, the tail is compressed to a block when it is full
+	 * @param positionStart where the positions of the posting start
+	 */
+	private void append(int doc, int freq, int positionStart) {
+		if (tailSize == BLOCK_SIZE) {
+			flushTail();
+		}
+		if (tailSize == 0) {
+			tailPositions = positionStart;
+		}
+		if (tailSize == tailDocs.length) {
+			int capacity = Math.min(Math.max(tailSize + (tailSize >> 1) + 1, INITIAL_CAPACITY), BLOCK_SIZE);
+			tailDocs = Arrays.copyOf(tailDocs, capacity);
+			tailFreqs = Arrays.copyOf(tailFreqs, capacity);
+		}
+		tailDocs[tailSize] = doc;
+		tailFreqs[tailSize] = freq;
+		++tailSize;
+		++size;
+		maxFreq = Math.max(maxFreq, freq);
+	}
+	
+	/**
+	 * Compress the tail to a block
+	 */
+	private void flushTail() {
+		if (blockCount == blockLastDocs.length) {
+			int capacity = blockCount + (blockCount >> 1) + 1;
+			blockLastDocs = Arrays.copyOf(blockLastDocs, capacity);
+			blockOffsets = Arrays.copyOf(blockOffsets, capacity);
+			blockPositions = Arrays.copyOf(blockPositions, capacity);
+		}
+		// a VarInt takes at most 5 bytes
+		int maxBytes = 2 * 5 * tailSize;
+		if (blocksSize + maxBytes > blocks.length) {
+			blocks = Arrays.copyOf(blocks, Math.max(blocksSize + maxBytes, blocks.length + (blocks.length >> 1)));
+		}
+		int base = blockCount == 0 ? 0 : blockLastDocs[blockCount-1];
+		blockLastDocs[blockCount] = tailDocs[tailSize-1];
+		blockOffsets[blockCount] = blocksSize;
+		blockPositions[blockCount] = tailPositions;
+		++blockCount;
+		blocksSize = encode(tailDocs, tailFreqs, tailSize, base, blocks, blocksSize);
+		// copies and iterators may still read the old tail
+		tailDocs = new int[BLOCK_SIZE];
+		tailFreqs = new int[BLOCK_SIZE];
+		tailSize = 0;
+	}
+	
+	/**
+	 * Encode postings as a block
+	 * @param base the last document of the block before, or 0
+	 * @return the offset after the block
+	 */
+	private static int encode(int[] docs, int[] freqs, int count, int base, byte[] bytes, int offset) {
+		int previous = base;
+		for (int i=0; i<count; ++i) {
+			offset = VarInt.write(bytes, offset, docs[i] - previous);
+			previous = docs[i];
+		}
+		for (int i=0; i<count; ++i) {
+			offset = VarInt.write(bytes, offset, freqs[i]);
 		}
+		return offset;
+	}
+	
+	/**
+	 * Append the postings of another list, with ordinals shifted by docBase.
+	 * @param other the postings of the same term in another index
+	 * @param docBase added to the ordinals of the other list, 
+	 * the shifted ordinals have to come after the documents in this list
+	 * @throws IllegalArgumentException if the shifted documents would not come last
+	 */
+	public void addAll(TfDocumentList other, int docBase) {
+		if (other.size == 0) {
+			return;
+		}
+		PostingsIterator postings = other.iterator();
+		int first = postings.nextDoc() + docBase;
+		if (size > 0 && first <= tailDocs[tailSize-1]) {
+			throw new IllegalArgumentException(String.format(
+					"Document %d was added after document %d.", first, tailDocs[tailSize-1]));
+		}
+		sorted = null;
+		idf = null;
+		// the positions are copied as they are, only where each block starts is needed
+		int positionStart = 0;
+		for (int doc = first - docBase; doc != PostingsIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+			append(doc + docBase, postings.freq(), positionsSize + positionStart);
+			positionStart = skipPositions(other.positions, positionStart, postings.freq());
+		}
+		if (positionsSize + other.positionsSize > positions.length) {
+			positions = Arrays.copyOf(positions, positionsSize + other.positionsSize);
+		}
+		System.arraycopy(other.positions, 0, positions, positionsSize, other.positionsSize);
+		positionsSize += other.positionsSize;
+		lastPosition = other.lastPosition;
+	}
+	
+	/**
+	 * Skip a number of VarInts
+	 * @return the offset after them
+	 */
+	private static int skipPositions(byte[] bytes, int offset, int count) {
+		while (count > 0) {
+			if (bytes[offset++] >= 0) {
+				--count;
+			}
+		}
+		return offset;
+	}
+	
+	/**
+	 * Release the capacity that isn't used, e.g. when the list won't change anymore.
+	 * Postings can still be added afterwards.
+	 */
+	public void trim() {
+		blocks = Arrays.copyOf(blocks, blocksSize);
+		blockLastDocs = Arrays.copyOf(blockLastDocs, blockCount);
+		blockOffsets = Arrays.copyOf(blockOffsets, blockCount);
+		blockPositions = Arrays.copyOf(blockPositions, blockCount);
+		tailDocs = Arrays.copyOf(tailDocs, Math.max(tailSize, 1));
+		tailFreqs = Arrays.copyOf(tailFreqs, Math.max(tailSize, 1));
+		positions = Arrays.copyOf(positions, positionsSize);
+	}
+	
+	/**
+	 * Get the size of the postings in an index file, see {@link #write(DataOutput)}
+	 */
+	int encodedSize() {
+		int tailBytes = tailSize == 0 ? 0 : encode(tailDocs, tailFreqs, tailSize, lastBlockDoc(), new byte[10 * tailSize], 0);
+		return 2 * Integer.BYTES + 3 * Integer.BYTES * (blockCount + (tailSize > 0 ? 1 : 0))
+				+ blocksSize + tailBytes + positionsSize;
+	}
+	
+	/**
+	 * Write the postings as they are stored in an index file: the number of blocks, the size of the blocks,
+	 * the skip data of each block (last document, offset, positions offset), the blocks and the positions.
+	 * The tail is written as the last block.
+	 */
+	void write(DataOutput out) throws IOException {
+		byte[] tail = new byte[10 * tailSize];
+		int tailBytes = tailSize == 0 ? 0 : encode(tailDocs, tailFreqs, tailSize, lastBlockDoc(), tail, 0);
+		out.writeInt(blockCount + (tailSize > 0 ? 1 : 0));
+		out.writeInt(blocksSize + tailBytes);
+		for (int b=0; b<blockCount; ++b) {
+			out.writeInt(blockLastDocs[b]);
+			out.writeInt(blockOffsets[b]);
+			out.writeInt(blockPositions[b]);
+		}
+		if (tailSize > 0) {
+			out.writeInt(tailDocs[tailSize-1]);
+			out.writeInt(blocksSize);
+			out.writeInt(tailPositions);
+		}
+		out.write(blocks, 0, blocksSize);
+		out.write(tail, 0, tailBytes);
+		out.write(positions, 0, positionsSize);
+	}
+	
+	private int lastBlockDoc() {
+		return blockCount == 0 ? 0 : blockLastDocs[blockCount-1];
+	}
+	
+	/**
+	 * Decode a full block
+	 * @param base the last document of the block before, or 0
+	 */
+	private static void decode(byte[] bytes, int offset, int base, int[] docs, int[] freqs) {
+		int doc = base;
+		for (int i=0; i<BLOCK_SIZE; ++i) {
+			int value = bytes[offset++];
+			if (value < 0) {
+				value &= 0x7f;
+				int b;
+				int shift = 7;
+				do {
+					b = bytes[offset++];
+					value |= (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+			}
+			doc += value;
+			docs[i] = doc;
+		}
+		for (int i=0; i<BLOCK_SIZE; ++i) {
+			int value = bytes[offset++];
+			if (value < 0) {
+				value &= 0x7f;
+				int b;
+				int shift = 7;
+				do {
+					b = bytes[offset++];
+					value |= (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+			}
+			freqs[i] = value;
+		}
+	}
+	
+	@Override
+	public int getMaxFreq() {
+		return maxFreq;
+	}
+	
+	/**
+	 * Get the idf of the term, it is only calculated when a document was added to the list
+	 * or the number of documents has changed since the last call, 
+	 * so it is O(1) and usually doesn't allocate
+	 * @param numberOfDocuments the number of documents in the index (N)
+	 * @return log(N / #documents in this list)
+	 */
+	@Override
+	public double getIdf(int numberOfDocuments) {
+		Idf idf = this.idf;
+		if (idf == null || idf.numberOfDocuments != numberOfDocuments) {
+			idf = new Idf(numberOfDocuments, Math.log10((double) numberOfDocuments / Math.max(size, 1)));
+			this.idf = idf;
+		}
+		return idf.value;
+	}
+	
+	@Override
+	public PostingsIterator iterator() {
+		return new Iterator();
+	}
+	
+	/**
+	 * Get the dictionary of the documents in this list
+	 */
+	@Override
+	public DocumentDictionary getDocuments() {
+		return documents;
 	}
 	
 	@Override
@@ -49,35 +368,167 @@ public class TfDocumentList implements DocumentList {
 		return term;
 	}
 	
+	/**
+	 * Get a view of the posting at an index, in tf order if the list has been sorted
+	 */
 	@Override
 	public Document get(int index) {
-		return documentTermPairs.get(index);
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+		}
+		if (sorted != null) {
+			return new Document(sorted.docs[index], sorted.freqs[index]);
+		}
+		int block = index / BLOCK_SIZE;
+		if (block == blockCount) {
+			return new Document(tailDocs[index % BLOCK_SIZE], tailFreqs[index % BLOCK_SIZE]);
+		}
+		Decoded cached = decoded;
+		if (cached == null || cached.block != block) {
+			cached = new Decoded(block, new int[BLOCK_SIZE], new int[BLOCK_SIZE]);
+			decode(blocks, blockOffsets[block], block == 0 ? 0 : blockLastDocs[block-1], cached.docs, cached.freqs);
+			decoded = cached;
+		}
+		return new Document(cached.docs[index % BLOCK_SIZE], cached.freqs[index % BLOCK_SIZE]);
 	}
 	
 	@Override
 	public int size() {
-		return documentTermPairs.size();
+		return size;
 	}
 	
 	/**
-	 * Sort the DocumentList in descending order based on the term frequency (tf)
+	 * Sort the DocumentList in descending order based on the term frequency (tf).
+	 * The postings themselves stay in document order, the get(int) view is a decoded copy in tf order.
 	 */
 	@Override
 	public void sort() {
-		Collections.sort(documentTermPairs, Collections.reverseOrder());
+		// Pack <tf, position> in a long so a primitive sort gives a stable descending order
+		long[] keys = new long[size];
+		int[] docs = new int[size];
+		PostingsIterator postings = iterator();
+		for (int i=0; postings.nextDoc() != PostingsIterator.NO_MORE_DOCS; ++i) {
+			docs[i] = postings.docId();
+			keys[i] = ((long) postings.freq() << 32) | (~i & 0xffffffffL);
+		}
+		Arrays.sort(keys);
+		Decoded sorted = new Decoded(-1, new int[size], new int[size]);
+		for (int i=0; i<size; ++i) {
+			long key = keys[size-1-i];
+			sorted.docs[i] = docs[~(int) key];
+			sorted.freqs[i] = (int) (key >>> 32);
+		}
+		this.sorted = sorted;
 	}
 	
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("[");
-		for (int i=0; i < documentTermPairs.size(); ++i) {
-			if (i > 0)
-				sb.append(", ");
-			sb.append(documentTermPairs.get(i).toString());
+		if (sorted != null) {
+			for (int i=0; i < size; ++i) {
+				if (i > 0)
+					sb.append(", ");
+				sb.append(get(i).toString(documents));
+			}
+		} else {
+			PostingsIterator postings = iterator();
+			for (int i=0; postings.nextDoc() != PostingsIterator.NO_MORE_DOCS; ++i) {
+				if (i > 0)
+					sb.append(", ");
+				sb.append(new Document(postings.docId(), postings.freq()).toString(documents));
+			}
 		}
 		sb.append("]");
 		return sb.toString();
 	}
 	
+	/**
+	 * Iterates over the postings that were in the list when it was created
+	 */
+	private class Iterator extends BlockPostingsIterator {
+		
+		// the arrays are only appended to or replaced, so the state when the iterator 
+		// was created stays readable while more postings are added
+		private final byte[] blocks = TfDocumentList.this.blocks;
+		private final int[] blockLastDocs = TfDocumentList.this.blockLastDocs;
+		private final int[] blockOffsets = TfDocumentList.this.blockOffsets;
+		private final int[] blockPositions = TfDocumentList.this.blockPositions;
+		private final int blockCount = TfDocumentList.this.blockCount;
+		private final int[] tailDocs = TfDocumentList.this.tailDocs;
+		private final int[] tailFreqs = TfDocumentList.this.tailFreqs;
+		private final int tailSize = TfDocumentList.this.tailSize;
+		private final int tailPositions = TfDocumentList.this.tailPositions;
+		private final byte[] positions = TfDocumentList.this.positions;
+		
+		private Iterator() {
+			super(TfDocumentList.this.blockCount + (TfDocumentList.this.tailSize > 0 ? 1 : 0), size);
+		}
+		
+		@Override
+		protected int lastDoc(int block) {
+			return block < blockCount ? blockLastDocs[block] : tailDocs[tailSize-1];
+		}
+		
+		@Override
+		protected int decode(int block, int[] docs, int[] freqs) {
+			if (block == blockCount) {
+				System.arraycopy(tailDocs, 0, docs, 0, tailSize);
+				System.arraycopy(tailFreqs, 0, freqs, 0, tailSize);
+				return tailSize;
+			}
+			TfDocumentList.decode(blocks, blockOffsets[block], block == 0 ? 0 : blockLastDocs[block-1], docs, freqs);
+			return BLOCK_SIZE;
+		}
+		
+		@Override
+		protected int positionsStart(int block) {
+			return block < blockCount ? blockPositions[block] : tailPositions;
+		}
+		
+		@Override
+		protected int readPosition(int offset) {
+			return VarInt.read(positions, offset);
+		}
+		
+		@Override
+		protected int skipPositions(int offset, int count) {
+			return TfDocumentList.skipPositions(positions, offset, count);
+		}
+	
+	}
+	
+	/**
+	 * Decoded postings of a block, or of the whole list in tf order
+	 */
+	private static class Decoded {
+		
+		// the block, -1 for the whole list
+		private final int block;
+		private final int[] docs;
+		private final int[] freqs;
+		
+		private Decoded(int block, int[] docs, int[] freqs) {
+			this.block = block;
+			this.docs = docs;
+			this.freqs = freqs;
+		}
+	
+	}
+	
+	/**
+	 * An idf and the number of documents it was calculated for
+	 */
+	private static class Idf {
+		
+		private final int numberOfDocuments;
+		private final double value;
+		
+		private Idf(int numberOfDocuments, double value) {
+			this.numberOfDocuments = numberOfDocuments;
+			this.value = value;
+		}
+	
+	}
+
 }
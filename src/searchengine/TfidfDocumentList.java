@@ -3,32 +3,57 @@
  */
 package searchengine;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * A DocumentList where the document-term pairs have tf-idf scores.
- * Create a tf-idf list from a {@link TfDocumentList} with tf scores.
+ * A DocumentList where the document-term pairs have scores, tf-idf or BM25 (see {@link Similarity}).
+ * Create a scored list from a {@link TfDocumentList} with tf scores,
+ * or from the hits of a search.
  *
  */
 public class TfidfDocumentList implements DocumentList {
 	
 	private final String term;
-	// maps documents to their term frequency <docId>: <tf-idf>
-	private List<Document> documentTermPairs = new ArrayList<Document>();
+	private final DocumentDictionary documents;
+	// documents and their scores <docId>: <score>
+	private int[] docs;
+	private double[] scores;
 	
-	public TfidfDocumentList(TfDocumentList docList, Double idf) {
+	public TfidfDocumentList(TfDocumentList docList, double idf) {
+		this(docList, new TfidfSimilarity().scorer(idf, null));
+	}
+	
+	/**
+	 * Score the documents of a term
+	 * @param docList the documents with their tf
+	 * @param scorer the scorer of the term, see {@link Similarity#scorer(double, IndexReader)}
+	 */
+	public TfidfDocumentList(TfDocumentList docList, Similarity.Scorer scorer) {
 		this.term = docList.getTerm();
-		Document dt;
-		for (int i=0; i<docList.size(); ++i) {
-			dt = docList.get(i);
-			documentTermPairs.add(new Document(dt.getDocId(), tfidf(dt.getScore(), idf)));
+		this.documents = docList.getDocuments();
+		this.docs = new int[docList.size()];
+		this.scores = new double[docList.size()];
+		PostingsIterator postings = docList.iterator();
+		for (int i=0; postings.nextDoc() != PostingsIterator.NO_MORE_DOCS; ++i) {
+			docs[i] = postings.docId();
+			scores[i] = scorer.score(docs[i], postings.freq());
 		}
 	}
 	
-	private static Double tfidf(Double tf, Double idf) {
-		return tf*idf;
+	/**
+	 * Create a tf-idf list from documents that already have been scored
+	 * @param term the query the documents match
+	 * @param documents the dictionary of the document ordinals
+	 * @param docs document ordinals
+	 * @param scores the scores, parallel to docs
+	 * @param from the first document to use from the arrays
+	 * @param size the number of documents to use from the arrays
+	 */
+	public TfidfDocumentList(String term, DocumentDictionary documents, int[] docs, double[] scores, int from, int size) {
+		this.term = term;
+		this.documents = documents;
+		this.docs = Arrays.copyOfRange(docs, from, from + size);
+		this.scores = Arrays.copyOfRange(scores, from, from + size);
 	}
 	
 	@Override
@@ -38,25 +63,44 @@ public class TfidfDocumentList implements DocumentList {
 	
 	@Override
 	public Document get(int index) {
-		return documentTermPairs.get(index);
+		return new Document(docs[index], scores[index]);
+	}
+	
+	@Override
+	public DocumentDictionary getDocuments() {
+		return documents;
 	}
 	
 	@Override
 	public int size() {
-		return documentTermPairs.size();
+		return docs.length;
 	}
 	
 	/**
-	 * Sort the DocumentList in descending order based on tf-idf
+	 * Sort the DocumentList in descending order based on the scores
 	 */
 	@Override
 	public void sort() {
-		Collections.sort(documentTermPairs, Collections.reverseOrder());
+		TopDocs topDocs = new TopDocs(docs.length);
+		for (int i=0; i<docs.length; ++i) {
+			topDocs.insert(docs[i], scores[i]);
+		}
+		TfidfDocumentList sorted = topDocs.toDocumentList(term, documents, 0);
+		docs = sorted.docs;
+		scores = sorted.scores;
 	}
 	
 	@Override
 	public String toString() {
-		return "TfidfDocumentList{ " + documentTermPairs.toString() + " }";
+		StringBuilder sb = new StringBuilder();
+		sb.append("TfidfDocumentList{ [");
+		for (int i=0; i < docs.length; ++i) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(get(i).toString(documents));
+		}
+		sb.append("] }");
+		return sb.toString();
 	}
 
 }
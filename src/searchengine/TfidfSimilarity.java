@@ -0,0 +1,50 @@
+/**
+ * 
+ */
+package searchengine;
+
+/**
+ * The tf-idf of a term in a document: tf * log10(N / df). The length of the document is not used.
+ *
+ */
+public class TfidfSimilarity implements Similarity {
+	
+	@Override
+	public double idf(int docFreq, int numberOfDocuments) {
+		return Math.log10((double) numberOfDocuments / Math.max(docFreq, 1));
+	}
+	
+	@Override
+	public Scorer scorer(double idf, IndexReader index) {
+		return new TfidfScorer(idf);
+	}
+	
+	@Override
+	public String toString() {
+		return "tfidf";
+	}
+	
+	/**
+	 * Scores a posting with tf * idf
+	 */
+	private static class TfidfScorer implements Scorer {
+		
+		private final double idf;
+		
+		private TfidfScorer(double idf) {
+			this.idf = idf;
+		}
+		
+		@Override
+		public double score(int doc, int freq) {
+			return freq * idf;
+		}
+		
+		@Override
+		public double maxScore(int maxFreq) {
+			return maxFreq * idf;
+		}
+	
+	}
+
+}
@@ -9,5 +9,9 @@ package searchengine;
  */
 public enum TokenType {
 	GET, ADD, EXIT, SELECT, 
-	FILENAME, WORD, PERIOD
+	FILENAME, WORD, PERIOD,
+	// the quotes around a phrase in a query, and the slop after it: "brown dog"~2
+	QUOTE, SLOP,
+	// the operators and parentheses of a Boolean query: (brown OR red) AND fox NOT lazy
+	AND, OR, NOT, LPAREN, RPAREN
 }
@@ -0,0 +1,127 @@
+/**
+ * 
+ */
+package searchengine;
+
+/**
+ * Keeps the k documents with the highest scores in a bounded min-heap of primitives.
+ * Adding n documents costs O(n log k) and allocates nothing after construction.
+ * Documents are expected in increasing order, so on equal scores 
+ * the document that was added first ranks higher.
+ *
+ */
+public class TopDocs {
+	
+	private final int k;
+	private final int[] docs;
+	private final double[] scores;
+	private int size = 0;
+	
+	/**
+	 * @param k the maximum number of documents to keep
+	 */
+	public TopDocs(int k) {
+		if (k < 0) {
+			throw new IllegalArgumentException("k must not be negative: " + k);
+		}
+		this.k = k;
+		this.docs = new int[k];
+		this.scores = new double[k];
+	}
+	
+	/**
+	 * Get the score a document has to beat to be added, 
+	 * negative infinity while there are less than k documents
+	 */
+	public double threshold() {
+		return size < k ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+	
+	/**
+	 * Add a document if it is among the k best so far
+	 * @param doc the document ordinal
+	 * @param score the document's score
+	 * @return true if the document was added
+	 */
+	public boolean insert(int doc, double score) {
+		if (size < k) {
+			docs[size] = doc;
+			scores[size] = score;
+			siftUp(size++);
+			return true;
+		}
+		if (k == 0 || score <= scores[0]) {
+			return false;
+		}
+		docs[0] = doc;
+		scores[0] = score;
+		siftDown(0, size);
+		return true;
+	}
+	
+	/**
+	 * Get the number of documents in the heap
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Empty the heap into a list sorted by descending score.
+	 * @param term the query the documents match
+	 * @param documents the dictionary of the document ordinals
+	 * @param offset the number of top documents to leave out of the list
+	 * @return the documents ranked offset+1 to k
+	 */
+	public TfidfDocumentList toDocumentList(String term, DocumentDictionary documents, int offset) {
+		int n = size;
+		// heap sort, the best document ends up first
+		for (int end=size-1; end>0; --end) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+		size = 0;
+		int from = Math.min(offset, n);
+		return new TfidfDocumentList(term, documents, docs, scores, from, n - from);
+	}
+	
+	// a ranks below b: lower score, or equal score and added later
+	private boolean lessThan(int a, int b) {
+		return scores[a] < scores[b] || (scores[a] == scores[b] && docs[a] > docs[b]);
+	}
+	
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!lessThan(i, parent)) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+	
+	private void siftDown(int i, int end) {
+		while (2*i + 1 < end) {
+			int child = 2*i + 1;
+			if (child + 1 < end && lessThan(child + 1, child)) {
+				++child;
+			}
+			if (!lessThan(child, i)) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+	
+	private void swap(int i, int j) {
+		int doc = docs[i];
+		docs[i] = docs[j];
+		docs[j] = doc;
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+
+}
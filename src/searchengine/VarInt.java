@@ -0,0 +1,71 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-byte encoding of non-negative ints: 7 bits per byte, low bits first,
+ * the high bit is set on every byte but the last. Small numbers, like the gaps between
+ * the positions of a term in a document, take one byte instead of four.
+ *
+ */
+final class VarInt {
+	
+	private VarInt() {
+	}
+	
+	/**
+	 * Get the number of bytes of an encoded value
+	 */
+	static int length(int value) {
+		int length = 1;
+		while ((value >>>= 7) != 0) {
+			++length;
+		}
+		return length;
+	}
+	
+	/**
+	 * Write a value to an array that has room for it
+	 * @return the offset after the value
+	 */
+	static int write(byte[] bytes, int offset, int value) {
+		while ((value & ~0x7f) != 0) {
+			bytes[offset++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		bytes[offset++] = (byte) value;
+		return offset;
+	}
+	
+	/**
+	 * Read the value at an offset, it takes {@link #length(int)} bytes
+	 */
+	static int read(byte[] bytes, int offset) {
+		int value = 0;
+		for (int shift=0; ; shift+=7) {
+			byte b = bytes[offset++];
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+	
+	/**
+	 * Read the value at an absolute offset of a buffer, it takes {@link #length(int)} bytes
+	 */
+	static int read(ByteBuffer buffer, int offset) {
+		int value = 0;
+		for (int shift=0; ; shift+=7) {
+			byte b = buffer.get(offset++);
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+}
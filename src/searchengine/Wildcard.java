@@ -0,0 +1,83 @@
+/**
+ * 
+ */
+package searchengine;
+
+/**
+ * A term with wildcards in a GET query: * stands for any number of characters, ? for one character (code point),
+ * e.g. bro* or b?own. The terms of the index that match it are searched, see {@link IndexReader#expand(Wildcard, int)}.
+ *
+ */
+public class Wildcard {
+	
+	private final String pattern;
+	// the characters before the first wildcard, the terms that match start with them
+	private final String prefix;
+	
+	/**
+	 * @param pattern a lowercased term with * or ?
+	 */
+	public Wildcard(String pattern) {
+		this.pattern = pattern;
+		int wildcard = 0;
+		while (wildcard < pattern.length() && !isWildcard(pattern.charAt(wildcard))) {
+			++wildcard;
+		}
+		this.prefix = pattern.substring(0, wildcard);
+	}
+	
+	/**
+	 * Check if a word of a query has a wildcard
+	 */
+	public static boolean hasWildcard(String word) {
+		return word.indexOf('*') >= 0 || word.indexOf('?') >= 0;
+	}
+	
+	private static boolean isWildcard(char c) {
+		return c == '*' || c == '?';
+	}
+	
+	public String getPrefix() {
+		return prefix;
+	}
+	
+	/**
+	 * Check if a term matches the pattern. A * is matched with as few characters as possible
+	 * and extended when the rest doesn't match, so it only backtracks to the last *.
+	 */
+	public boolean matches(String term) {
+		int p = 0;
+		int t = 0;
+		// the last * in the pattern, and where the characters it matches end
+		int star = -1;
+		int starEnd = 0;
+		while (t < term.length()) {
+			if (p < pattern.length() && pattern.charAt(p) == '?') {
+				++p;
+				t += Character.charCount(term.codePointAt(t));
+			} else if (p < pattern.length() && pattern.charAt(p) == term.charAt(t)) {
+				++p;
+				++t;
+			} else if (p < pattern.length() && pattern.charAt(p) == '*') {
+				star = p++;
+				starEnd = t;
+			} else if (star >= 0) {
+				p = star + 1;
+				starEnd += Character.charCount(term.codePointAt(starEnd));
+				t = starEnd;
+			} else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*') {
+			++p;
+		}
+		return p == pattern.length();
+	}
+	
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+}
@@ -0,0 +1,509 @@
+/**
+ * 
+ */
+package searchengine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the documents that are added, so an added document is durable as soon as
+ * it is in the log, before it is written to the data base.
+ *
+ * The log is written with group commit: an append puts its records in a queue and waits, one thread
+ * takes all records that are waiting, up to the batch size and after waiting up to the sync interval
+ * for more, writes them with one write and one fsync, and passes them to the {@link Listener}
+ * before the appends return. The cost of an fsync is shared by all documents added meanwhile.
+ *
+ * When the log is larger than the checkpoint size it is renamed to &lt;log&gt;.old and a new log is started.
+ * A background thread passes the records of the old log to the listener, which writes the documents
+ * to the data base and syncs them, and then deletes the old log. So the files of many documents are
+ * written together, without a commit waiting for them.
+ *
+ * A record is the length and CRC32 of its payload, followed by the payload: the length and UTF-8 bytes
+ * of the document identifier and the length and bytes of the text. A crash while a record is written
+ * leaves a torn record at the end of the log, it is dropped when the log is read.
+ *
+ */
+public class WriteAheadLog implements Closeable {
+	
+	/**
+	 * Applies the records of the log
+	 */
+	public interface Listener {
+		
+		/**
+		 * Records are durable in the log, add their documents to the index.
+		 * Called from the commit thread, the appends return when it is done. If this fails the appends fail
+		 * with an IllegalStateException, but the records stay in the log and are written to the data base at the checkpoint.
+		 * @param records the records of the commit, in the order they were appended
+		 */
+		public void committed(List<Record> records);
+		
+		/**
+		 * Write the documents of records to the data base and sync them, the records are deleted afterwards.
+		 * Called from the checkpoint thread while new records are committed.
+		 * @param records the records of the old log, in the order they were appended
+		 * @throws IOException if a document can't be written, the old log is kept and checkpointed again
+		 */
+		public void checkpoint(List<Record> records) throws IOException;
+	
+	}
+	
+	/**
+	 * A document in the log
+	 */
+	public static class Record {
+		
+		private final String docId;
+		private final byte[] text;
+		
+		/**
+		 * @param docId the document identifier
+		 * @param text the content of the document, in the bytes of its file
+		 */
+		public Record(String docId, byte[] text) {
+			this.docId = docId;
+			this.text = text;
+		}
+		
+		public String getDocId() {
+			return docId;
+		}
+		
+		public byte[] getText() {
+			return text;
+		}
+	
+	}
+	
+	private static final Histogram COMMIT = Metrics.histogram("wal.commit");
+	private static final Histogram CHECKPOINT = Metrics.histogram("wal.checkpoint");
+	private static final LongAdder COMMITS = Metrics.counter("wal.commits");
+	private static final LongAdder RECORDS = Metrics.counter("wal.records");
+	
+	// length and checksum of a record
+	private static final int HEADER_SIZE = 8;
+	
+	private final Path path;
+	// the log that is checkpointed
+	private final Path oldPath;
+	private final Listener listener;
+	private final long syncInterval;
+	private final int batchSize;
+	private final long checkpointBytes;
+	// the current log, only the commit thread uses it
+	private FileChannel channel;
+	// appends that wait to be committed, an append without records closes the log
+	private final BlockingQueue<Append> queue = new LinkedBlockingQueue<Append>();
+	private boolean closed = false;
+	private final Thread thread;
+	private final ExecutorService checkpointer = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "wal-checkpoint");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// the running checkpoint, null if there has been none
+	private Future<?> checkpoint = null;
+	
+	/**
+	 * Open a log and start its commit thread. A torn record at the end of the log is cut off,
+	 * the records before it are kept, read them with {@link #read(Path)} before.
+	 * An old log that wasn't checkpointed is checkpointed.
+	 * @param path the log file, it is created if it doesn't exist
+	 * @param listener applies the records
+	 * @param syncInterval the time in ms to wait for more records before a commit, 0 to commit the waiting records at once
+	 * @param batchSize the maximum number of records of a commit
+	 * @param checkpointBytes the size of the log that triggers a checkpoint
+	 * @throws IOException if the log can't be opened
+	 */
+	public WriteAheadLog(Path path, Listener listener, long syncInterval, int batchSize, long checkpointBytes) throws IOException {
+		this.path = path;
+		this.oldPath = oldPath(path);
+		this.listener = listener;
+		this.syncInterval = Math.max(syncInterval, 0);
+		this.batchSize = Math.max(batchSize, 1);
+		this.checkpointBytes = checkpointBytes;
+		Files.createDirectories(path.getParent());
+		this.channel = open(path);
+		if (Files.exists(oldPath)) {
+			checkpoint = checkpointer.submit(this::checkpointOld);
+		}
+		this.thread = new Thread(this::run, "wal-commit");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	private static Path oldPath(Path path) {
+		return path.resolveSibling(path.getFileName() + ".old");
+	}
+	
+	/**
+	 * Open a log for appending, after its last complete record
+	 */
+	private static FileChannel open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long end = scan(channel, null);
+			channel.truncate(end);
+			channel.position(end);
+			return channel;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Read the complete records of a log, the records of an old log that wasn't checkpointed first.
+	 * The records after a torn or corrupt one are lost.
+	 * @param path the log file
+	 * @return the records in the order they were written, none if there is no log
+	 * @throws IOException if the log can't be read
+	 */
+	public static List<Record> read(Path path) throws IOException {
+		List<Record> records = new ArrayList<Record>();
+		for (Path log : new Path[] {oldPath(path), path}) {
+			if (Files.exists(log)) {
+				records.addAll(readLog(log));
+			}
+		}
+		return records;
+	}
+	
+	/**
+	 * Delete a log and its old log, after their records are in the data base
+	 * @param path the log file
+	 * @throws IOException if a log can't be deleted
+	 */
+	public static void delete(Path path) throws IOException {
+		Files.deleteIfExists(oldPath(path));
+		Files.deleteIfExists(path);
+	}
+	
+	/**
+	 * Read the records of a log from the start
+	 * @param records receives the records, null to only find the end
+	 * @return the end of the last complete record
+	 */
+	private static long scan(FileChannel channel, List<Record> records) throws IOException {
+		long size = channel.size();
+		long position = 0;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		while (position + HEADER_SIZE <= size) {
+			header.clear();
+			readFully(channel, header, position);
+			int length = header.getInt(0);
+			if (length < 8 || position + HEADER_SIZE + length > size) {
+				break;
+			}
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(channel, payload, position + HEADER_SIZE);
+			crc.reset();
+			crc.update(payload.array());
+			if ((int) crc.getValue() != header.getInt(4)) {
+				break;
+			}
+			if (records != null) {
+				records.add(decode(payload));
+			}
+			position += HEADER_SIZE + length;
+		}
+		return position;
+	}
+	
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of the log");
+			}
+		}
+	}
+	
+	private static Record decode(ByteBuffer payload) {
+		byte[] docId = new byte[payload.getInt(0)];
+		payload.position(4);
+		payload.get(docId);
+		byte[] text = new byte[payload.getInt()];
+		payload.get(text);
+		return new Record(new String(docId, StandardCharsets.UTF_8), text);
+	}
+	
+	private static ByteBuffer encode(List<Record> records) {
+		byte[][] docIds = new byte[records.size()][];
+		int size = 0;
+		for (int i=0; i<docIds.length; ++i) {
+			docIds[i] = records.get(i).docId.getBytes(StandardCharsets.UTF_8);
+			size += HEADER_SIZE + 8 + docIds[i].length + records.get(i).text.length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		CRC32 crc = new CRC32();
+		for (int i=0; i<docIds.length; ++i) {
+			Record record = records.get(i);
+			byte[] docId = docIds[i];
+			int length = 8 + docId.length + record.text.length;
+			int payload = buffer.position() + HEADER_SIZE;
+			buffer.putInt(length);
+			buffer.putInt(0);
+			buffer.putInt(docId.length).put(docId);
+			buffer.putInt(record.text.length).put(record.text);
+			crc.reset();
+			crc.update(buffer.array(), payload, length);
+			buffer.putInt(payload - 4, (int) crc.getValue());
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * Append records to the log and wait until they are committed
+	 * @param records the records, they are committed together
+	 * @throws IOException if the log is closed or the records can't be written, they are not applied then
+	 */
+	public void append(List<Record> records) throws IOException {
+		Append append = new Append(records);
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("The log " + path + " is closed.");
+			}
+			queue.add(append);
+		}
+		try {
+			append.done.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the commit, the documents may still be added.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw new IOException(cause.getMessage(), cause);
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException("Failed to commit.", cause);
+		}
+	}
+	
+	/**
+	 * Commit the waiting appends until the log is closed, then checkpoint all records
+	 */
+	private void run() {
+		try {
+			boolean closing = false;
+			while (!closing) {
+				Append first = queue.take();
+				if (first.records == null) {
+					break;
+				}
+				List<Append> batch = new ArrayList<Append>();
+				batch.add(first);
+				int size = first.records.size();
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncInterval);
+				while (size < batchSize) {
+					long wait = deadline - System.nanoTime();
+					Append next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null) {
+						break;
+					}
+					if (next.records == null) {
+						closing = true;
+						break;
+					}
+					batch.add(next);
+					size += next.records.size();
+				}
+				commit(batch);
+			}
+			awaitCheckpoint();
+			if (Files.exists(oldPath)) {
+				checkpointOld();
+			}
+			if (channel.size() > 0 && roll()) {
+				checkpointOld();
+			}
+		} catch (InterruptedException e) {
+			// the JVM is shutting down, the log is replayed at the next start
+		} catch (IOException e) {
+			System.err.println("Failed to checkpoint the log " + path + ", it is replayed at the next start. " + e.getMessage());
+		} finally {
+			checkpointer.shutdown();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.err.println("Failed to close the log " + path + ". " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Write and sync the records of appends, apply them and let the appends return
+	 */
+	private void commit(List<Append> batch) {
+		long start = Metrics.now();
+		List<Record> records = new ArrayList<Record>();
+		for (Append append : batch) {
+			records.addAll(append.records);
+		}
+		long end = 0;
+		try {
+			end = channel.position();
+			ByteBuffer buffer = encode(records);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			// Cut off what was written, the appends fail
+			try {
+				channel.truncate(end);
+				channel.position(end);
+			} catch (IOException ignored) {
+				// the torn records are dropped when the log is read
+			}
+			for (Append append : batch) {
+				append.done.completeExceptionally(new IOException("Failed to write to the log " + path + ". " + e.getMessage(), e));
+			}
+			return;
+		}
+		COMMIT.recordSince(start);
+		if (Metrics.ENABLED) {
+			COMMITS.increment();
+			RECORDS.add(records.size());
+		}
+		try {
+			listener.committed(records);
+			for (Append append : batch) {
+				append.done.complete(null);
+			}
+		} catch (RuntimeException e) {
+			// The records are in the log, they are still written to the data base at the checkpoint
+			IllegalStateException failure = new IllegalStateException(
+					"The records are in the log " + path + " but couldn't be applied. " + e.getMessage(), e);
+			for (Append append : batch) {
+				append.done.completeExceptionally(failure);
+			}
+		}
+		if (end >= checkpointBytes && (checkpoint == null || checkpoint.isDone())) {
+			if (Files.exists(oldPath) || roll()) {
+				checkpoint = checkpointer.submit(this::checkpointOld);
+			}
+		}
+	}
+	
+	/**
+	 * Rename the log to the old log and start a new log
+	 * @return true if the log was renamed
+	 */
+	private boolean roll() {
+		boolean rolled = false;
+		try {
+			channel.close();
+			Files.move(path, oldPath, StandardCopyOption.ATOMIC_MOVE);
+			rolled = true;
+		} catch (IOException e) {
+			System.err.println("Failed to rename the log " + path + ", it is checkpointed later. " + e.getMessage());
+		}
+		try {
+			channel = open(path);
+		} catch (IOException e) {
+			// The next commits fail on the closed channel
+			System.err.println("Failed to open the log " + path + ". " + e.getMessage());
+		}
+		return rolled;
+	}
+	
+	/**
+	 * Let the listener write the records of the old log to the data base, and delete it
+	 */
+	private void checkpointOld() {
+		long start = Metrics.now();
+		try {
+			listener.checkpoint(readLog(oldPath));
+			Files.delete(oldPath);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Failed to checkpoint the log " + oldPath + ", it is kept. " + e.getMessage());
+		}
+		CHECKPOINT.recordSince(start);
+	}
+	
+	/**
+	 * Read the records of one log file
+	 */
+	private static List<Record> readLog(Path log) throws IOException {
+		List<Record> records = new ArrayList<Record>();
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+			scan(channel, records);
+		}
+		return records;
+	}
+	
+	private void awaitCheckpoint() throws InterruptedException {
+		if (checkpoint != null) {
+			try {
+				checkpoint.get();
+			} catch (ExecutionException e) {
+				// checkpointOld handles its failures
+			}
+		}
+	}
+	
+	/**
+	 * Commit the appends that wait, write all records to the data base and close the log
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			queue.add(new Append(null));
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "WriteAheadLog{path=" + path + ", syncInterval=" + syncInterval + ", batchSize=" + batchSize + "}";
+	}
+	
+	/**
+	 * Records that are appended together, and the future the append waits for
+	 */
+	private static class Append {
+		
+		private final List<Record> records;
+		private final CompletableFuture<Void> done = new CompletableFuture<Void>();
+		
+		private Append(List<Record> records) {
+			this.records = records;
+		}
+	
+	}
+
+}